@@ -4,17 +4,37 @@ import com.example.pbc.logs.Logging;
 import com.example.pbc.security.JwtFilter;
 import com.example.pbc.security.JwtUtil;
 import com.example.pbc.security.PasswordEncoder;
+import com.example.pbc.security.PasswordHasher;
 import com.example.pbc.service.AuthService;
+import com.example.pbc.service.BalanceEventDispatcher;
+import com.example.pbc.service.BalanceSnapshotter;
+import com.example.pbc.service.IdempotencyCache;
+import com.example.pbc.service.LedgerReconciler;
 import com.example.pbc.service.ScoreService;
+import com.example.pbc.service.TransferImporter;
+import com.example.pbc.service.TransferLockStripes;
+import com.example.pbc.service.TransferProcessor;
+import com.example.pbc.service.TransferRetry;
 import com.example.pbc.service.TransferService;
 import com.example.pbc.work_databased.AuthRepository;
 import com.example.pbc.work_databased.DatabaseManager;
+import com.example.pbc.work_databased.FxRates;
+import com.example.pbc.work_databased.ImportRepository;
 import com.example.pbc.service.Service;
+import com.example.pbc.work_databased.OutboxRepository;
+import com.example.pbc.work_databased.PostingJournal;
+import com.example.pbc.work_databased.ScoreCache;
+import com.example.pbc.work_databased.ScoreNumberAllocator;
+import com.example.pbc.work_databased.ReconciliationRepository;
 import com.example.pbc.work_databased.ScoreRepository;
+import com.example.pbc.work_databased.ScoreSlots;
 import com.example.pbc.work_databased.TransferRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -22,6 +42,8 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 
@@ -29,11 +51,16 @@ import javax.sql.DataSource;
 @EnableWebSecurity
 public class Config {
 
+    // Групповая фиксация одиночных переводов через LedgerWriter. При ней TransferService не захватывает
+    // полосы TransferLockStripes: переводы по одному счёту упорядочивает сам LedgerWriter.
+    // Полосы и их метрики pbc.transfer.lane.queue работают только при выключенной групповой фиксации
+    private static final boolean GROUP_COMMIT = true;
+
     @Bean
     public DataSource dataSource() {
         DriverManagerDataSource dataSource = new DriverManagerDataSource();
         dataSource.setDriverClassName("com.mysql.cj.jdbc.Driver");
-        dataSource.setUrl("jdbc:mysql://localhost:3306/pbc");
+        dataSource.setUrl("jdbc:mysql://localhost:3306/pbc?rewriteBatchedStatements=true");
         dataSource.setUsername("PBC");
         dataSource.setPassword("pbc1");
         return dataSource;
@@ -45,6 +72,17 @@ public class Config {
     }
 
     @Bean
+    public PlatformTransactionManager transactionManager(DataSource dataSource) {
+        return new DataSourceTransactionManager(dataSource);
+    }
+
+    @Bean
+    public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+        return new TransactionTemplate(transactionManager);
+    }
+
+    // Недостающие таблицы, столбцы и индексы создаются при старте, до бинов, которые читают их при инициализации
+    @Bean(initMethod = "createTablesIfNotExists")
     public DatabaseManager databaseManager(JdbcTemplate jdbcTemplate) {
         return new DatabaseManager(jdbcTemplate);
     }
@@ -60,45 +98,150 @@ public class Config {
         return new AuthRepository(jdbcTemplate);
     }
 
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new PasswordEncoder();
+    @Bean(initMethod = "calibrate")
+    public PasswordEncoder passwordEncoder(MeterRegistry meterRegistry) {
+        // Наибольшая стоимость BCrypt, при которой хеш занимает не более 100 мс; не ниже 10 и не выше 16
+        return new PasswordEncoder(100, 10, 16, meterRegistry);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public PasswordHasher passwordHasher(PasswordEncoder passwordEncoder, MeterRegistry meterRegistry) {
+        // Половина ядер, чтобы всплеск входов не отнимал процессор у переводов; очередь 64 задачи, ожидание до 2 с
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new PasswordHasher(passwordEncoder, threads, 64, 2_000, meterRegistry);
     }
 
     @Bean
-    public AuthService authService(AuthRepository authRepository, PasswordEncoder passwordEncoder) {
-        return new AuthService(authRepository, passwordEncoder);
+    public AuthService authService(AuthRepository authRepository, PasswordHasher passwordHasher,
+                                   MeterRegistry meterRegistry) {
+        return new AuthService(authRepository, passwordHasher, meterRegistry);
     }
 
     //взаимодействие со счетами пользователя
     @Bean
-    public ScoreRepository scoreRepository(JdbcTemplate jdbcTemplate) {
-        return new ScoreRepository(jdbcTemplate);
+    public ScoreRepository scoreRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                           ScoreCache scoreCache) {
+        return new ScoreRepository(jdbcTemplate, transactionTemplate, scoreCache);
     }
     @Bean
-    public ScoreService scoreService(ScoreRepository scoreRepository) {
-        return new ScoreService(scoreRepository);
+    public ScoreCache scoreCache(MeterRegistry meterRegistry) {
+        // До 50 000 счетов в памяти
+        return new ScoreCache(50_000, meterRegistry);
+    }
+    @Bean
+    public ScoreService scoreService(ScoreRepository scoreRepository, ScoreSlots scoreSlots, PostingJournal postingJournal,
+                                     ScoreNumberAllocator scoreNumberAllocator) {
+        return new ScoreService(scoreRepository, scoreSlots, postingJournal, scoreNumberAllocator);
+    }
+    @Bean
+    @DependsOn("databaseManager")
+    public ScoreNumberAllocator scoreNumberAllocator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        // ACC + 10 цифр, блоками по 1000. Старые случайные номера (ACC + 6 цифр) короче и с новыми не совпадают
+        return new ScoreNumberAllocator(jdbcTemplate, transactionTemplate, "ACC", 10, 1_000);
+    }
+    @Bean(initMethod = "refresh")
+    @DependsOn("databaseManager")
+    public ScoreSlots scoreSlots(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        return new ScoreSlots(jdbcTemplate, transactionTemplate);
     }
 
     //переводы
     @Bean
-    public TransferRepository transferRepository(JdbcTemplate jdbcTemplate, ScoreRepository scoreRepository) {
-        return new TransferRepository(jdbcTemplate,scoreRepository);
+    public PostingJournal postingJournal(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                         ScoreSlots scoreSlots) {
+        return new PostingJournal(jdbcTemplate, transactionTemplate, scoreSlots);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public BalanceSnapshotter balanceSnapshotter(PostingJournal postingJournal) {
+        // Снимок раз в час с отставанием на минуту, счета по 10 000 за запрос
+        return new BalanceSnapshotter(postingJournal, 3_600_000, 60_000, 10_000);
+    }
+    @Bean
+    public OutboxRepository outboxRepository(JdbcTemplate jdbcTemplate) {
+        return new OutboxRepository(jdbcTemplate);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @DependsOn("databaseManager")
+    public BalanceEventDispatcher balanceEventDispatcher(OutboxRepository outboxRepository) {
+        // Опрос outbox каждые 200 мс пачками по 500, пустой комментарий клиентам раз в 15 с, соединение до 30 мин
+        return new BalanceEventDispatcher(outboxRepository, 500, 200, 15_000, 1_800_000);
+    }
+    @Bean
+    public ReconciliationRepository reconciliationRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        return new ReconciliationRepository(jdbcTemplate, transactionTemplate);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @DependsOn("databaseManager")
+    public LedgerReconciler ledgerReconciler(ReconciliationRepository reconciliationRepository) {
+        // Ночная сверка в 3:00: 4 потока, диапазоны по 10 000 счетов, не более 50 000 строк в секунду
+        return new LedgerReconciler(reconciliationRepository, 4, 10_000, 50_000, 3);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    @DependsOn("databaseManager")
+    public FxRates fxRates(JdbcTemplate jdbcTemplate) {
+        // Курсы перечитываются из fx_rates раз в минуту
+        return new FxRates(jdbcTemplate, 60_000);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public TransferRepository transferRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                                 ScoreSlots scoreSlots, FxRates fxRates, ScoreCache scoreCache) {
+        if (!GROUP_COMMIT) {
+            return new TransferRepository(jdbcTemplate, transactionTemplate, scoreSlots, fxRates, scoreCache);
+        }
+        // Групповая фиксация: до 100 переводов или окно 2 мс на одну транзакцию, очередь до 10 000
+        return new TransferRepository(jdbcTemplate, transactionTemplate, scoreSlots, fxRates, scoreCache, 100, 2, 10_000);
+    }
+    @Bean
+    public IdempotencyCache idempotencyCache() {
+        return new IdempotencyCache(100_000);
+    }
+    @Bean
+    public TransferLockStripes transferLockStripes(MeterRegistry meterRegistry) {
+        // 64 полосы, ожидание полосы не дольше 5 секунд; используются только без групповой фиксации,
+        // поэтому глубина очередей полос публикуется только в этом режиме
+        return new TransferLockStripes(64, 5_000, meterRegistry, !GROUP_COMMIT);
+    }
+    @Bean(initMethod = "start", destroyMethod = "shutdown")
+    public TransferProcessor transferProcessor(TransferRepository transferRepository) {
+        // 4 воркера, пачка до 200 переводов, опрос очереди раз в секунду
+        return new TransferProcessor(transferRepository, 4, 200, 1_000);
+    }
+    @Bean
+    public TransferRetry transferRetry(MeterRegistry meterRegistry) {
+        // До 5 попыток, окно паузы от 10 до 200 мс
+        return new TransferRetry(5, 10, 200, meterRegistry);
+    }
+    @Bean
+    public ImportRepository importRepository(JdbcTemplate jdbcTemplate) {
+        return new ImportRepository(jdbcTemplate);
+    }
+    @Bean
+    public TransferImporter transferImporter(TransferRepository transferRepository, ImportRepository importRepository,
+                                             TransferRetry transferRetry) {
+        // Файл обрабатывается частями по 500 строк, по части на транзакцию
+        return new TransferImporter(transferRepository, importRepository, transferRetry, 500);
+    }
+    @Bean
+    public TransferImportRunner transferImportRunner(TransferImporter transferImporter) {
+        return new TransferImportRunner(transferImporter);
     }
     @Bean
-    public TransferService transferService(TransferRepository transferRepository, ScoreService scoreService) {
-        return new TransferService(transferRepository,scoreService);
+    public TransferService transferService(TransferRepository transferRepository, ScoreService scoreService,
+                                           IdempotencyCache idempotencyCache, TransferLockStripes transferLockStripes,
+                                           TransferProcessor transferProcessor, TransferRetry transferRetry) {
+        return new TransferService(transferRepository, scoreService, idempotencyCache, transferLockStripes,
+                transferProcessor, transferRetry);
     }
 
 
 
     @Bean
-    public JwtUtil jwtUtil(){
-        return new JwtUtil();
+    public JwtUtil jwtUtil(MeterRegistry meterRegistry){
+        return new JwtUtil(100_000, meterRegistry);
     }
     @Bean
-    public JwtFilter jwtFilter(JwtUtil jwtUtil){
-        return new JwtFilter(jwtUtil);
+    public JwtFilter jwtFilter(JwtUtil jwtUtil, ScoreService scoreService){
+        return new JwtFilter(jwtUtil, scoreService);
     }
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http, JwtFilter jwtFilter) throws Exception {
@@ -0,0 +1,41 @@
+package com.example.pbc.config;
+
+import com.example.pbc.model.ImportReport;
+import com.example.pbc.service.TransferImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import java.nio.file.Path;
+
+/**
+ * Импорт переводов из файла при запуске:
+ * --import-transfers=payouts.csv [--import-result=payouts.result.csv].
+ * Повторный запуск с тем же файлом продолжает прерванный импорт
+ */
+public class TransferImportRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferImportRunner.class);
+
+    private final TransferImporter transferImporter;
+
+    public TransferImportRunner(TransferImporter transferImporter) {
+        this.transferImporter = transferImporter;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        if (!args.containsOption("import-transfers")) {
+            return;
+        }
+        Path csvFile = Path.of(args.getOptionValues("import-transfers").get(0));
+        Path resultFile = args.containsOption("import-result")
+                ? Path.of(args.getOptionValues("import-result").get(0))
+                : csvFile.resolveSibling(csvFile.getFileName() + ".result.csv");
+
+        ImportReport report = transferImporter.importFile(csvFile, resultFile);
+        log.info("Импорт {}: строк {}, успешно {}, отклонено {}, результаты в {}", csvFile,
+                report.getLinesProcessed(), report.getSucceeded(), report.getFailed(), report.getResultFile());
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.pbc.model;
+
+/**
+ * Сверка баланса счёта: снимок (scores.balance плюс слоты) и сумма проводок журнала
+ */
+public class BalanceCheck {
+    private String scoreNumber;
+    private long snapshotBalance;
+    private long journalBalance;
+
+    public BalanceCheck(String scoreNumber, long snapshotBalance, long journalBalance) {
+        this.scoreNumber = scoreNumber;
+        this.snapshotBalance = snapshotBalance;
+        this.journalBalance = journalBalance;
+    }
+    public String getScoreNumber(){
+        return scoreNumber;
+    }
+    public long getSnapshotBalance(){
+        return snapshotBalance;
+    }
+    public long getJournalBalance(){
+        return journalBalance;
+    }
+    public boolean isConsistent(){
+        return snapshotBalance == journalBalance;
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.pbc.model;
+
+/**
+ * Событие изменения баланса, отправляемое владельцу счёта: изменение суммы и текущий баланс
+ */
+public class BalanceEvent {
+    private String scoreNumber;
+    private long delta;
+    private long balance;
+
+    public BalanceEvent(String scoreNumber, long delta, long balance) {
+        this.scoreNumber = scoreNumber;
+        this.delta = delta;
+        this.balance = balance;
+    }
+    public String getScoreNumber(){
+        return scoreNumber;
+    }
+    public long getDelta(){
+        return delta;
+    }
+    public long getBalance(){
+        return balance;
+    }
+}
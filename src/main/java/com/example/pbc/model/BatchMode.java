@@ -0,0 +1,11 @@
+package com.example.pbc.model;
+
+/**
+ * Режим выполнения пакета переводов
+ */
+public enum BatchMode {
+    // Пакет применяется целиком или не применяется вовсе
+    ALL_OR_NOTHING,
+    // Применяются все корректные переводы, ошибочные пропускаются
+    BEST_EFFORT
+}
@@ -0,0 +1,42 @@
+package com.example.pbc.model;
+
+/**
+ * Итог импорта переводов из файла: всего обработано строк файла, из них успешных и отклонённых переводов,
+ * строка, с которой продолжен прерванный импорт (0 — импорт с начала), и путь к файлу результатов
+ */
+public class ImportReport {
+    private String importId;
+    private long linesProcessed;
+    private long succeeded;
+    private long failed;
+    private long resumedFromLine;
+    private String resultFile;
+
+    public ImportReport(String importId, long linesProcessed, long succeeded, long failed, long resumedFromLine,
+                        String resultFile) {
+        this.importId = importId;
+        this.linesProcessed = linesProcessed;
+        this.succeeded = succeeded;
+        this.failed = failed;
+        this.resumedFromLine = resumedFromLine;
+        this.resultFile = resultFile;
+    }
+    public String getImportId(){
+        return importId;
+    }
+    public long getLinesProcessed(){
+        return linesProcessed;
+    }
+    public long getSucceeded(){
+        return succeeded;
+    }
+    public long getFailed(){
+        return failed;
+    }
+    public long getResumedFromLine(){
+        return resumedFromLine;
+    }
+    public String getResultFile(){
+        return resultFile;
+    }
+}
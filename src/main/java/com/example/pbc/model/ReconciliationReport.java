@@ -0,0 +1,39 @@
+package com.example.pbc.model;
+
+import java.util.List;
+
+/**
+ * Итог прогона сверки: проверенные в этом запуске и пропущенные (проверенные ранее) диапазоны,
+ * число проверенных счетов и все расхождения прогона
+ */
+public class ReconciliationReport {
+    private String runId;
+    private int rangesChecked;
+    private int rangesSkipped;
+    private long accountsChecked;
+    private List<BalanceCheck> mismatches;
+
+    public ReconciliationReport(String runId, int rangesChecked, int rangesSkipped, long accountsChecked,
+                                List<BalanceCheck> mismatches) {
+        this.runId = runId;
+        this.rangesChecked = rangesChecked;
+        this.rangesSkipped = rangesSkipped;
+        this.accountsChecked = accountsChecked;
+        this.mismatches = mismatches;
+    }
+    public String getRunId(){
+        return runId;
+    }
+    public int getRangesChecked(){
+        return rangesChecked;
+    }
+    public int getRangesSkipped(){
+        return rangesSkipped;
+    }
+    public long getAccountsChecked(){
+        return accountsChecked;
+    }
+    public List<BalanceCheck> getMismatches(){
+        return mismatches;
+    }
+}
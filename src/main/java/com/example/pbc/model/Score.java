@@ -8,6 +8,10 @@ public class Score {
     private String scoreNumber;
     private Long balance;
     private boolean active;
+    // Число слотов баланса; 1 — баланс хранится только в scores.balance
+    private int slotCount;
+    // Валюта счёта, ISO 4217
+    private String currencyCode;
     private LocalDateTime createdAt;
     private LocalDateTime closedAt;
 
@@ -18,7 +22,8 @@ public class Score {
         this.scoreNumber = scoreNumber;
         this.balance = balance;
         this.active = active;
-        this.createdAt = LocalDateTime.now();
+        this.slotCount = 1;
+        this.currencyCode = "RUB";
     }
     public Long getId(){
         return id;
@@ -35,5 +40,17 @@ public class Score {
     public boolean getStatus(){
         return active;
     }
+    public int getSlotCount(){
+        return slotCount;
+    }
+    public void setSlotCount(int slotCount){
+        this.slotCount = slotCount;
+    }
+    public String getCurrencyCode(){
+        return currencyCode;
+    }
+    public void setCurrencyCode(String currencyCode){
+        this.currencyCode = currencyCode;
+    }
 
 }
@@ -0,0 +1,30 @@
+package com.example.pbc.model;
+
+/**
+ * Поля счёта, нужные для проверок перед переводом: id, владелец, баланс со слотами и статус
+ */
+public class ScoreLookup {
+    private long id;
+    private long userId;
+    private long balance;
+    private boolean active;
+
+    public ScoreLookup(long id, long userId, long balance, boolean active) {
+        this.id = id;
+        this.userId = userId;
+        this.balance = balance;
+        this.active = active;
+    }
+    public long getId(){
+        return id;
+    }
+    public long getUserId(){
+        return userId;
+    }
+    public long getBalance(){
+        return balance;
+    }
+    public boolean getStatus(){
+        return active;
+    }
+}
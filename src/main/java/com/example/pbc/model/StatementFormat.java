@@ -0,0 +1,9 @@
+package com.example.pbc.model;
+
+/**
+ * Формат выгрузки выписки
+ */
+public enum StatementFormat {
+    NDJSON,
+    CSV
+}
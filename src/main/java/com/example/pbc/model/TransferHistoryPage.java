@@ -0,0 +1,22 @@
+package com.example.pbc.model;
+
+import java.util.List;
+
+/**
+ * Страница истории переводов. nextCursor передаётся в следующий запрос; null — страниц больше нет
+ */
+public class TransferHistoryPage {
+    private List<TransferRecord> items;
+    private String nextCursor;
+
+    public TransferHistoryPage(List<TransferRecord> items, String nextCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+    }
+    public List<TransferRecord> getItems(){
+        return items;
+    }
+    public String getNextCursor(){
+        return nextCursor;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.pbc.model;
+
+/**
+ * Результат попытки перевода, определяемый за один проход по заблокированным счетам
+ */
+public enum TransferOutcome {
+    SUCCESS,
+    FROM_NOT_FOUND,
+    TO_NOT_FOUND,
+    FROM_CLOSED,
+    TO_CLOSED,
+    INSUFFICIENT_FUNDS,
+    // Нет курса между валютами счетов или сумма зачисления после конвертации нулевая
+    FX_RATE_UNAVAILABLE,
+    // Перевод не прошёл проверку входных данных
+    INVALID,
+    // Перевод откатан, так как в пакете ALL_OR_NOTHING есть ошибка
+    ROLLED_BACK,
+    // Перевод с таким ключом идемпотентности уже выполнен ранее
+    DUPLICATE
+}
@@ -0,0 +1,97 @@
+package com.example.pbc.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public class TransferRecord {
+    private Long id;
+    private String transferUuid;
+    private String fromScoreNumber;
+    private String toScoreNumber;
+    private Long amount;
+    private String currencyCode;
+    private Long creditAmount;
+    private String creditCurrencyCode;
+    private BigDecimal fxRate;
+    private String status;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+
+    public TransferRecord(Long id, String transferUuid, String fromScoreNumber, String toScoreNumber, Long amount,
+                          String status, LocalDateTime createdAt, LocalDateTime completedAt) {
+        this(id, transferUuid, fromScoreNumber, toScoreNumber, amount, null, null, null, null,
+                status, createdAt, completedAt);
+    }
+
+    /**
+     * amount и currencyCode — в валюте отправителя, creditAmount и creditCurrencyCode — зачисленное получателю
+     * (creditAmount пуст, пока перевод в очереди)
+     */
+    public TransferRecord(Long id, String transferUuid, String fromScoreNumber, String toScoreNumber, Long amount,
+                          String currencyCode, Long creditAmount, String creditCurrencyCode, BigDecimal fxRate,
+                          String status, LocalDateTime createdAt, LocalDateTime completedAt) {
+        this.id = id;
+        this.transferUuid = transferUuid;
+        this.fromScoreNumber = fromScoreNumber;
+        this.toScoreNumber = toScoreNumber;
+        this.amount = amount;
+        this.currencyCode = currencyCode;
+        this.creditAmount = creditAmount;
+        this.creditCurrencyCode = creditCurrencyCode;
+        this.fxRate = fxRate;
+        this.status = status;
+        this.createdAt = createdAt;
+        this.completedAt = completedAt;
+    }
+
+    /**
+     * Перевод глазами владельца счёта: для входящего перевода amount и currencyCode
+     * заменяются зачисленной суммой в валюте получателя. Пока сумма не зачислена
+     * (PENDING, FAILED), остаются сумма и валюта отправителя
+     */
+    public TransferRecord forScore(String scoreNumber) {
+        if (scoreNumber.equals(fromScoreNumber) || !scoreNumber.equals(toScoreNumber) || creditAmount == null) {
+            return this;
+        }
+        return new TransferRecord(id, transferUuid, fromScoreNumber, toScoreNumber,
+                creditAmount, creditCurrencyCode != null ? creditCurrencyCode : currencyCode,
+                creditAmount, creditCurrencyCode, fxRate, status, createdAt, completedAt);
+    }
+
+    public Long getId(){
+        return id;
+    }
+    public String getTransferUuid(){
+        return transferUuid;
+    }
+    public String getFromScoreNumber(){
+        return fromScoreNumber;
+    }
+    public String getToScoreNumber(){
+        return toScoreNumber;
+    }
+    public Long getAmount(){
+        return amount;
+    }
+    public String getCurrencyCode(){
+        return currencyCode;
+    }
+    public Long getCreditAmount(){
+        return creditAmount;
+    }
+    public String getCreditCurrencyCode(){
+        return creditCurrencyCode;
+    }
+    public BigDecimal getFxRate(){
+        return fxRate;
+    }
+    public String getStatus(){
+        return status;
+    }
+    public LocalDateTime getCreatedAt(){
+        return createdAt;
+    }
+    public LocalDateTime getCompletedAt(){
+        return completedAt;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.pbc.model;
+
+public class TransferResult {
+    private int index;
+    private String fromScoreNumber;
+    private String toScoreNumber;
+    private Long amount;
+    private TransferOutcome outcome;
+
+    public TransferResult(int index, String fromScoreNumber, String toScoreNumber, Long amount, TransferOutcome outcome) {
+        this.index = index;
+        this.fromScoreNumber = fromScoreNumber;
+        this.toScoreNumber = toScoreNumber;
+        this.amount = amount;
+        this.outcome = outcome;
+    }
+
+    public int getIndex(){
+        return index;
+    }
+    public String getFromScoreNumber(){
+        return fromScoreNumber;
+    }
+    public String getToScoreNumber(){
+        return toScoreNumber;
+    }
+    public Long getAmount(){
+        return amount;
+    }
+    public TransferOutcome getOutcome(){
+        return outcome;
+    }
+}
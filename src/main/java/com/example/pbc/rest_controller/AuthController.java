@@ -77,8 +77,8 @@ public class AuthController {
         if (success) {
             log.info("Вход выполнен: {}", login);
             String uuid=authService.getUuid(login);
-            // Генерируем JWT
-            String token = jwtUtil.generateToken(uuid);
+            // Генерируем JWT; ID пользователя в подписанном claim избавляет запросы к счетам от поиска по UUID
+            String token = jwtUtil.generateToken(uuid, authService.getUserId(login));
             return ResponseEntity.ok(new AuthResponse(uuid, token));
         } else {
             log.warn("Вход провален для: {}", login);
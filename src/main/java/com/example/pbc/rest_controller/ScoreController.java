@@ -1,9 +1,10 @@
 package com.example.pbc.rest_controller;
 
 import com.example.pbc.model.Score;
+import com.example.pbc.service.BalanceEventDispatcher;
 import com.example.pbc.service.ScoreService;
 import com.example.pbc.exception.BadRequestException;
-import com.example.pbc.security.JwtUtil;
+import com.example.pbc.security.JwtPrincipal;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -11,10 +12,15 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.security.Principal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController
@@ -25,14 +31,14 @@ public class ScoreController {
     private static final Logger log = LoggerFactory.getLogger(ScoreController.class);
 
     private final ScoreService scoreService;
-    private final JwtUtil jwtUtil;
+    private final BalanceEventDispatcher balanceEventDispatcher;
 
-    public ScoreController(ScoreService scoreService, JwtUtil jwtUtil) {
+    public ScoreController(ScoreService scoreService, BalanceEventDispatcher balanceEventDispatcher) {
         this.scoreService = scoreService;
-        this.jwtUtil = jwtUtil;
+        this.balanceEventDispatcher = balanceEventDispatcher;
     }
 
-    // === Открытие счёта (теперь использует uuid из токена) ===
+    // === Открытие счёта (ID пользователя из токена) ===
     @PostMapping("/open")
     @Operation(
             summary = "Открыть новый счёт",
@@ -44,11 +50,10 @@ public class ScoreController {
             }
     )
     public ResponseEntity<String> openNewScore(
-            @RequestHeader("Authorization") String token,
+            @AuthenticationPrincipal JwtPrincipal principal,
             @RequestBody Score score) {
 
-        String uuid = extractUuidFromToken(token);
-        Long userId = scoreService.getUserIdByUuid(uuid); // получить ID из БД по UUID
+        Long userId = currentUserId(principal);
 
         log.info("Попытка открытия счёта для пользователя: {}", userId);
 
@@ -57,7 +62,7 @@ public class ScoreController {
             throw new BadRequestException("Баланс не может быть отрицательным или нулём");
         }
 
-        scoreService.openScore(userId, score.getBalance());
+        scoreService.openScore(userId, score.getBalance(), score.getCurrencyCode());
         log.info("Счёт успешно открыт для пользователя: {}", userId);
         return ResponseEntity.ok(score.getScoreNumber());
     }
@@ -73,9 +78,8 @@ public class ScoreController {
                     @ApiResponse(responseCode = "401", description = "Неавторизованный доступ", content = @Content(schema = @Schema(implementation = String.class)))
             }
     )
-    public List<Score> listScores(@RequestHeader("Authorization") String token) {
-        String uuid = extractUuidFromToken(token);
-        Long userId = scoreService.getUserIdByUuid(uuid);
+    public List<Score> listScores(@AuthenticationPrincipal JwtPrincipal principal) {
+        Long userId = currentUserId(principal);
 
         log.info("Запрос на получение списка счетов для пользователя: {}", userId);
 
@@ -97,11 +101,10 @@ public class ScoreController {
             }
     )
     public ResponseEntity<String> closeScore(
-            @RequestHeader("Authorization") String token,
+            @AuthenticationPrincipal JwtPrincipal principal,
             @RequestBody Score score) {
 
-        String uuid = extractUuidFromToken(token);
-        Long userId = scoreService.getUserIdByUuid(uuid);
+        Long userId = currentUserId(principal);
 
         String scoreNumber = score.getScoreNumber();
         log.info("Попытка закрытия счёта: {}", scoreNumber);
@@ -116,14 +119,111 @@ public class ScoreController {
         return ResponseEntity.ok("Счёт закрыт");
     }
 
-    // Вспомогательный метод для извлечения uuid из токена
-    private String extractUuidFromToken(String token) {
-        try {
-            return jwtUtil.extractUuid(token);
-        } catch (Exception ex) {
+    // === Разделение баланса счёта на слоты ===
+    @PostMapping("/split")
+    @Operation(
+            summary = "Разделить баланс счёта на слоты",
+            description = "Для счетов с большим числом входящих переводов: зачисления распределяются по slots слотам и не ждут друг друга",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Баланс счёта разделён"),
+                    @ApiResponse(responseCode = "400", description = "Неверный номер счёта или число слотов", content = @Content(schema = @Schema(implementation = String.class))),
+                    @ApiResponse(responseCode = "401", description = "Неавторизованный доступ", content = @Content(schema = @Schema(implementation = String.class)))
+            }
+    )
+    public ResponseEntity<String> splitScore(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam("slots") int slots,
+            @RequestBody Score score) {
+
+        Long userId = currentUserId(principal);
+
+        String scoreNumber = score.getScoreNumber();
+        log.info("Разделение счёта {} на {} слотов", scoreNumber, slots);
+
+        if (scoreNumber == null || scoreNumber.trim().isEmpty()) {
+            log.warn("Номер счёта не указан");
+            throw new BadRequestException("Номер счёта обязателен");
+        }
+
+        scoreService.splitScore(scoreNumber, slots, userId);
+        return ResponseEntity.ok("Баланс счёта разделён на " + slots + " слотов");
+    }
+
+    // === Слияние слотов счёта в один баланс ===
+    @PostMapping("/merge")
+    @Operation(
+            summary = "Слить слоты счёта",
+            description = "Переносит баланс всех слотов обратно в основной баланс счёта",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Слоты слиты"),
+                    @ApiResponse(responseCode = "400", description = "Неверный формат запроса", content = @Content(schema = @Schema(implementation = String.class))),
+                    @ApiResponse(responseCode = "401", description = "Неавторизованный доступ", content = @Content(schema = @Schema(implementation = String.class)))
+            }
+    )
+    public ResponseEntity<String> mergeScore(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestBody Score score) {
+
+        Long userId = currentUserId(principal);
+
+        String scoreNumber = score.getScoreNumber();
+        log.info("Слияние слотов счёта {}", scoreNumber);
+
+        if (scoreNumber == null || scoreNumber.trim().isEmpty()) {
+            log.warn("Номер счёта не указан");
+            throw new BadRequestException("Номер счёта обязателен");
+        }
+
+        scoreService.mergeScore(scoreNumber, userId);
+        return ResponseEntity.ok("Слоты счёта слиты");
+    }
+
+    // === Поток изменений балансов (SSE) ===
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(
+            summary = "Поток изменений балансов",
+            description = "Server-Sent Events: событие balance с номером счёта, изменением и текущим балансом приходит при каждом изменении баланса счетов пользователя",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Поток событий открыт"),
+                    @ApiResponse(responseCode = "401", description = "Неавторизованный доступ", content = @Content(schema = @Schema(implementation = String.class)))
+            }
+    )
+    public SseEmitter streamBalances(@AuthenticationPrincipal JwtPrincipal principal) {
+        Long userId = currentUserId(principal);
+
+        log.info("Подписка на изменения балансов пользователя: {}", userId);
+        return balanceEventDispatcher.subscribe(userId);
+    }
+
+    // === Баланс счёта на момент времени ===
+    @GetMapping("/balance")
+    @Operation(
+            summary = "Баланс счёта на момент времени",
+            description = "Возвращает баланс счёта на указанный момент по ближайшему снимку балансов и проводкам после него",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Баланс на момент времени"),
+                    @ApiResponse(responseCode = "400", description = "Неверный счёт или момент в будущем", content = @Content(schema = @Schema(implementation = String.class))),
+                    @ApiResponse(responseCode = "401", description = "Неавторизованный доступ", content = @Content(schema = @Schema(implementation = String.class)))
+            }
+    )
+    public ResponseEntity<Long> getBalanceAt(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam("scoreNumber") String scoreNumber,
+            @RequestParam("at") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime at) {
+
+        Long userId = currentUserId(principal);
+
+        log.info("Запрос баланса счёта {} на {}", scoreNumber, at);
+        return ResponseEntity.ok(scoreService.getBalanceAt(scoreNumber, at, userId));
+    }
+
+    // ID пользователя из токена, уже проверенного JwtFilter
+    private Long currentUserId(JwtPrincipal principal) {
+        if (principal == null) {
             log.warn("Неверный токен или истёкший срок действия");
             throw new IllegalArgumentException("Неверный токен");
         }
+        return principal.getUserId();
     }
 
 }
\ No newline at end of file
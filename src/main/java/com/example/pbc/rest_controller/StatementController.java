@@ -0,0 +1,94 @@
+package com.example.pbc.rest_controller;
+
+import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.ForbiddenException;
+import com.example.pbc.model.StatementFormat;
+import com.example.pbc.security.JwtPrincipal;
+import com.example.pbc.service.TransferService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDate;
+import java.util.zip.GZIPOutputStream;
+
+@RestController
+@RequestMapping("/transfers")
+@Tag(name = "Выписки", description = "Выгрузка выписок по счёту")
+public class StatementController {
+
+    private static final Logger log = LoggerFactory.getLogger(StatementController.class);
+
+    private final TransferService transferService;
+
+    public StatementController(TransferService transferService) {
+        this.transferService = transferService;
+    }
+
+    @GetMapping("/statement")
+    @Operation(summary = "Выписка по счёту",
+            description = "Выгружает все переводы счёта за период в формате NDJSON или CSV. Строки передаются по мере чтения из БД, " +
+                    "объём выписки не ограничен. С gzip=true ответ сжимается")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Выписка"),
+            @ApiResponse(responseCode = "400", description = "Некорректный период", content = @Content),
+            @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
+            @ApiResponse(responseCode = "403", description = "Пользователь не является владельцем счёта", content = @Content)
+    })
+    public ResponseEntity<?> exportStatement(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam("scoreNumber") String scoreNumber,
+            @RequestParam(value = "format", defaultValue = "NDJSON") StatementFormat format,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+
+        String uuid = principal.getUuid();
+        log.info("Выгрузка выписки по счёту {} ({}, {} - {}), пользователь: {}", scoreNumber, format, from, to, uuid);
+
+        // Права проверяются до начала потока, пока ещё можно вернуть код ошибки
+        try {
+            transferService.requireScoreOwner(scoreNumber, principal.getUserId());
+        } catch (BadRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ForbiddenException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        }
+        if (from != null && to != null && from.isAfter(to)) {
+            return ResponseEntity.badRequest().body("Начало периода должно быть не позже конца");
+        }
+
+        String extension = format == StatementFormat.CSV ? "csv" : "ndjson";
+        MediaType mediaType = format == StatementFormat.CSV
+                ? new MediaType("text", "csv")
+                : new MediaType("application", "x-ndjson");
+        String fileName = "statement-" + scoreNumber + "." + extension + (gzip ? ".gz" : "");
+
+        StreamingResponseBody body = out -> {
+            if (gzip) {
+                GZIPOutputStream gzipOut = new GZIPOutputStream(out, 64 * 1024);
+                transferService.writeStatement(scoreNumber, from, to, format, gzipOut);
+                gzipOut.finish();
+            } else {
+                transferService.writeStatement(scoreNumber, from, to, format, out);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(gzip ? new MediaType("application", "gzip") : mediaType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
+                .body(body);
+    }
+}
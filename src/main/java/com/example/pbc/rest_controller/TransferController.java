@@ -1,9 +1,17 @@
 package com.example.pbc.rest_controller;
 
+import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.ConflictException;
+import com.example.pbc.exception.ForbiddenException;
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.model.BatchMode;
+import com.example.pbc.model.ScoreLookup;
 import com.example.pbc.model.Transfer;
-import com.example.pbc.security.JwtUtil;
+import com.example.pbc.model.TransferHistoryPage;
+import com.example.pbc.model.TransferRecord;
+import com.example.pbc.model.TransferResult;
+import com.example.pbc.security.JwtPrincipal;
 import com.example.pbc.service.TransferService;
-import io.jsonwebtoken.JwtException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -14,10 +22,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/transfers")
@@ -25,28 +36,34 @@ import java.util.Map;
 public class TransferController {
 
     private final TransferService transferService;
-    private final JwtUtil jwtUtil;
     private static final Logger log = LoggerFactory.getLogger(TransferController.class);
 
-    public TransferController(TransferService transferService, JwtUtil jwtUtil) {
+    public TransferController(TransferService transferService) {
         this.transferService = transferService;
-        this.jwtUtil = jwtUtil;
     }
 
     @PostMapping("/perform")
-    @Operation(summary = "Выполнить перевод", description = "Пользователь указывает счёт-отправитель, счёт-получатель и сумму")
+    @Operation(summary = "Выполнить перевод", description = "Пользователь указывает счёт-отправитель, счёт-получатель и сумму. " +
+            "Необязательный заголовок Idempotency-Key (до 36 символов) защищает от повторного списания при повторе запроса: " +
+            "ключ действует в пределах пользователя, повтор с другими счетами или суммой отклоняется с кодом 409. " +
+            "С параметром async=true перевод принимается в статусе PENDING и возвращается его transfer_uuid")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Перевод успешно выполнен"),
+            @ApiResponse(responseCode = "202", description = "Перевод принят в обработку, в теле transfer_uuid"),
             @ApiResponse(responseCode = "400", description = "Некорректные данные", content = @Content),
             @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
             @ApiResponse(responseCode = "403", description = "Пользователь не является владельцем счёта", content = @Content),
-            @ApiResponse(responseCode = "500", description = "Внутренняя ошибка сервера", content = @Content)
+            @ApiResponse(responseCode = "409", description = "Ключ идемпотентности уже использован для другого перевода", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Внутренняя ошибка сервера", content = @Content),
+            @ApiResponse(responseCode = "503", description = "Счёт занят другими переводами, запрос можно повторить", content = @Content)
     })
     public ResponseEntity<String> performTransfer(
-            @RequestHeader("Authorization") String token,
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+            @RequestParam(value = "async", defaultValue = "false") boolean async,
             @RequestBody Transfer transfer) {
 
-        String uuid = jwtUtil.extractUuid(token); // извлекаем uuid из токена
+        String uuid = principal.getUuid(); // uuid из токена, проверенного JwtFilter
         log.info("Вызван метод performTransfer с данными: {}, пользователь: {}", transfer, uuid);
 
         // Проверка прав доступа
@@ -56,9 +73,22 @@ public class TransferController {
         }*/
 
         try {
-            transferService.transfer(transfer.getFromScoreNumber(), transfer.getToScoreNumber(), transfer.getAmount());
+            if (async) {
+                String transferUuid = transferService.submitTransfer(transfer.getFromScoreNumber(), transfer.getToScoreNumber(),
+                        transfer.getAmount(), principal.getUserId(), idempotencyKey);
+                log.info("Перевод принят в обработку: {}", transferUuid);
+                return ResponseEntity.status(HttpStatus.ACCEPTED).body(transferUuid);
+            }
+            transferService.transfer(transfer.getFromScoreNumber(), transfer.getToScoreNumber(), transfer.getAmount(),
+                    principal.getUserId(), idempotencyKey);
             log.info("Перевод успешно выполнен: {}", transfer);
             return ResponseEntity.ok("Перевод выполнен успешно");
+        } catch (ConflictException e) {
+            log.warn("Перевод отклонён, ключ идемпотентности уже использован: {}", transfer);
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (ServiceUnavailableException e) {
+            log.warn("Перевод отложен, счёт занят: {}", transfer);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(e.getMessage());
         } catch (Exception e) {
             log.error("Ошибка при выполнении перевода: {}", transfer, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -66,6 +96,76 @@ public class TransferController {
         }
     }
 
+    @PostMapping("/batch")
+    @Operation(summary = "Выполнить пакет переводов",
+            description = "Принимает список переводов и возвращает результат по каждому. Режим ALL_OR_NOTHING применяет пакет целиком или не применяет вовсе, BEST_EFFORT применяет все корректные переводы")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Пакет обработан, результат по каждому переводу"),
+            @ApiResponse(responseCode = "400", description = "Пустой или слишком большой пакет", content = @Content),
+            @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
+            @ApiResponse(responseCode = "500", description = "Внутренняя ошибка сервера", content = @Content)
+    })
+    public ResponseEntity<List<TransferResult>> performBatch(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam(value = "mode", defaultValue = "BEST_EFFORT") BatchMode mode,
+            @RequestBody List<Transfer> transfers) {
+
+        String uuid = principal.getUuid();
+        log.info("Вызван метод performBatch: {} переводов, режим {}, пользователь: {}",
+                transfers == null ? 0 : transfers.size(), mode, uuid);
+
+        List<TransferResult> results = transferService.transferBatch(transfers, mode);
+        log.info("Пакет обработан: {} переводов", results.size());
+        return ResponseEntity.ok(results);
+    }
+
+    @GetMapping("/history")
+    @Operation(summary = "История переводов счёта",
+            description = "Возвращает исходящие и входящие переводы счёта от новых к старым. Для следующей страницы передайте nextCursor из предыдущего ответа")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Страница истории"),
+            @ApiResponse(responseCode = "400", description = "Некорректный курсор или размер страницы", content = @Content),
+            @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
+            @ApiResponse(responseCode = "403", description = "Пользователь не является владельцем счёта", content = @Content)
+    })
+    public ResponseEntity<?> getHistory(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @RequestParam("scoreNumber") String scoreNumber,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+        String uuid = principal.getUuid();
+        log.info("Запрос истории счёта {}, пользователь: {}", scoreNumber, uuid);
+
+        try {
+            TransferHistoryPage page = transferService.getHistory(scoreNumber, principal.getUserId(), cursor, limit);
+            return ResponseEntity.ok(page);
+        } catch (BadRequestException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ForbiddenException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{transferUuid}")
+    @Operation(summary = "Статус перевода", description = "Возвращает перевод и его статус (PENDING, SUCCESS, FAILED) по transfer_uuid")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Перевод найден"),
+            @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
+            @ApiResponse(responseCode = "404", description = "Перевод не найден или не относится к счетам пользователя", content = @Content)
+    })
+    public ResponseEntity<TransferRecord> getTransfer(
+            @AuthenticationPrincipal JwtPrincipal principal,
+            @PathVariable("transferUuid") String transferUuid) {
+
+        String uuid = principal.getUuid();
+        log.info("Запрос статуса перевода {}, пользователь: {}", transferUuid, uuid);
+
+        return transferService.findTransfer(transferUuid, principal.getUserId())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
     @PostMapping("/check-score")
     @Operation(summary = "Проверить возможность перевода", description = "Проверяет существование счетов и наличие достаточного баланса")
     @ApiResponses(value = {
@@ -76,24 +176,23 @@ public class TransferController {
             @ApiResponse(responseCode = "401", description = "Неверный или отсутствующий токен", content = @Content),
             @ApiResponse(responseCode = "500", description = "Внутренняя ошибка сервера", content = @Content)
     })
-    public ResponseEntity<Map<String, Object>> checkScore(@RequestHeader("Authorization") String token,
+    public ResponseEntity<Map<String, Object>> checkScore(@AuthenticationPrincipal JwtPrincipal principal,
                                                           @RequestBody Transfer transfer) {
         Map<String, Object> result = new HashMap<>();
-        String uuid;
-        try {
-            uuid = jwtUtil.extractUuid(token);
-        } catch (JwtException e) {
-            log.warn("Невалидный токен: {}", e.getMessage());
+        if (principal == null) {
+            log.warn("Невалидный токен");
             result.put("error", "Невалидный токен");
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(result);
         }
+        String uuid = principal.getUuid();
         log.info("Вызван метод checkScore с данными: {}, пользователь: {}", transfer, uuid);
 
 
 
-        boolean fromExists = transferService.scoreExists(transfer.getFromScoreNumber());
-        boolean toExists = transferService.scoreExists(transfer.getToScoreNumber());
-        Long balance = transferService.getBalance(transfer.getFromScoreNumber());
+        // По одному запросу на счёт: существование, статус и баланс приходят вместе
+        Optional<ScoreLookup> from = transferService.lookupScore(transfer.getFromScoreNumber());
+        boolean fromExists = from.isPresent() && from.get().getStatus();
+        boolean toExists = transferService.lookupScore(transfer.getToScoreNumber()).isPresent();
 
         if (!fromExists || !toExists) {
             result.put("error", "Один из счетов не существует или вы не владелец счёта отправителя");
@@ -101,6 +200,7 @@ public class TransferController {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(result);
         }
 
+        long balance = from.get().getBalance();
         if (balance < transfer.getAmount()) {
             result.put("error", "Недостаточно средств на счёте");
             log.warn("Ошибка проверки: {}", result.get("error"));
@@ -1,6 +1,7 @@
 package com.example.pbc.security;
 
-import com.example.pbc.rest_controller.ScoreController;
+import com.example.pbc.service.ScoreService;
+import io.jsonwebtoken.JwtException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -14,14 +15,20 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.ArrayList;
 
+/**
+ * Разбирает и проверяет токен один раз за запрос; JwtPrincipal кладётся в SecurityContext.
+ * ID пользователя берётся из claim токена, таблица users читается только для токенов без него
+ */
 //@Component
 public class JwtFilter extends OncePerRequestFilter {
     private static final Logger log = LoggerFactory.getLogger(JwtFilter.class);
 
     private final JwtUtil jwtUtil;
+    private final ScoreService scoreService;
 
-    public JwtFilter(JwtUtil jwtUtil) {
+    public JwtFilter(JwtUtil jwtUtil, ScoreService scoreService) {
         this.jwtUtil = jwtUtil;
+        this.scoreService = scoreService;
     }
 
     protected void doFilterInternal(HttpServletRequest request,
@@ -29,18 +36,40 @@ public class JwtFilter extends OncePerRequestFilter {
                                     FilterChain filterChain)
             throws ServletException, IOException {
         String token = getTokenFromHeader(request);
-        if (token != null && jwtUtil.validateToken(token)) {
-            String uuid = jwtUtil.extractUuid(token);
-            log.info("Аутентификация успешна для UUID: {}", uuid);
+        JwtPrincipal principal = null;
+        if (token != null) {
+            try {
+                principal = jwtUtil.parse(token);
+            } catch (JwtException | IllegalArgumentException e) {
+                log.warn("Токен не валиден: {}", e.getMessage());
+            }
+            if (principal != null && principal.getUserId() == null) {
+                principal = withLegacyUserId(principal);
+            }
+        }
+        if (principal != null) {
+            log.debug("Аутентификация успешна для UUID: {}", principal.getUuid());
             UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                    uuid, null, new ArrayList<>());
+                    principal, null, new ArrayList<>());
             SecurityContextHolder.getContext().setAuthentication(authentication);
-        } else {
-            log.warn("Токен не валиден или отсутствует");
+        } else if (token == null) {
+            log.debug("Токен отсутствует");
         }
         filterChain.doFilter(request, response);
     }
 
+    /**
+     * Токен выпущен до появления claim uid: ID пользователя ищется по UUID
+     */
+    private JwtPrincipal withLegacyUserId(JwtPrincipal principal) {
+        try {
+            return principal.withUserId(scoreService.getUserIdByUuid(principal.getUuid()));
+        } catch (RuntimeException e) {
+            log.warn("Пользователь токена {} не найден: {}", principal.getUuid(), e.getMessage());
+            return null;
+        }
+    }
+
     private String getTokenFromHeader(HttpServletRequest request) {
         String bearer = request.getHeader("Authorization");
         if (bearer != null && bearer.startsWith("Bearer ")) {
@@ -48,4 +77,4 @@ public class JwtFilter extends OncePerRequestFilter {
         }
         return null;
     }
-}
\ No newline at end of file
+}
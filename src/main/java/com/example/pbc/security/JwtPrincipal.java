@@ -0,0 +1,43 @@
+package com.example.pbc.security;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Данные проверенного токена: кладутся JwtFilter в SecurityContext и читаются контроллерами
+ * через @AuthenticationPrincipal без повторного разбора токена
+ */
+public class JwtPrincipal {
+    private final String uuid;
+    // app_users.id из claim uid; null у токенов, выпущенных до появления claim
+    private final Long userId;
+    private final Instant expiresAt;
+    private final Map<String, Object> claims;
+
+    public JwtPrincipal(String uuid, Long userId, Instant expiresAt, Map<String, Object> claims) {
+        this.uuid = uuid;
+        this.userId = userId;
+        this.expiresAt = expiresAt;
+        this.claims = Map.copyOf(claims);
+    }
+    public String getUuid(){
+        return uuid;
+    }
+    public Long getUserId(){
+        return userId;
+    }
+    public JwtPrincipal withUserId(Long userId){
+        return new JwtPrincipal(uuid, userId, expiresAt, claims);
+    }
+    public Instant getExpiresAt(){
+        return expiresAt;
+    }
+    public Map<String, Object> getClaims(){
+        return claims;
+    }
+
+    @Override
+    public String toString() {
+        return uuid;
+    }
+}
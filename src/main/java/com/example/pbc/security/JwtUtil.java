@@ -1,12 +1,28 @@
 package com.example.pbc.security;
 
 import io.jsonwebtoken.*;
-import org.springframework.stereotype.Component;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
-
+/**
+ * Выпуск и проверка токенов. Проверенные токены хранятся в ограниченном кэше до своего срока exp:
+ * повторный запрос с тем же токеном не проверяет HMAC и не разбирает JSON
+ */
 public class JwtUtil {
 
     private final String secret = "very-long-secret-key-for-jwt-signing-which-is-over-64-bytes-in-length";
@@ -14,35 +30,167 @@ public class JwtUtil {
 
     private final long EXPIRATION = 864_000_000; // 10 дней
 
-    public String generateToken(String subject) {
-        return Jwts.builder()
+    // Claim с ID пользователя (app_users.id)
+    static final String USER_ID_CLAIM = "uid";
+
+    // Парсер неизменяем и потокобезопасен, строится один раз
+    private final JwtParser parser = Jwts.parserBuilder()
+            .setSigningKey(SIGNING_KEY)
+            .build();
+
+    // Не меньше стольких записей на сегмент: маленький кэш остаётся одним точным LRU
+    private static final int MIN_SEGMENT_CAPACITY = 1024;
+    private static final int MAX_SEGMENTS = 16;
+
+    // Ключ — SHA-256 токена, сам токен в памяти кэша не хранится. Кэш разбит на сегменты LRU
+    // со своей блокировкой: вытеснение самой давней записи сегмента — O(1), горячие токены остаются
+    private final Segment[] segments;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer verifyTimer;
+
+    public JwtUtil(int cacheCapacity, MeterRegistry meterRegistry) {
+        int segmentCount = Math.max(1, Math.min(MAX_SEGMENTS, cacheCapacity / MIN_SEGMENT_CAPACITY));
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            // Остаток от деления достаётся первым сегментам, в сумме ровно cacheCapacity
+            segments[i] = new Segment(cacheCapacity / segmentCount + (i < cacheCapacity % segmentCount ? 1 : 0));
+        }
+        this.hits = Counter.builder("pbc.jwt.cache.requests")
+                .description("Обращения к кэшу проверенных токенов")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("pbc.jwt.cache.requests")
+                .description("Обращения к кэшу проверенных токенов")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.verifyTimer = Timer.builder("pbc.jwt.verify")
+                .description("Время проверки подписи и разбора токена")
+                .register(meterRegistry);
+        Gauge.builder("pbc.jwt.cache.size", this, JwtUtil::cacheSize)
+                .description("Проверенных токенов в кэше")
+                .register(meterRegistry);
+    }
+
+    public String generateToken(String subject, Long userId) {
+        JwtBuilder builder = Jwts.builder();
+        if (userId != null) {
+            builder.claim(USER_ID_CLAIM, userId);
+        }
+        return builder
                 .setSubject(subject)
                 .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION))
                 .signWith(SignatureAlgorithm.HS512, SIGNING_KEY)
                 .compact();
     }
 
-    public String extractUuid(String token) {
+    /**
+     * Проверяет подпись и срок действия токена и возвращает его данные.
+     * Невалидный токен — JwtException
+     */
+    public JwtPrincipal parse(String token) {
         if (token != null && token.startsWith("Bearer ")) {
-            token= token.substring(7);
+            token = token.substring(7);
+        }
+        if (token == null || token.isEmpty()) {
+            throw new MalformedJwtException("Токен отсутствует");
+        }
+
+        String key = digest(token);
+        JwtPrincipal cached = cached(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+
+        long start = System.nanoTime();
+        JwtPrincipal principal;
+        try {
+            principal = verify(token);
+        } finally {
+            verifyTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        // Токен без exp не кэшируется: для него нет момента, когда запись станет недействительной
+        if (principal.getExpiresAt() != null) {
+            Segment segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, principal);
+            }
         }
-        return Jwts.parserBuilder()
-                .setSigningKey(SIGNING_KEY)
-                .build()
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+        return principal;
     }
 
-    public boolean validateToken(String token) {
+    int cacheSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Запись кэша, если её токен ещё не истёк. Истёкшая запись удаляется,
+     * и токен проходит полную проверку, которая и вернёт ExpiredJwtException.
+     * Истёкшие токены, которые больше не приходят, вытесняются как самые давние
+     */
+    private JwtPrincipal cached(String key) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            JwtPrincipal principal = segment.get(key);
+            if (principal != null && !principal.getExpiresAt().isAfter(Instant.now())) {
+                segment.remove(key);
+                return null;
+            }
+            return principal;
+        }
+    }
+
+    private Segment segment(String key) {
+        return segments[Math.floorMod(key.hashCode(), segments.length)];
+    }
+
+    private static String digest(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(SIGNING_KEY)
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
-        } catch (JwtException ex) {
-            return false;
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private JwtPrincipal verify(String token) {
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        Date expiration = claims.getExpiration();
+        // Стандартные поля хранятся отдельно, в claims — только собственные
+        Map<String, Object> custom = new HashMap<>(claims);
+        custom.keySet().removeAll(List.of(Claims.SUBJECT, Claims.EXPIRATION, Claims.ISSUED_AT, USER_ID_CLAIM));
+        custom.values().removeIf(Objects::isNull);
+        // Число из JSON приходит как Integer или Long в зависимости от величины
+        Object userId = claims.get(USER_ID_CLAIM);
+        return new JwtPrincipal(claims.getSubject(), userId instanceof Number n ? n.longValue() : null,
+                expiration != null ? expiration.toInstant() : null, custom);
+    }
+
+    /**
+     * Сегмент кэша: LinkedHashMap в порядке обращений, при переполнении удаляет самую давнюю запись.
+     * Доступ только под блокировкой самого сегмента
+     */
+    private static final class Segment extends LinkedHashMap<String, JwtPrincipal> {
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JwtPrincipal> eldest) {
+            return size() > capacity;
         }
     }
-}
\ No newline at end of file
+}
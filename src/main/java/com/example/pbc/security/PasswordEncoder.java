@@ -1,15 +1,147 @@
 package com.example.pbc.security;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BCrypt со стоимостью, подобранной при запуске: calibrate() замеряет хеширование на этом железе
+ * и выбирает наибольшую стоимость в пределах targetMillis на один хеш, но не ниже minCost.
+ * Хеши с другой стоимостью продолжают проверяться, needsRehash() сообщает о хешах с меньшей стоимостью.
+ * Хеши с большей стоимостью не пересчитываются: калибровка на более медленном узле не должна их ослаблять
+ */
 public class PasswordEncoder {
-    private final BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordEncoder.class);
+
+    // Стоимость по умолчанию BCryptPasswordEncoder, действует до калибровки
+    static final int DEFAULT_COST = 10;
+
+    // Замеров на каждую стоимость при калибровке; берётся медиана, чтобы одна пауза GC не сдвинула выбор
+    static final int CALIBRATION_RUNS = 3;
+
+    private final long targetMillis;
+    private final int minCost;
+    private final int maxCost;
+    private final MeterRegistry meterRegistry;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+
+    private volatile BCryptPasswordEncoder encoder;
+    private volatile int cost;
+
+    /**
+     * targetMillis — бюджет на один хеш, minCost и maxCost — границы подбора стоимости
+     */
+    public PasswordEncoder(long targetMillis, int minCost, int maxCost, MeterRegistry meterRegistry) {
+        if (minCost < 4 || maxCost > 31 || minCost > maxCost) {
+            throw new IllegalArgumentException("Стоимость BCrypt должна быть от 4 до 31");
+        }
+        this.targetMillis = targetMillis;
+        this.minCost = minCost;
+        this.maxCost = maxCost;
+        this.meterRegistry = meterRegistry;
+        this.cost = Math.max(minCost, Math.min(DEFAULT_COST, maxCost));
+        this.encoder = new BCryptPasswordEncoder(cost);
+        this.encodeTimer = Timer.builder("pbc.auth.bcrypt.duration")
+                .description("Время хеширования и проверки пароля BCrypt")
+                .tag("operation", "encode")
+                .register(meterRegistry);
+        this.matchesTimer = Timer.builder("pbc.auth.bcrypt.duration")
+                .description("Время хеширования и проверки пароля BCrypt")
+                .tag("operation", "matches")
+                .register(meterRegistry);
+        Gauge.builder("pbc.auth.bcrypt.cost", this, PasswordEncoder::getCost)
+                .description("Текущая стоимость BCrypt")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Подбирает стоимость: каждая следующая удваивает время, поэтому замер останавливается
+     * на первой стоимости сверх бюджета. Время стоимости — медиана CALIBRATION_RUNS хешей,
+     * оно публикуется в метриках
+     */
+    public void calibrate() {
+        // Прогрев: первый вызов включает загрузку классов и JIT
+        new BCryptPasswordEncoder(4).encode("calibration");
+
+        int chosen = minCost;
+        for (int candidate = minCost; candidate <= maxCost; candidate++) {
+            BCryptPasswordEncoder probe = new BCryptPasswordEncoder(candidate);
+            long[] runs = new long[CALIBRATION_RUNS];
+            for (int run = 0; run < CALIBRATION_RUNS; run++) {
+                long start = System.nanoTime();
+                probe.encode("calibration");
+                runs[run] = System.nanoTime() - start;
+            }
+            Arrays.sort(runs);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(runs[CALIBRATION_RUNS / 2]);
+            Gauge.builder("pbc.auth.bcrypt.calibration", () -> elapsedMillis)
+                    .description("Время одного хеша при калибровке, мс")
+                    .tag("cost", Integer.toString(candidate))
+                    .register(meterRegistry);
+            log.info("Калибровка BCrypt: стоимость {} — {} мс", candidate, elapsedMillis);
+            if (elapsedMillis > targetMillis) {
+                if (candidate == minCost) {
+                    log.warn("BCrypt с минимальной стоимостью {} не укладывается в {} мс, используется минимальная", minCost, targetMillis);
+                }
+                break;
+            }
+            chosen = candidate;
+        }
+        encoder = new BCryptPasswordEncoder(chosen);
+        cost = chosen;
+        log.info("Стоимость BCrypt: {} (бюджет {} мс на хеш)", chosen, targetMillis);
+    }
 
     public String encode(String rawPassword) {
-        return encoder.encode(rawPassword);
+        long start = System.nanoTime();
+        try {
+            return encoder.encode(rawPassword);
+        } finally {
+            encodeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
     public boolean matches(String rawPassword, String encodedPassword) {
-        return encoder.matches(rawPassword, encodedPassword);
+        long start = System.nanoTime();
+        try {
+            return encoder.matches(rawPassword, encodedPassword);
+        } finally {
+            matchesTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Хеш создан с меньшей стоимостью, чем текущая, и его следует пересчитать
+     */
+    public boolean needsRehash(String encodedPassword) {
+        int stored = costOf(encodedPassword);
+        return stored > 0 && stored < cost;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * Стоимость из хеша вида $2a$10$...; -1 — не хеш BCrypt
+     */
+    static int costOf(String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.length() < 7 || encodedPassword.charAt(0) != '$'
+                || encodedPassword.charAt(3) != '$' || encodedPassword.charAt(6) != '$') {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(encodedPassword.substring(4, 6));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
 }
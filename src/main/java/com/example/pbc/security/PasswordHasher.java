@@ -0,0 +1,136 @@
+package com.example.pbc.security;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Хеширование и проверка паролей BCrypt в отдельном пуле из threads потоков с очередью на queueCapacity задач.
+ * Всплеск входов занимает только этот пул, а не потоки Tomcat и процессор переводов.
+ * Заполненная очередь — сразу TooManyRequestsException (429), задача, не выполненная за timeoutMillis, —
+ * ServiceUnavailableException (503)
+ */
+public class PasswordHasher {
+
+    private static final Logger log = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private final PasswordEncoder passwordEncoder;
+    private final int threads;
+    private final int queueCapacity;
+    private final long timeoutMillis;
+
+    private final Counter rejected;
+    private final Counter timedOut;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile ThreadPoolExecutor executor;
+
+    public PasswordHasher(PasswordEncoder passwordEncoder, int threads, int queueCapacity, long timeoutMillis,
+                          MeterRegistry meterRegistry) {
+        this.passwordEncoder = passwordEncoder;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.timeoutMillis = timeoutMillis;
+        this.rejected = Counter.builder("pbc.auth.hashing.rejected")
+                .description("Запросы входа и регистрации, отклонённые из-за заполненной очереди")
+                .register(meterRegistry);
+        this.timedOut = Counter.builder("pbc.auth.hashing.timeouts")
+                .description("Задачи BCrypt, не выполненные за отведённое время")
+                .register(meterRegistry);
+        Gauge.builder("pbc.auth.hashing.queue", this, PasswordHasher::queued)
+                .description("Задачи BCrypt в очереди")
+                .register(meterRegistry);
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+            Thread thread = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        log.info("Пул BCrypt запущен: потоков {}, очередь {}", threads, queueCapacity);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        executor.shutdownNow();
+        log.info("Пул BCrypt остановлен");
+    }
+
+    public String encode(String rawPassword) {
+        return submit(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    public boolean matches(String rawPassword, String encodedPassword) {
+        return submit(() -> passwordEncoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * Проверка стоимости по префиксу хеша, без BCrypt — выполняется в потоке вызывающего
+     */
+    public boolean needsRehash(String encodedPassword) {
+        return passwordEncoder.needsRehash(encodedPassword);
+    }
+
+    public int getCost() {
+        return passwordEncoder.getCost();
+    }
+
+    int queued() {
+        ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    private <T> T submit(Callable<T> task) {
+        if (!running.get()) {
+            throw new ServiceUnavailableException("Сервис входа остановлен");
+        }
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Очередь BCrypt заполнена, запрос отклонён");
+            throw new TooManyRequestsException("Слишком много попыток входа, повторите позже");
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.increment();
+            log.warn("Задача BCrypt не выполнена за {} мс", timeoutMillis);
+            throw new ServiceUnavailableException("Сервис входа перегружен, повторите позже");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Сервис входа перегружен, повторите позже");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -1,26 +1,38 @@
 package com.example.pbc.service;
 
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.exception.TooManyRequestsException;
 import com.example.pbc.model.Data_user;
 import com.example.pbc.model.User;
-import com.example.pbc.security.PasswordEncoder;
+import com.example.pbc.security.PasswordHasher;
 import com.example.pbc.work_databased.AuthRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AuthService {
 
     private static final Logger log = LoggerFactory.getLogger(AuthService.class);
 
     private final AuthRepository authRepository;
-    private final PasswordEncoder passwordEncoder;
+    // BCrypt выполняется в отдельном ограниченном пуле, а не в потоке запроса
+    private final PasswordHasher passwordHasher;
 
-    public AuthService(AuthRepository authRepository, PasswordEncoder passwordEncoder) {
+    // Пароли с хешем не текущей стоимости; -1 — ещё не подсчитаны
+    private final AtomicLong pendingRehashes = new AtomicLong(-1);
+
+    public AuthService(AuthRepository authRepository, PasswordHasher passwordHasher, MeterRegistry meterRegistry) {
         this.authRepository = authRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
+        Gauge.builder("pbc.auth.bcrypt.rehash.pending", this, AuthService::pendingRehashes)
+                .description("Пароли, хеш которых будет пересчитан с текущей стоимостью при следующем входе")
+                .register(meterRegistry);
     }
 
     public void register(String login, String password, String firstName, String lastName, String email, String phone) {
@@ -39,7 +51,7 @@ public class AuthService {
                 throw new IllegalArgumentException("Логин " + login + " уже занят");
             }
 
-            String encodedPassword = passwordEncoder.encode(password);
+            String encodedPassword = passwordHasher.encode(password);
             authRepository.save(new User(null, login, encodedPassword));
 
 
@@ -49,6 +61,9 @@ public class AuthService {
             authRepository.saveDataUser(new Data_user(login,password,uuid, firstName,lastName,email,phone));
             log.info("Пользователь {} успешно зарегистрирован", login);
 
+        } catch (TooManyRequestsException | ServiceUnavailableException e) {
+            // Перегрузка пула BCrypt отдаётся клиенту как есть: 429 или 503, а не 500
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при регистрации пользователя {}: {}", login, e.getMessage(), e);
             throw new RuntimeException("Ошибка регистрации: " + e.getMessage(), e);
@@ -66,22 +81,67 @@ public class AuthService {
                 return false;
             }
 
-            boolean isMatch = passwordEncoder.matches(password, userOpt.get().getPassword());
+            User user = userOpt.get();
+            boolean isMatch = passwordHasher.matches(password, user.getPassword());
 
             if (!isMatch) {
                 log.warn("Вход не выполнен: неверный пароль для пользователя {}", login);
                 return false;
             }
+            if (passwordHasher.needsRehash(user.getPassword())) {
+                rehash(user, password);
+            }
 
             log.info("Пользователь {} успешно вошёл", login);
             return true;
 
+        } catch (TooManyRequestsException | ServiceUnavailableException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Ошибка при попытке входа пользователя {}: {}", login, e.getMessage(), e);
             throw new RuntimeException("Ошибка при входе: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Пересчитывает хеш с текущей стоимостью после успешного входа. Ошибка не мешает входу:
+     * хеш будет пересчитан при следующем
+     */
+    private void rehash(User user, String password) {
+        try {
+            String newHash = passwordHasher.encode(password);
+            if (authRepository.updatePasswordHash(user.getId(), user.getPassword(), newHash)) {
+                pendingRehashes.updateAndGet(pending -> pending > 0 ? pending - 1 : pending);
+                log.info("Хеш пароля пользователя {} пересчитан со стоимостью {}", user.getLogin(), passwordHasher.getCost());
+            }
+        } catch (RuntimeException e) {
+            log.warn("Не удалось пересчитать хеш пароля пользователя {}: {}", user.getLogin(), e.getMessage());
+        }
+    }
+
+    /**
+     * Число паролей к пересчёту: считается в БД при первом обращении, затем уменьшается при каждом пересчёте
+     */
+    double pendingRehashes() {
+        if (pendingRehashes.get() < 0) {
+            try {
+                pendingRehashes.compareAndSet(-1, authRepository.countPasswordsBelowCost(passwordHasher.getCost()));
+            } catch (RuntimeException e) {
+                log.warn("Не удалось подсчитать пароли к пересчёту: {}", e.getMessage());
+                return Double.NaN;
+            }
+        }
+        return pendingRehashes.get();
+    }
+
     public String getUuid(String login){
         return authRepository.getUuid(login);
     }
+
+    /**
+     * ID пользователя для claim токена
+     */
+    public Long getUserId(String login){
+        return authRepository.getAppUserId(login);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+package com.example.pbc.service;
+
+import com.example.pbc.work_databased.OutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Рассылка изменений балансов подключённым клиентам через Server-Sent Events.
+ * Один поток читает outbox_events пачками, отправляет события владельцам счетов и удаляет их.
+ * Подключённые клиенты не обращаются к БД: между событиями им отправляется только пустой комментарий
+ */
+public class BalanceEventDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceEventDispatcher.class);
+
+    private final OutboxRepository outboxRepository;
+    private final int batchSize;
+    private final long pollMillis;
+    private final long heartbeatMillis;
+    private final long emitterTimeoutMillis;
+
+    private final Map<Long, Set<SseEmitter>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    public BalanceEventDispatcher(OutboxRepository outboxRepository, int batchSize, long pollMillis,
+                                  long heartbeatMillis, long emitterTimeoutMillis) {
+        this.outboxRepository = outboxRepository;
+        this.batchSize = batchSize;
+        this.pollMillis = pollMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "balance-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::dispatch, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        log.info("Рассылка событий балансов запущена, опрос outbox каждые {} мс", pollMillis);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        for (Set<SseEmitter> emitters : subscribers.values()) {
+            emitters.forEach(SseEmitter::complete);
+        }
+        subscribers.clear();
+        log.info("Рассылка событий балансов остановлена");
+    }
+
+    /**
+     * Подписывает клиента пользователя на изменения балансов его счетов
+     */
+    public SseEmitter subscribe(Long userId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        subscribers.computeIfAbsent(userId, id -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> unsubscribe(userId, emitter));
+        emitter.onTimeout(() -> unsubscribe(userId, emitter));
+        emitter.onError(e -> unsubscribe(userId, emitter));
+        log.debug("Подписка на события балансов пользователя {}", userId);
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * Разбирает outbox до конца. События удаляются после отправки, даже если у владельца
+     * нет подключённых клиентов. Возвращает число разосланных событий
+     */
+    public int dispatch() {
+        int dispatched = 0;
+        try {
+            while (true) {
+                List<OutboxRepository.OutboxEvent> events = outboxRepository.fetchBatch(batchSize);
+                if (events.isEmpty()) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>(events.size());
+                for (OutboxRepository.OutboxEvent event : events) {
+                    send(event);
+                    ids.add(event.id());
+                }
+                outboxRepository.delete(ids);
+                dispatched += events.size();
+                if (events.size() < batchSize) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при рассылке событий балансов", e);
+        }
+        return dispatched;
+    }
+
+    private void send(OutboxRepository.OutboxEvent event) {
+        Set<SseEmitter> emitters = subscribers.get(event.userId());
+        if (emitters == null) {
+            return;
+        }
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("balance").data(event.event(), MediaType.APPLICATION_JSON));
+            } catch (IOException | IllegalStateException e) {
+                unsubscribe(event.userId(), emitter);
+            }
+        }
+    }
+
+    // Пустой комментарий держит соединение открытым и выявляет отключившихся клиентов
+    private void heartbeat() {
+        subscribers.forEach((userId, emitters) -> {
+            for (SseEmitter emitter : emitters) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    unsubscribe(userId, emitter);
+                }
+            }
+        });
+    }
+
+    private void unsubscribe(Long userId, SseEmitter emitter) {
+        subscribers.computeIfPresent(userId, (id, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
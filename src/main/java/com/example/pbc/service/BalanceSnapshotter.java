@@ -0,0 +1,72 @@
+package com.example.pbc.service;
+
+import com.example.pbc.work_databased.PostingJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Периодически снимает балансы счетов в balance_snapshots. Запрос баланса на дату
+ * начинается с ближайшего снимка, поэтому его стоимость ограничена интервалом снимков
+ */
+public class BalanceSnapshotter {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceSnapshotter.class);
+
+    private final PostingJournal postingJournal;
+    private final long intervalMillis;
+    private final long lagMillis;
+    private final int scoreRange;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * lagMillis — отставание момента снимка от текущего времени, больше самой длинной транзакции перевода
+     */
+    public BalanceSnapshotter(PostingJournal postingJournal, long intervalMillis, long lagMillis, int scoreRange) {
+        this.postingJournal = postingJournal;
+        this.intervalMillis = intervalMillis;
+        this.lagMillis = lagMillis;
+        this.scoreRange = scoreRange;
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "balance-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::snapshot, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        log.info("Снимки балансов каждые {} мс", intervalMillis);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        log.info("Снимки балансов остановлены");
+    }
+
+    /**
+     * Один проход снимков; ошибка не останавливает расписание, следующий проход продолжит с последних снимков
+     */
+    public int snapshot() {
+        try {
+            return postingJournal.takeSnapshots(LocalDateTime.now().minus(Duration.ofMillis(lagMillis)), scoreRange);
+        } catch (Exception e) {
+            log.error("Ошибка при снятии снимков балансов", e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.pbc.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Ограниченный кэш уже выполненных переводов с ключом идемпотентности: transfer_uuid,
+ * выведенный из пользователя и ключа, и отпечаток параметров перевода.
+ * Давно не использованные записи вытесняются, источником истины остаётся
+ * уникальный transfer_uuid в таблице transfers
+ */
+public class IdempotencyCache {
+
+    private final Map<String, String> fingerprints;
+
+    public IdempotencyCache(int capacity) {
+        this.fingerprints = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Отпечаток параметров перевода, выполненного с этим transfer_uuid
+     */
+    public synchronized Optional<String> get(String transferUuid) {
+        return Optional.ofNullable(fingerprints.get(transferUuid));
+    }
+
+    public synchronized void put(String transferUuid, String fingerprint) {
+        fingerprints.put(transferUuid, fingerprint);
+    }
+
+    public synchronized int size() {
+        return fingerprints.size();
+    }
+}
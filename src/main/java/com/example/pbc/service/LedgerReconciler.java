@@ -0,0 +1,275 @@
+package com.example.pbc.service;
+
+import com.example.pbc.model.BalanceCheck;
+import com.example.pbc.model.ReconciliationReport;
+import com.example.pbc.work_databased.ReconciliationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ночная сверка: баланс каждого счёта (scores.balance плюс слоты) должен равняться сумме его проводок,
+ * то есть начальному балансу плюс зачисления минус списания. Пространство id счетов делится на диапазоны,
+ * диапазоны проверяются параллельно в ForkJoinPool, строки каждого диапазона читаются потоком.
+ * Проверенные диапазоны сохраняются, поэтому прерванный прогон продолжается с места остановки.
+ * Общая скорость чтения ограничена, чтобы сверка не вытесняла рабочие запросы
+ */
+public class LedgerReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerReconciler.class);
+
+    // Строк между обращениями к ограничителю скорости
+    static final int THROTTLE_STEP = 1_000;
+
+    private final ReconciliationRepository reconciliationRepository;
+    private final int parallelism;
+    private final int rangeSize;
+    private final RowThrottle throttle;
+    private final int runHour;
+
+    private final AtomicBoolean inProgress = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private ForkJoinPool pool;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * rangeSize — число id счетов в диапазоне, maxRowsPerSecond — предел чтения строк в секунду на все потоки,
+     * runHour — час ежедневного запуска
+     */
+    public LedgerReconciler(ReconciliationRepository reconciliationRepository, int parallelism, int rangeSize,
+                            long maxRowsPerSecond, int runHour) {
+        this.reconciliationRepository = reconciliationRepository;
+        this.parallelism = parallelism;
+        this.rangeSize = rangeSize;
+        this.throttle = new RowThrottle(maxRowsPerSecond);
+        this.runHour = runHour;
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        pool = new ForkJoinPool(parallelism);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ledger-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Прогон, прерванный остановкой приложения, продолжается сразу
+        scheduler.execute(this::resumeUnfinished);
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = now.toLocalDate().atTime(runHour, 0);
+        if (!next.isAfter(now)) {
+            next = next.plusDays(1);
+        }
+        scheduler.scheduleAtFixedRate(() -> runSafely(LocalDate.now().toString()),
+                Duration.between(now, next).toMillis(), TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+        log.info("Сверка журнала запланирована на {}", next);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        scheduler.shutdownNow();
+        pool.shutdownNow();
+        log.info("Сверка журнала остановлена");
+    }
+
+    /**
+     * Выполняет или продолжает прогон сверки runId. Одновременно выполняется только один прогон
+     */
+    public ReconciliationReport reconcile(String runId) {
+        if (!inProgress.compareAndSet(false, true)) {
+            throw new IllegalStateException("Сверка уже выполняется");
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            reconciliationRepository.startRun(runId);
+            Set<Long> completed = reconciliationRepository.completedRanges(runId);
+            long maxScoreId = reconciliationRepository.maxScoreId();
+
+            List<Long> ranges = new ArrayList<>();
+            int skipped = 0;
+            for (long rangeStart = 0; rangeStart < maxScoreId; rangeStart += rangeSize) {
+                if (completed.contains(rangeStart)) {
+                    skipped++;
+                } else {
+                    ranges.add(rangeStart);
+                }
+            }
+            log.info("Сверка {}: диапазонов к проверке {}, проверено ранее {}", runId, ranges.size(), skipped);
+
+            long accounts = ranges.isEmpty() ? 0 : pool.invoke(new RangeTask(runId, ranges, 0, ranges.size()));
+            reconciliationRepository.finishRun(runId);
+
+            List<BalanceCheck> mismatches = reconciliationRepository.findMismatches(runId);
+            for (BalanceCheck mismatch : mismatches) {
+                log.warn("Сверка {}: баланс счёта {} равен {}, по журналу {}", runId,
+                        mismatch.getScoreNumber(), mismatch.getSnapshotBalance(), mismatch.getJournalBalance());
+            }
+            log.info("Сверка {} завершена за {} мс: счетов {}, расхождений {}", runId,
+                    System.currentTimeMillis() - startTime, accounts, mismatches.size());
+            return new ReconciliationReport(runId, ranges.size(), skipped, accounts, mismatches);
+        } finally {
+            inProgress.set(false);
+        }
+    }
+
+    private void resumeUnfinished() {
+        try {
+            reconciliationRepository.findUnfinishedRun().ifPresent(this::runSafely);
+        } catch (Exception e) {
+            log.error("Не удалось проверить незавершённые прогоны сверки", e);
+        }
+    }
+
+    private void runSafely(String runId) {
+        try {
+            reconcile(runId);
+        } catch (Exception e) {
+            log.error("Сверка {} прервана, будет продолжена при следующем запуске", runId, e);
+        }
+    }
+
+    /**
+     * Проверяет один диапазон (rangeStart, rangeStart + rangeSize] и сохраняет его результат.
+     * Возвращает число проверенных счетов
+     */
+    long checkRange(String runId, long rangeStart) {
+        RangeTotals totals = new RangeTotals(rangeStart, rangeSize, throttle);
+        reconciliationRepository.scanRange(rangeStart, rangeStart + rangeSize, totals);
+        reconciliationRepository.completeRange(runId, rangeStart, rangeStart + rangeSize, totals.mismatches());
+        return totals.accounts();
+    }
+
+    // Делит список диапазонов пополам, пока не останется один диапазон
+    private class RangeTask extends RecursiveTask<Long> {
+        private final String runId;
+        private final List<Long> ranges;
+        private final int from;
+        private final int to;
+
+        RangeTask(String runId, List<Long> ranges, int from, int to) {
+            this.runId = runId;
+            this.ranges = ranges;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from == 1) {
+                return checkRange(runId, ranges.get(from));
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(runId, ranges, from, middle);
+            left.fork();
+            long right = new RangeTask(runId, ranges, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    /**
+     * Суммы диапазона в массивах long по смещению id от начала диапазона, без объектов на строку
+     */
+    static final class RangeTotals implements ReconciliationRepository.RangeSink {
+        private final long rangeStart;
+        private final RowThrottle throttle;
+        private final long[] snapshot;
+        private final long[] journal;
+        private final String[] numbers;
+        private long rows;
+
+        RangeTotals(long rangeStart, int rangeSize, RowThrottle throttle) {
+            this.rangeStart = rangeStart;
+            this.throttle = throttle;
+            this.snapshot = new long[rangeSize];
+            this.journal = new long[rangeSize];
+            this.numbers = new String[rangeSize];
+        }
+
+        @Override
+        public void snapshot(long scoreId, String scoreNumber, long balance) {
+            int index = (int) (scoreId - rangeStart - 1);
+            snapshot[index] = balance;
+            numbers[index] = scoreNumber;
+            countRow();
+        }
+
+        @Override
+        public void posting(long scoreId, long amount) {
+            journal[(int) (scoreId - rangeStart - 1)] += amount;
+            countRow();
+        }
+
+        private void countRow() {
+            if (++rows % THROTTLE_STEP == 0) {
+                throttle.acquire(THROTTLE_STEP);
+            }
+        }
+
+        long accounts() {
+            long count = 0;
+            for (String number : numbers) {
+                if (number != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        List<ReconciliationRepository.Mismatch> mismatches() {
+            List<ReconciliationRepository.Mismatch> mismatches = new ArrayList<>();
+            for (int i = 0; i < numbers.length; i++) {
+                if (numbers[i] != null && snapshot[i] != journal[i]) {
+                    mismatches.add(new ReconciliationRepository.Mismatch(rangeStart + i + 1,
+                            new BalanceCheck(numbers[i], snapshot[i], journal[i])));
+                }
+            }
+            return mismatches;
+        }
+    }
+
+    /**
+     * Ограничитель скорости: выдаёт разрешения равномерно, не более permitsPerSecond в секунду
+     */
+    static final class RowThrottle {
+        private final long nanosPerPermit;
+        private long nextFreeNanos = System.nanoTime();
+
+        RowThrottle(long permitsPerSecond) {
+            this.nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        }
+
+        void acquire(int permits) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                waitNanos = Math.max(0, nextFreeNanos - now);
+                nextFreeNanos = Math.max(nextFreeNanos, now) + permits * nanosPerPermit;
+            }
+            if (waitNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Сверка прервана");
+                }
+            }
+        }
+    }
+}
@@ -2,24 +2,43 @@ package com.example.pbc.service;
 
 import com.example.pbc.exception.BadRequestException;
 import com.example.pbc.model.Score;
+import com.example.pbc.model.ScoreLookup;
+import com.example.pbc.work_databased.PostingJournal;
+import com.example.pbc.work_databased.ScoreNumberAllocator;
 import com.example.pbc.work_databased.ScoreRepository;
+import com.example.pbc.work_databased.ScoreSlots;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 
 public class ScoreService {
 
     private final ScoreRepository scoreRepository;
+    private final ScoreSlots scoreSlots;
+    private final PostingJournal postingJournal;
+    private final ScoreNumberAllocator scoreNumberAllocator;
     private static final Logger log = LoggerFactory.getLogger(ScoreService.class);
 
-    public ScoreService(ScoreRepository scoreRepository) {
+    public ScoreService(ScoreRepository scoreRepository, ScoreSlots scoreSlots, PostingJournal postingJournal,
+                        ScoreNumberAllocator scoreNumberAllocator) {
         this.scoreRepository = scoreRepository;
+        this.scoreSlots = scoreSlots;
+        this.postingJournal = postingJournal;
+        this.scoreNumberAllocator = scoreNumberAllocator;
     }
 
     public void openScore(Long userId, Long initialBalance) {
+        openScore(userId, initialBalance, "RUB");
+    }
+
+    /**
+     * Открытие счёта в указанной валюте (код ISO 4217)
+     */
+    public void openScore(Long userId, Long initialBalance, String currencyCode) {
         long startTime = System.currentTimeMillis();
         log.info("Попытка открытия счёта для пользователя с ID {}", userId);
 
@@ -33,9 +52,15 @@ public class ScoreService {
             throw new BadRequestException("Баланс не может быть отрицательным");
         }
 
+        if (currencyCode == null || !currencyCode.matches("[A-Z]{3}")) {
+            log.warn("Некорректный код валюты: {}", currencyCode);
+            throw new BadRequestException("Код валюты должен состоять из трёх заглавных латинских букв");
+        }
+
         try {
-            String scoreNumber = generateScoreNumber();
+            String scoreNumber = scoreNumberAllocator.next();
             Score score = new Score(null, userId, scoreNumber, initialBalance, true);
+            score.setCurrencyCode(currencyCode);
             scoreRepository.createScore(score);
             log.info("Счёт {} успешно открыт для пользователя {}", scoreNumber, userId);
         } catch (Exception e) {
@@ -46,6 +71,9 @@ public class ScoreService {
         }
     }
 
+    /**
+     * Активные счета пользователя из кэша списков
+     */
     public List<Score> getScoresForUser(Long userId) {
         return scoreRepository.getScoresByUserId(userId);
     }
@@ -55,45 +83,75 @@ public class ScoreService {
             throw new IllegalArgumentException("Счёт не принадлежит пользователю");
         }
         scoreRepository.closeScore(scoreNumber);
-    }
-    public boolean scoreExists(String scoreNumber) {
-        return scoreRepository.scoreExists(scoreNumber);
+        scoreRepository.evictUserScores(userId);
     }
 
-    private String generateScoreNumber() {
-        // Пример генерации: ACC + 6 случайных цифр
-        String prefix = "ACC";
-        int suffixLength = 6;
-        String numbers = "0123456789";
-        StringBuilder sb = new StringBuilder(prefix);
+    /**
+     * Разделить баланс счёта на слоты для счёта с большим числом входящих переводов
+     */
+    public void splitScore(String scoreNumber, int slotCount, Long userId) {
+        if (!scoreRepository.isScoreBelongsToUser(scoreNumber, userId)) {
+            throw new IllegalArgumentException("Счёт не принадлежит пользователю");
+        }
+        scoreSlots.split(scoreNumber, slotCount);
+        scoreRepository.evict(scoreNumber);
+        scoreRepository.evictUserScores(userId);
+    }
 
-        for (int i = 0; i < suffixLength; i++) {
-            int index = (int) (Math.random() * numbers.length());
-            sb.append(numbers.charAt(index));
+    /**
+     * Слить слоты счёта обратно в один баланс
+     */
+    public void mergeScore(String scoreNumber, Long userId) {
+        if (!scoreRepository.isScoreBelongsToUser(scoreNumber, userId)) {
+            throw new IllegalArgumentException("Счёт не принадлежит пользователю");
         }
+        scoreSlots.merge(scoreNumber);
+        scoreRepository.evict(scoreNumber);
+        scoreRepository.evictUserScores(userId);
+    }
+    public boolean isScoreOwner(String scoreNumber, Long userId) {
+        return scoreRepository.isScoreBelongsToUser(scoreNumber, userId);
+    }
+    public boolean scoreExists(String scoreNumber) {
+        return scoreRepository.scoreExists(scoreNumber);
+    }
 
-        return sb.toString();
+    /**
+     * id, владелец, баланс и статус счёта одним запросом
+     */
+    public Optional<ScoreLookup> lookupScore(String scoreNumber) {
+        return scoreRepository.lookupScore(scoreNumber);
     }
 
     public Long getBalance(String scoreNumber) {
-        Score score = scoreRepository.findByScoreNumber(scoreNumber)
-                .orElseThrow(() -> new IllegalArgumentException("Счёт не найден: " + scoreNumber));
-
-        if (!score.getStatus()) {
-            throw new IllegalArgumentException("Счёт закрыт");
+        return requireActive(scoreNumber).getBalance();
+    }
+    /**
+     * Баланс счёта на момент времени: ближайший снимок и проводки после него
+     */
+    public Long getBalanceAt(String scoreNumber, LocalDateTime at, Long userId) {
+        if (at == null || at.isAfter(LocalDateTime.now())) {
+            throw new IllegalArgumentException("Момент времени должен быть в прошлом");
         }
-
-        return score.getBalance();
+        if (!scoreRepository.isScoreBelongsToUser(scoreNumber, userId)) {
+            throw new IllegalArgumentException("Счёт не принадлежит пользователю");
+        }
+        return postingJournal.balanceAt(scoreNumber, at)
+                .orElseThrow(() -> new IllegalArgumentException("Счёт не найден: " + scoreNumber));
     }
     public Long getScoreId(String scoreNumber) {
-        Score score = scoreRepository.findByScoreNumber(scoreNumber)
+        return requireActive(scoreNumber).getId();
+    }
+
+    private ScoreLookup requireActive(String scoreNumber) {
+        ScoreLookup score = scoreRepository.lookupScore(scoreNumber)
                 .orElseThrow(() -> new IllegalArgumentException("Счёт не найден: " + scoreNumber));
 
         if (!score.getStatus()) {
             throw new IllegalArgumentException("Счёт закрыт");
         }
 
-        return score.getId();
+        return score;
     }
     public Long getUserIdByUuid(String uuid) {
 
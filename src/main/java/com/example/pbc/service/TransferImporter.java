@@ -0,0 +1,241 @@
+package com.example.pbc.service;
+
+import com.example.pbc.model.ImportReport;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.work_databased.ImportRepository;
+import com.example.pbc.work_databased.TransferRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Импорт переводов из CSV-файла вида "счёт отправителя,счёт получателя,сумма" (первая строка может
+ * быть заголовком). Файл читается потоком частями по chunkSize строк: номера счетов части проверяются
+ * одним запросом IN, переводы применяются пакетными запросами. Результат каждой строки пишется
+ * в файл результатов. Контрольная точка (строка файла и длина файла результатов) фиксируется
+ * в транзакции вместе с переводами части, поэтому прерванный импорт продолжается с места остановки
+ */
+public class TransferImporter {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferImporter.class);
+
+    static final String RESULT_HEADER = "line,outcome,transfer_uuid\n";
+
+    // Строка файла; transfer == null, если строку не удалось разобрать
+    private record ImportLine(long lineNumber, Transfer transfer) {
+    }
+
+    private final TransferRepository transferRepository;
+    private final ImportRepository importRepository;
+    private final TransferRetry transferRetry;
+    private final int chunkSize;
+
+    public TransferImporter(TransferRepository transferRepository, ImportRepository importRepository,
+                            TransferRetry transferRetry, int chunkSize) {
+        this.transferRepository = transferRepository;
+        this.importRepository = importRepository;
+        this.transferRetry = transferRetry;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Импортирует файл csvFile, результаты строк пишет в resultFile.
+     * Повторный вызов для того же файла продолжает импорт с последней контрольной точки
+     */
+    public ImportReport importFile(Path csvFile, Path resultFile) throws IOException {
+        long startTime = System.currentTimeMillis();
+        String importId = digest(csvFile);
+        ImportRepository.Checkpoint checkpoint = importRepository.start(importId, csvFile.getFileName().toString());
+        long resumedFrom = checkpoint.linesDone();
+        if (checkpoint.finished()) {
+            log.info("Импорт {} уже завершён", csvFile);
+            return report(importId, checkpoint, resumedFrom, resultFile);
+        }
+        if (resumedFrom > 0) {
+            log.info("Импорт {} продолжается со строки {}", csvFile, resumedFrom + 1);
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             FileChannel result = FileChannel.open(resultFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Строки после контрольной точки могли попасть в файл результатов до сбоя
+            result.truncate(checkpoint.resultBytes());
+            if (checkpoint.resultBytes() == 0) {
+                byte[] header = RESULT_HEADER.getBytes(StandardCharsets.UTF_8);
+                result.write(ByteBuffer.wrap(header), 0);
+                checkpoint = new ImportRepository.Checkpoint(checkpoint.linesDone(), header.length,
+                        checkpoint.succeeded(), checkpoint.failed(), false);
+            }
+
+            long lineNumber = 0;
+            String line;
+            while (lineNumber < resumedFrom && reader.readLine() != null) {
+                lineNumber++;
+            }
+            List<ImportLine> chunk = new ArrayList<>(chunkSize);
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && isHeader(line))) {
+                    continue;
+                }
+                chunk.add(new ImportLine(lineNumber, parse(line)));
+                if (chunk.size() >= chunkSize) {
+                    checkpoint = applyChunk(importId, chunk, lineNumber, result, checkpoint);
+                    chunk.clear();
+                }
+            }
+            if (lineNumber > checkpoint.linesDone()) {
+                checkpoint = applyChunk(importId, chunk, lineNumber, result, checkpoint);
+            }
+        }
+        importRepository.finish(importId);
+        log.info("Импорт {} завершён за {} мс: успешно {}, отклонено {}", csvFile,
+                System.currentTimeMillis() - startTime, checkpoint.succeeded(), checkpoint.failed());
+        return report(importId, checkpoint, resumedFrom, resultFile);
+    }
+
+    /**
+     * Проверяет номера счетов части, применяет переводы и фиксирует контрольную точку на строке lastLine
+     */
+    private ImportRepository.Checkpoint applyChunk(String importId, List<ImportLine> chunk, long lastLine,
+                                                   FileChannel result, ImportRepository.Checkpoint checkpoint) {
+        Set<String> scoreNumbers = new HashSet<>();
+        for (ImportLine line : chunk) {
+            if (line.transfer() != null) {
+                scoreNumbers.add(line.transfer().getFromScoreNumber());
+                scoreNumbers.add(line.transfer().getToScoreNumber());
+            }
+        }
+        Set<String> existing = transferRepository.findExistingNumbers(scoreNumbers);
+
+        TransferOutcome[] outcomes = new TransferOutcome[chunk.size()];
+        String[] uuids = new String[chunk.size()];
+        List<Transfer> valid = new ArrayList<>(chunk.size());
+        List<String> validUuids = new ArrayList<>(chunk.size());
+        List<Integer> validIndexes = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Transfer transfer = chunk.get(i).transfer();
+            if (transfer == null) {
+                outcomes[i] = TransferOutcome.INVALID;
+            } else if (!existing.contains(transfer.getFromScoreNumber())) {
+                outcomes[i] = TransferOutcome.FROM_NOT_FOUND;
+            } else if (!existing.contains(transfer.getToScoreNumber())) {
+                outcomes[i] = TransferOutcome.TO_NOT_FOUND;
+            } else {
+                // Ключ перевода выводится из файла и строки, по нему перевод находится в истории
+                uuids[i] = UUID.nameUUIDFromBytes((importId + ":" + chunk.get(i).lineNumber())
+                        .getBytes(StandardCharsets.UTF_8)).toString();
+                valid.add(transfer);
+                validUuids.add(uuids[i]);
+                validIndexes.add(i);
+            }
+        }
+
+        ImportRepository.Checkpoint[] saved = new ImportRepository.Checkpoint[1];
+        transferRetry.execute("Импорт переводов", () -> transferRepository.executeImportChunk(valid, validUuids, applied -> {
+            for (int j = 0; j < applied.size(); j++) {
+                outcomes[validIndexes.get(j)] = applied.get(j);
+            }
+            long succeeded = 0;
+            StringBuilder lines = new StringBuilder(chunk.size() * 48);
+            for (int i = 0; i < chunk.size(); i++) {
+                boolean success = outcomes[i] == TransferOutcome.SUCCESS;
+                if (success) {
+                    succeeded++;
+                }
+                lines.append(chunk.get(i).lineNumber()).append(',').append(outcomes[i]).append(',')
+                        .append(success ? uuids[i] : "").append('\n');
+            }
+            byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                // При повторе после deadlock запись части начинается с того же места
+                result.truncate(checkpoint.resultBytes());
+                result.write(ByteBuffer.wrap(bytes), checkpoint.resultBytes());
+                result.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            saved[0] = new ImportRepository.Checkpoint(lastLine, checkpoint.resultBytes() + bytes.length,
+                    checkpoint.succeeded() + succeeded, checkpoint.failed() + chunk.size() - succeeded, false);
+            importRepository.saveCheckpoint(importId, saved[0]);
+        }));
+        log.debug("Импорт {}: обработано строк {}", importId, lastLine);
+        return saved[0];
+    }
+
+    private static boolean isHeader(String line) {
+        String first = line.trim();
+        return !first.isEmpty() && Character.isLetter(first.charAt(0)) && parse(line) == null;
+    }
+
+    /**
+     * Разбор строки "from,to,amount"; null — строка некорректна
+     */
+    private static Transfer parse(String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 3) {
+            return null;
+        }
+        String from = unquote(fields[0]);
+        String to = unquote(fields[1]);
+        long amount;
+        try {
+            amount = Long.parseLong(unquote(fields[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (from.isEmpty() || to.isEmpty() || from.equals(to) || amount <= 0) {
+            return null;
+        }
+        return new Transfer(from, to, amount);
+    }
+
+    private static String unquote(String field) {
+        String value = field.trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        return value;
+    }
+
+    /**
+     * SHA-256 содержимого файла — идентификатор импорта
+     */
+    private static String digest(Path file) throws IOException {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), sha256)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ImportReport report(String importId, ImportRepository.Checkpoint checkpoint, long resumedFrom,
+                                       Path resultFile) {
+        return new ImportReport(importId, checkpoint.linesDone(), checkpoint.succeeded(), checkpoint.failed(),
+                resumedFrom, resultFile.toString());
+    }
+}
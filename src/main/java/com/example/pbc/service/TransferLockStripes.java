@@ -0,0 +1,130 @@
+package com.example.pbc.service;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Полосы блокировок для переводов. Номера счетов хешируются на фиксированный набор
+ * ReentrantLock, перевод захватывает полосы обоих счетов в порядке возрастания индекса.
+ * Конкурирующие переводы горячего счёта ждут в JVM, не занимая соединение с БД,
+ * а встречные переводы не могут взаимно заблокироваться
+ */
+public class TransferLockStripes {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferLockStripes.class);
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutMillis;
+    private final Counter contended;
+    private final Timer waitTimer;
+
+    public TransferLockStripes(int stripeCount, long timeoutMillis, MeterRegistry meterRegistry) {
+        this(stripeCount, timeoutMillis, meterRegistry, true);
+    }
+
+    /**
+     * laneGauges — регистрировать ли глубину очереди по полосам; выключается, когда одиночные
+     * переводы идут через групповую фиксацию и полосы не захватываются
+     */
+    public TransferLockStripes(int stripeCount, long timeoutMillis, MeterRegistry meterRegistry, boolean laneGauges) {
+        this.stripes = new ReentrantLock[stripeCount];
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+            if (laneGauges) {
+                // Глубина очереди на каждой полосе
+                Gauge.builder("pbc.transfer.lane.queue", stripes[i], ReentrantLock::getQueueLength)
+                        .tag("lane", String.valueOf(i))
+                        .description("Число переводов, ожидающих полосу")
+                        .register(meterRegistry);
+            }
+        }
+        this.contended = Counter.builder("pbc.transfer.lane.contended")
+                .description("Число захватов полосы с ожиданием")
+                .register(meterRegistry);
+        this.waitTimer = Timer.builder("pbc.transfer.lane.wait")
+                .description("Время ожидания полосы")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Выполняет действие, удерживая полосы обоих счетов
+     */
+    public <T> T withLocks(String firstScoreNumber, String secondScoreNumber, Supplier<T> action) {
+        int first = laneOf(firstScoreNumber);
+        int second = laneOf(secondScoreNumber);
+        int low = Math.min(first, second);
+        int high = Math.max(first, second);
+
+        acquire(low);
+        try {
+            if (high != low) {
+                acquire(high);
+            }
+            try {
+                return action.get();
+            } finally {
+                if (high != low) {
+                    stripes[high].unlock();
+                }
+            }
+        } finally {
+            stripes[low].unlock();
+        }
+    }
+
+    /**
+     * Выполняет действие, удерживая полосу одного счёта
+     */
+    public <T> T withLock(String scoreNumber, Supplier<T> action) {
+        int lane = laneOf(scoreNumber);
+        acquire(lane);
+        try {
+            return action.get();
+        } finally {
+            stripes[lane].unlock();
+        }
+    }
+
+    public int laneOf(String scoreNumber) {
+        int h = scoreNumber.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), stripes.length);
+    }
+
+    public int queueLength(int lane) {
+        return stripes[lane].getQueueLength();
+    }
+
+    public int getLaneCount() {
+        return stripes.length;
+    }
+
+    private void acquire(int lane) {
+        ReentrantLock lock = stripes[lane];
+        if (lock.tryLock()) {
+            return;
+        }
+        contended.increment();
+        long start = System.nanoTime();
+        try {
+            if (!lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Полоса {} занята дольше {} мс, очередь: {}", lane, timeoutMillis, lock.getQueueLength());
+                throw new ServiceUnavailableException("Счёт занят другими переводами, повторите позже");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ожидание блокировки счёта прервано");
+        } finally {
+            waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+}
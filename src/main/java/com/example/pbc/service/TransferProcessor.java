@@ -0,0 +1,106 @@
+package com.example.pbc.service;
+
+import com.example.pbc.work_databased.TransferRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Фоновая обработка переводов в статусе PENDING. Фиксированный пул воркеров
+ * забирает ожидающие переводы пачками, поэтому нагрузка на БД задаётся числом
+ * воркеров и размером пачки, а не числом HTTP-потоков
+ */
+public class TransferProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferProcessor.class);
+
+    private final TransferRepository transferRepository;
+    private final int workers;
+    private final int batchSize;
+    private final long pollMillis;
+
+    private final Semaphore signal = new Semaphore(0);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private ExecutorService executor;
+
+    public TransferProcessor(TransferRepository transferRepository, int workers, int batchSize, long pollMillis) {
+        this.transferRepository = transferRepository;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.pollMillis = pollMillis;
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "transfer-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            executor.submit(this::drainLoop);
+        }
+        log.info("Запущено {} воркеров отложенных переводов, пачка {}", workers, batchSize);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        signal.release(workers);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Воркеры отложенных переводов остановлены");
+    }
+
+    /**
+     * Будит воркер после приёма нового перевода, не дожидаясь очередного опроса
+     */
+    public void wakeUp() {
+        if (signal.availablePermits() < workers) {
+            signal.release();
+        }
+    }
+
+    private void drainLoop() {
+        while (running.get()) {
+            try {
+                int processed = transferRepository.processPending(batchSize);
+                if (processed > 0) {
+                    log.debug("Обработано отложенных переводов: {}", processed);
+                }
+                // Полная пачка — очередь, вероятно, не пуста, забираем следующую сразу
+                if (processed < batchSize) {
+                    signal.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Ошибка при обработке отложенных переводов", e);
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
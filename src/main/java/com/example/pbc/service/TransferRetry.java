@@ -0,0 +1,125 @@
+package com.example.pbc.service;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Повтор транзакции перевода при взаимной блокировке (deadlock) и таймауте ожидания блокировки.
+ * InnoDB откатывает такую транзакцию целиком, поэтому её можно безопасно выполнить заново.
+ * Пауза между попытками — случайная в пределах экспоненциально растущего окна
+ */
+public class TransferRetry {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferRetry.class);
+
+    // Коды ошибок MySQL: взаимная блокировка и превышение innodb_lock_wait_timeout
+    private static final int ER_LOCK_DEADLOCK = 1213;
+    private static final int ER_LOCK_WAIT_TIMEOUT = 1205;
+
+    enum Reason {
+        DEADLOCK, LOCK_WAIT_TIMEOUT
+    }
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Counter deadlockRetries;
+    private final Counter lockWaitRetries;
+    private final Counter recovered;
+    private final Counter exhausted;
+
+    public TransferRetry(int maxAttempts, long baseBackoffMillis, long maxBackoffMillis, MeterRegistry meterRegistry) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.deadlockRetries = Counter.builder("pbc.transfer.retry")
+                .description("Повторы транзакций перевода")
+                .tag("reason", "deadlock")
+                .register(meterRegistry);
+        this.lockWaitRetries = Counter.builder("pbc.transfer.retry")
+                .description("Повторы транзакций перевода")
+                .tag("reason", "lock_wait_timeout")
+                .register(meterRegistry);
+        this.recovered = Counter.builder("pbc.transfer.retry.outcome")
+                .description("Итог переводов, потребовавших повтора")
+                .tag("outcome", "recovered")
+                .register(meterRegistry);
+        this.exhausted = Counter.builder("pbc.transfer.retry.outcome")
+                .description("Итог переводов, потребовавших повтора")
+                .tag("outcome", "exhausted")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Выполняет действие, повторяя его при deadlock и таймауте блокировки.
+     * Когда попытки исчерпаны, бросает ServiceUnavailableException
+     */
+    public <T> T execute(String operation, Supplier<T> action) {
+        int attempt = 1;
+        while (true) {
+            try {
+                T result = action.get();
+                if (attempt > 1) {
+                    recovered.increment();
+                    log.info("{} выполнен с попытки {}", operation, attempt);
+                }
+                return result;
+            } catch (RuntimeException ex) {
+                Reason reason = classify(ex);
+                if (reason == null) {
+                    throw ex;
+                }
+                (reason == Reason.DEADLOCK ? deadlockRetries : lockWaitRetries).increment();
+                if (attempt >= maxAttempts) {
+                    exhausted.increment();
+                    log.warn("{}: {} после {} попыток, повторы исчерпаны", operation, reason, attempt);
+                    throw new ServiceUnavailableException("Счёт занят другими переводами, повторите позже");
+                }
+                log.info("{}: {} на попытке {}, повтор", operation, reason, attempt);
+                sleep(backoff(attempt));
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Определяет, вызвана ли ошибка deadlock или таймаутом блокировки; null — ошибку не повторять
+     */
+    static Reason classify(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause()) {
+            if (t instanceof SQLException sql) {
+                if (sql.getErrorCode() == ER_LOCK_DEADLOCK || "40001".equals(sql.getSQLState())) {
+                    return Reason.DEADLOCK;
+                }
+                if (sql.getErrorCode() == ER_LOCK_WAIT_TIMEOUT) {
+                    return Reason.LOCK_WAIT_TIMEOUT;
+                }
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    long backoff(int attempt) {
+        long window = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(window + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ожидание повтора перевода прервано");
+        }
+    }
+}
@@ -1,30 +1,385 @@
 package com.example.pbc.service;
 
 import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.ConflictException;
 import com.example.pbc.exception.ForbiddenException;
 import com.example.pbc.exception.NotFoundException;
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.model.BatchMode;
+import com.example.pbc.model.ScoreLookup;
+import com.example.pbc.model.StatementFormat;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferHistoryPage;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.model.TransferRecord;
+import com.example.pbc.model.TransferResult;
 import com.example.pbc.work_databased.TransferRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Supplier;
+
 public class TransferService {
 
     private static final Logger log = LoggerFactory.getLogger(TransferService.class);
     private final TransferRepository transferRepository;
     private final ScoreService scoreService;
+    private final IdempotencyCache idempotencyCache;
+    private final TransferLockStripes lockStripes;
+    private final TransferProcessor transferProcessor;
+    private final TransferRetry transferRetry;
+
+    // Максимальная длина ключа идемпотентности
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 36;
+    // Максимальное число переводов в одном пакете
+    static final int MAX_BATCH_SIZE = 10_000;
+    // Максимальный размер страницы истории
+    static final int MAX_HISTORY_PAGE_SIZE = 200;
 
-    public TransferService(TransferRepository transferRepository, ScoreService scoreService) {
+    public TransferService(TransferRepository transferRepository, ScoreService scoreService,
+                           IdempotencyCache idempotencyCache, TransferLockStripes lockStripes,
+                           TransferProcessor transferProcessor, TransferRetry transferRetry) {
         this.transferRepository = transferRepository;
         this.scoreService = scoreService;
+        this.idempotencyCache = idempotencyCache;
+        this.lockStripes = lockStripes;
+        this.transferProcessor = transferProcessor;
+        this.transferRetry = transferRetry;
     }
 
     /**
      * Выполнить перевод между счетами
      */
     public void transfer(String fromScoreNumber, String toScoreNumber, Long amount) {
+        transfer(fromScoreNumber, toScoreNumber, amount, null, null);
+    }
+
+    /**
+     * Выполнить перевод между счетами с ключом идемпотентности пользователя userId.
+     * Ключ действует в пределах пользователя, transfer_uuid выводится из пары (userId, ключ).
+     * Повтор с теми же счетами и суммой не переводит деньги повторно: он отвечается из кэша,
+     * а если ключ вытеснен — отсекается уникальным transfer_uuid в БД.
+     * Повтор ключа с другими параметрами отклоняется ConflictException
+     */
+    public void transfer(String fromScoreNumber, String toScoreNumber, Long amount, Long userId, String idempotencyKey) {
         long startTime = System.currentTimeMillis();
         log.info("Попытка перевода: {} -> {} на сумму {}", fromScoreNumber, toScoreNumber, amount);
 
+        validateRequest(fromScoreNumber, toScoreNumber, amount, userId, idempotencyKey);
+
+        String transferUuid = idempotencyKey != null ? transferUuid(userId, idempotencyKey) : null;
+        String fingerprint = fingerprint(fromScoreNumber, toScoreNumber, amount);
+        if (transferUuid != null) {
+            Optional<String> known = idempotencyCache.get(transferUuid);
+            if (known.isPresent()) {
+                requireSameRequest(known.get(), fingerprint, idempotencyKey);
+                log.info("Повтор перевода с ключом {}, ответ из кэша", idempotencyKey);
+                return;
+            }
+        }
+
+        try {
+            // При групповой фиксации полосы не захватываются: LedgerWriter сам проводит переводы
+            // по одному счёту в порядке очереди, и они могут попасть в одну группу.
+            // Иначе переводы по одним и тем же счетам выстраиваются в очередь в JVM до захвата соединения,
+            // а зачисления на счёт со слотами не сериализуются, поэтому его полоса не захватывается.
+            // Транзакция, откатанная из-за deadlock или таймаута блокировки, повторяется;
+            // полосы захватываются внутри повтора, чтобы пауза между попытками шла без них
+            Supplier<TransferOutcome> execute =
+                    () -> transferRepository.executeTransfer(fromScoreNumber, toScoreNumber, amount, transferUuid);
+            Supplier<TransferOutcome> attempt;
+            if (transferRepository.isGroupCommit()) {
+                attempt = execute;
+            } else if (transferRepository.isSlotted(toScoreNumber)) {
+                attempt = () -> lockStripes.withLock(fromScoreNumber, execute);
+            } else {
+                attempt = () -> lockStripes.withLocks(fromScoreNumber, toScoreNumber, execute);
+            }
+            TransferOutcome outcome = transferRetry.execute("Перевод", attempt);
+            if (outcome == TransferOutcome.DUPLICATE) {
+                replayDuplicate(transferUuid, fingerprint, idempotencyKey);
+            }
+            checkOutcome(outcome);
+            if (transferUuid != null) {
+                idempotencyCache.put(transferUuid, fingerprint);
+            }
+            log.info("Перевод успешен: {} -> {}", fromScoreNumber, toScoreNumber);
+        } catch (NotFoundException | ForbiddenException | BadRequestException | ConflictException ex) {
+            log.warn("Ошибка валидации перевода", ex);
+            throw ex;
+        } catch (ServiceUnavailableException ex) {
+            log.warn("Перевод {} -> {} не выполнен, счёт занят: {}", fromScoreNumber, toScoreNumber, ex.getMessage());
+            throw ex;
+        } catch (Exception ex) {
+            log.error("Неожиданная ошибка при переводе", ex);
+            throw new RuntimeException("Ошибка перевода: " + ex.getMessage(), ex);
+        } finally {
+            log.debug("Метод transfer выполнен за {} мс", System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Принять перевод на отложенное выполнение: записывает его в статусе PENDING
+     * и сразу возвращает transfer_uuid, проведение выполняют воркеры TransferProcessor
+     */
+    public String submitTransfer(String fromScoreNumber, String toScoreNumber, Long amount, Long userId,
+                                 String idempotencyKey) {
+        log.info("Приём отложенного перевода: {} -> {} на сумму {}", fromScoreNumber, toScoreNumber, amount);
+        validateRequest(fromScoreNumber, toScoreNumber, amount, userId, idempotencyKey);
+
+        String transferUuid = idempotencyKey != null ? transferUuid(userId, idempotencyKey) : UUID.randomUUID().toString();
+        TransferOutcome outcome = transferRepository.insertPending(fromScoreNumber, toScoreNumber, amount, transferUuid);
+        if (outcome == TransferOutcome.FROM_NOT_FOUND) {
+            log.warn("Отложенный перевод не принят, счёт не найден: {} -> {}", fromScoreNumber, toScoreNumber);
+            throw new NotFoundException("Счёт отправителя или получателя не существует");
+        }
+        if (outcome == TransferOutcome.DUPLICATE) {
+            // Перевод уже принят: повтор допустим только с теми же счетами и суммой
+            Optional<TransferRecord> original = transferRepository.findByUuid(transferUuid);
+            requireSameRequest(original.map(TransferService::fingerprint).orElse(null),
+                    fingerprint(fromScoreNumber, toScoreNumber, amount), idempotencyKey);
+            log.info("Перевод {} уже принят, повтор", transferUuid);
+            return transferUuid;
+        }
+        transferProcessor.wakeUp();
+        log.info("Перевод {} принят в обработку", transferUuid);
+        return transferUuid;
+    }
+
+    /**
+     * Получить перевод и его статус по transfer_uuid.
+     * Чужой перевод (пользователь не владеет ни счётом отправителя, ни счётом получателя) не отдаётся
+     */
+    public Optional<TransferRecord> findTransfer(String transferUuid, Long userId) {
+        if (transferUuid == null || transferUuid.trim().isEmpty()) {
+            throw new BadRequestException("Идентификатор перевода обязателен");
+        }
+        return transferRepository.findByUuid(transferUuid)
+                .filter(record -> isParticipant(record, userId));
+    }
+
+    private boolean isParticipant(TransferRecord record, Long userId) {
+        if (scoreService.isScoreOwner(record.getFromScoreNumber(), userId)
+                || scoreService.isScoreOwner(record.getToScoreNumber(), userId)) {
+            return true;
+        }
+        log.warn("Пользователь {} запросил чужой перевод {}", userId, record.getTransferUuid());
+        return false;
+    }
+
+    /**
+     * Страница истории переводов счёта. cursor — значение nextCursor предыдущей страницы или null
+     */
+    public TransferHistoryPage getHistory(String scoreNumber, Long userId, String cursor, int limit) {
+        if (scoreNumber == null || scoreNumber.trim().isEmpty()) {
+            throw new BadRequestException("Номер счёта обязателен");
+        }
+        if (limit <= 0 || limit > MAX_HISTORY_PAGE_SIZE) {
+            throw new BadRequestException("Размер страницы должен быть от 1 до " + MAX_HISTORY_PAGE_SIZE);
+        }
+        requireScoreOwner(scoreNumber, userId);
+
+        LocalDateTime beforeCreatedAt = null;
+        Long beforeId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|", 2);
+                beforeCreatedAt = LocalDateTime.parse(parts[0]);
+                beforeId = Long.parseLong(parts[1]);
+            } catch (RuntimeException e) {
+                throw new BadRequestException("Некорректный курсор страницы");
+            }
+        }
+
+        // Запрашиваем на одну запись больше, чтобы понять, есть ли следующая страница
+        // Входящие переводы показываются в валюте счёта, с зачисленной суммой
+        List<TransferRecord> records = transferRepository.findHistory(scoreNumber, beforeCreatedAt, beforeId, limit + 1)
+                .stream()
+                .map(record -> record.forScore(scoreNumber))
+                .toList();
+        if (records.size() <= limit) {
+            return new TransferHistoryPage(records, null);
+        }
+        List<TransferRecord> page = records.subList(0, limit);
+        TransferRecord last = page.get(limit - 1);
+        String nextCursor = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                (last.getCreatedAt() + "|" + last.getId()).getBytes(StandardCharsets.UTF_8));
+        return new TransferHistoryPage(new ArrayList<>(page), nextCursor);
+    }
+
+    /**
+     * Проверяет, что счёт принадлежит пользователю, иначе ForbiddenException
+     */
+    public void requireScoreOwner(String scoreNumber, Long userId) {
+        if (scoreNumber == null || scoreNumber.trim().isEmpty()) {
+            throw new BadRequestException("Номер счёта обязателен");
+        }
+        if (!scoreService.isScoreOwner(scoreNumber, userId)) {
+            log.warn("Пользователь {} запросил данные чужого счёта {}", userId, scoreNumber);
+            throw new ForbiddenException("Вы не являетесь владельцем счёта");
+        }
+    }
+
+    /**
+     * Пишет выписку по счёту за период [from, to) в out построчно, не собирая её в памяти.
+     * Права доступа проверяются заранее через requireScoreOwner
+     */
+    public void writeStatement(String scoreNumber, LocalDate from, LocalDate to, StatementFormat format, OutputStream out) throws IOException {
+        LocalDateTime fromTime = from != null ? from.atStartOfDay() : LocalDateTime.of(1970, 1, 1, 0, 0);
+        LocalDateTime toTime = to != null ? to.plusDays(1).atStartOfDay() : LocalDateTime.of(9999, 1, 1, 0, 0);
+        if (!fromTime.isBefore(toTime)) {
+            throw new BadRequestException("Начало периода должно быть раньше конца");
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        if (format == StatementFormat.CSV) {
+            writer.write("transfer_uuid,created_at,direction,counterparty,amount,currency,fx_rate,status\n");
+        }
+        long[] rows = {0};
+        try {
+            transferRepository.streamStatement(scoreNumber, fromTime, toTime, record -> {
+                try {
+                    writeStatementRow(writer, scoreNumber, record, format);
+                    rows[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Клиент закрыл соединение
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Выписка по счёту {} выгружена: {} строк, формат {}", scoreNumber, rows[0], format);
+    }
+
+    /**
+     * Строка выписки; сумма и валюта — со стороны счёта выписки (для входящего перевода — зачисленные)
+     */
+    private static void writeStatementRow(Writer writer, String scoreNumber, TransferRecord transfer, StatementFormat format) throws IOException {
+        TransferRecord record = transfer.forScore(scoreNumber);
+        boolean outgoing = scoreNumber.equals(record.getFromScoreNumber());
+        String direction = outgoing ? "OUT" : "IN";
+        String counterparty = outgoing ? record.getToScoreNumber() : record.getFromScoreNumber();
+        String fxRate = record.getFxRate() != null ? record.getFxRate().toPlainString() : null;
+        if (format == StatementFormat.CSV) {
+            writer.write(csv(record.getTransferUuid()) + "," + record.getCreatedAt() + "," + direction + ","
+                    + csv(counterparty) + "," + record.getAmount() + "," + csv(record.getCurrencyCode()) + ","
+                    + csv(fxRate) + "," + csv(record.getStatus()) + "\n");
+        } else {
+            writer.write("{\"transferUuid\":" + json(record.getTransferUuid())
+                    + ",\"createdAt\":" + json(String.valueOf(record.getCreatedAt()))
+                    + ",\"direction\":\"" + direction + "\""
+                    + ",\"counterparty\":" + json(counterparty)
+                    + ",\"amount\":" + record.getAmount()
+                    + ",\"currency\":" + json(record.getCurrencyCode())
+                    + ",\"fxRate\":" + (fxRate != null ? fxRate : "null")
+                    + ",\"status\":" + json(record.getStatus()) + "}\n");
+        }
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    private static String json(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Ключ уже использован и перевод с ним есть в БД: повтор отвечается исходным результатом,
+     * если счета и сумма совпадают
+     */
+    private void replayDuplicate(String transferUuid, String fingerprint, String idempotencyKey) {
+        Optional<TransferRecord> original = transferRepository.findByUuid(transferUuid);
+        requireSameRequest(original.map(TransferService::fingerprint).orElse(null), fingerprint, idempotencyKey);
+        switch (original.get().getStatus()) {
+            case "PENDING" -> throw new ConflictException("Перевод с этим ключом ещё выполняется");
+            case "FAILED" -> throw new BadRequestException("Перевод с этим ключом не выполнен");
+            default -> log.info("Повтор перевода с ключом {}, перевод уже выполнен", idempotencyKey);
+        }
+    }
+
+    private static void requireSameRequest(String original, String fingerprint, String idempotencyKey) {
+        if (!fingerprint.equals(original)) {
+            log.warn("Ключ идемпотентности {} повторён с другими параметрами перевода", idempotencyKey);
+            throw new ConflictException("Ключ идемпотентности уже использован для другого перевода");
+        }
+    }
+
+    /**
+     * transfer_uuid перевода с ключом идемпотентности: одинаковые ключи разных пользователей
+     * дают разные переводы
+     */
+    static String transferUuid(Long userId, String idempotencyKey) {
+        return UUID.nameUUIDFromBytes((userId + ":" + idempotencyKey).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * SHA-256 счетов и суммы перевода
+     */
+    static String fingerprint(String fromScoreNumber, String toScoreNumber, Long amount) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] hash = sha256.digest((fromScoreNumber + "\n" + toScoreNumber + "\n" + amount).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String fingerprint(TransferRecord record) {
+        return fingerprint(record.getFromScoreNumber(), record.getToScoreNumber(), record.getAmount());
+    }
+
+    /**
+     * Проверка параметров перевода без обращения к БД
+     */
+    private void validateRequest(String fromScoreNumber, String toScoreNumber, Long amount, Long userId,
+                                 String idempotencyKey) {
         if (amount == null || amount <= 0) {
             log.warn("Некорректная сумма перевода: {}", amount);
             throw new BadRequestException("Сумма должна быть положительной");
@@ -40,51 +395,115 @@ public class TransferService {
             throw new BadRequestException("Счёт получателя обязателен");
         }
 
-        try {
-            validateTransfer(fromScoreNumber, toScoreNumber, amount);
-            transferRepository.executeTransfer(fromScoreNumber, toScoreNumber, amount,getScoreId(fromScoreNumber),getScoreId(toScoreNumber));
-            log.info("Перевод успешен: {} -> {}", fromScoreNumber, toScoreNumber);
-        } catch (NotFoundException | ForbiddenException ex) {
-            log.warn("Ошибка валидации перевода", ex);
-            throw ex;
-        } catch (Exception ex) {
-            log.error("Неожиданная ошибка при переводе", ex);
-            throw new RuntimeException("Ошибка перевода: " + ex.getMessage(), ex);
-        } finally {
-            log.debug("Метод transfer выполнен за {} мс", System.currentTimeMillis() - startTime);
+        if (fromScoreNumber.equals(toScoreNumber)) {
+            log.warn("Перевод на тот же счёт: {} -> {}", fromScoreNumber, toScoreNumber);
+            throw new BadRequestException("Нельзя перевести самому себе");
+        }
+
+        if (idempotencyKey != null
+                && (idempotencyKey.trim().isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            log.warn("Некорректный ключ идемпотентности: {}", idempotencyKey);
+            throw new BadRequestException("Ключ идемпотентности должен содержать от 1 до " + MAX_IDEMPOTENCY_KEY_LENGTH + " символов");
+        }
+
+        if (idempotencyKey != null && userId == null) {
+            log.warn("Ключ идемпотентности передан без пользователя");
+            throw new BadRequestException("Ключ идемпотентности действует только для пользователя из токена");
         }
     }
 
     /**
-     * Проверка условий перевода
+     * Преобразует результат перевода в исключение
      */
-    private void validateTransfer(String fromScoreNumber, String toScoreNumber, Long amount) {
+    private void checkOutcome(TransferOutcome outcome) {
+        switch (outcome) {
+            case SUCCESS, DUPLICATE -> {
+            }
+            case FROM_NOT_FOUND -> throw new NotFoundException("Счёт отправителя не существует");
+            case TO_NOT_FOUND -> throw new NotFoundException("Счёт получателя не существует");
+            case FROM_CLOSED -> throw new BadRequestException("Счёт отправителя закрыт");
+            case TO_CLOSED -> throw new BadRequestException("Счёт получателя закрыт");
+            case INSUFFICIENT_FUNDS -> throw new ForbiddenException("Недостаточно средств на счёте");
+            case FX_RATE_UNAVAILABLE ->
+                    throw new BadRequestException("Нет курса для перевода между валютами счетов или сумма слишком мала");
+            case INVALID, ROLLED_BACK -> throw new BadRequestException("Перевод не выполнен: " + outcome);
+        }
+    }
+
+    /**
+     * Выполнить пакет переводов. Некорректные элементы отсекаются до обращения к БД,
+     * остальные применяются репозиторием пакетными запросами
+     */
+    public List<TransferResult> transferBatch(List<Transfer> transfers, BatchMode mode) {
         long startTime = System.currentTimeMillis();
-        log.debug("Начинаю валидацию перевода");
 
-        if (fromScoreNumber.equals(toScoreNumber)) {
-            log.warn("Перевод на тот же счёт: {} -> {}", fromScoreNumber, toScoreNumber);
-            throw new BadRequestException("Нельзя перевести самому себе");
+        if (transfers == null || transfers.isEmpty()) {
+            log.warn("Пустой пакет переводов");
+            throw new BadRequestException("Список переводов не может быть пустым");
         }
+        if (transfers.size() > MAX_BATCH_SIZE) {
+            log.warn("Слишком большой пакет переводов: {}", transfers.size());
+            throw new BadRequestException("Пакет не может содержать больше " + MAX_BATCH_SIZE + " переводов");
+        }
+        boolean allOrNothing = mode == BatchMode.ALL_OR_NOTHING;
+        log.info("Пакетный перевод: {} операций, режим {}", transfers.size(), mode);
 
-        if (!scoreService.scoreExists(fromScoreNumber)) {
-            log.warn("Счёт отправителя не найден: {}", fromScoreNumber);
-            throw new NotFoundException("Счёт отправителя не существует");
+        TransferOutcome[] outcomes = new TransferOutcome[transfers.size()];
+        List<Transfer> valid = new ArrayList<>(transfers.size());
+        List<Integer> validIndexes = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            if (isValid(transfer)) {
+                valid.add(transfer);
+                validIndexes.add(i);
+            } else {
+                outcomes[i] = TransferOutcome.INVALID;
+            }
         }
 
-        if (!scoreService.scoreExists(toScoreNumber)) {
-            log.warn("Счёт получателя не найден: {}", toScoreNumber);
-            throw new NotFoundException("Счёт получателя не существует");
+        try {
+            if (allOrNothing && valid.size() < transfers.size()) {
+                log.warn("Пакет отклонён: {} некорректных переводов", transfers.size() - valid.size());
+            } else if (!valid.isEmpty()) {
+                // Пакет ALL_OR_NOTHING откатывается целиком, поэтому его можно повторить;
+                // в BEST_EFFORT часть пакета могла быть уже зафиксирована
+                List<TransferOutcome> applied = allOrNothing
+                        ? transferRetry.execute("Пакет переводов", () -> transferRepository.executeBatch(valid, true))
+                        : transferRepository.executeBatch(valid, false);
+                for (int i = 0; i < applied.size(); i++) {
+                    outcomes[validIndexes.get(i)] = applied.get(i);
+                }
+            }
+        } catch (ServiceUnavailableException ex) {
+            log.warn("Пакет переводов не выполнен, счета заняты");
+            throw ex;
+        } catch (Exception ex) {
+            log.error("Неожиданная ошибка при пакетном переводе", ex);
+            throw new RuntimeException("Ошибка пакетного перевода: " + ex.getMessage(), ex);
+        } finally {
+            log.debug("Метод transferBatch выполнен за {} мс", System.currentTimeMillis() - startTime);
         }
 
-        Long fromBalance = scoreService.getBalance(fromScoreNumber);
-        if (fromBalance < amount) {
-            log.warn("Недостаточно средств: баланс {}, требуется {}", fromBalance, amount);
-            throw new ForbiddenException("Недостаточно средств на счёте");
+        List<TransferResult> results = new ArrayList<>(transfers.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            TransferOutcome outcome = outcomes[i] != null ? outcomes[i] : TransferOutcome.ROLLED_BACK;
+            results.add(transfer == null
+                    ? new TransferResult(i, null, null, null, outcome)
+                    : new TransferResult(i, transfer.getFromScoreNumber(), transfer.getToScoreNumber(), transfer.getAmount(), outcome));
         }
+        return results;
+    }
 
-        log.debug("Валидация завершена успешно");
-        log.debug("Метод validateTransfer выполнен за {} мс", System.currentTimeMillis() - startTime);
+    /**
+     * Проверка элемента пакета без обращения к БД
+     */
+    private boolean isValid(Transfer transfer) {
+        return transfer != null
+                && transfer.getAmount() != null && transfer.getAmount() > 0
+                && transfer.getFromScoreNumber() != null && !transfer.getFromScoreNumber().trim().isEmpty()
+                && transfer.getToScoreNumber() != null && !transfer.getToScoreNumber().trim().isEmpty()
+                && !transfer.getFromScoreNumber().equals(transfer.getToScoreNumber());
     }
 
     /**
@@ -96,6 +515,13 @@ public class TransferService {
         return exists;
     }
 
+    /**
+     * id, владелец, баланс и статус счёта одним запросом — для проверки перед переводом
+     */
+    public Optional<ScoreLookup> lookupScore(String scoreNumber) {
+        return scoreService.lookupScore(scoreNumber);
+    }
+
     /**
      * Проверяет, является ли пользователь владельцем счёта
      */
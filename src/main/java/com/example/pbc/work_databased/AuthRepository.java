@@ -8,6 +8,7 @@ import org.springframework.dao.DataAccessException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.util.List;
 import java.util.Optional;
 
 public class AuthRepository {
@@ -113,4 +114,36 @@ public class AuthRepository {
             return null;
         }
     }
+
+    /**
+     * Заменяет хеш пароля, если он не менялся с момента чтения. false — хеш уже заменён другим запросом
+     */
+    public boolean updatePasswordHash(Long appUserId, String oldHash, String newHash) {
+        return jdbcTemplate.update("UPDATE app_users SET password = ? WHERE id = ? AND password = ?",
+                newHash, appUserId, oldHash) > 0;
+    }
+
+    /**
+     * Число паролей BCrypt, хеш которых создан со стоимостью ниже cost; то же правило, что needsRehash
+     */
+    public long countPasswordsBelowCost(int cost) {
+        // В LIKE символ _ соответствует любой версии BCrypt: 2a, 2b, 2y; стоимость — символы 5-6 хеша
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM app_users WHERE password LIKE '$2_$%' AND CAST(SUBSTRING(password, 5, 2) AS UNSIGNED) < ?",
+                Long.class, cost);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * ID пользователя (app_users.id) по логину; null — пользователь не найден
+     */
+    public Long getAppUserId(String login) {
+        try {
+            List<Long> ids = jdbcTemplate.queryForList("SELECT id FROM app_users WHERE login = ?", Long.class, login);
+            return ids.isEmpty() ? null : ids.get(0);
+        } catch (DataAccessException ex) {
+            log.error("Ошибка доступа к данным при поиске ID для логина '{}'", login, ex);
+            return null;
+        }
+    }
 }
@@ -28,6 +28,90 @@ public class DatabaseManager {
         if (!tableExists("transfers")) {
             createTransfersTable();
         }
+        addColumnIfNotExists("scores", "slot_count", "INT NOT NULL DEFAULT 1");
+        if (!tableExists("score_slots")) {
+            createScoreSlotsTable();
+        }
+        if (!tableExists("postings")) {
+            createPostingsTable();
+        }
+        if (!tableExists("balance_snapshots")) {
+            createBalanceSnapshotsTable();
+        }
+        if (!tableExists("reconciliation_runs")) {
+            createReconciliationTables();
+        }
+        if (!tableExists("outbox_events")) {
+            createOutboxEventsTable();
+        }
+        if (!tableExists("fx_rates")) {
+            createFxRatesTable();
+        }
+        if (!tableExists("score_number_sequence")) {
+            createScoreNumberSequenceTable();
+        }
+        if (!tableExists("transfer_imports")) {
+            createTransferImportsTable();
+        }
+        addColumnIfNotExists("transfers", "credit_amount", "BIGINT NULL");
+        addColumnIfNotExists("transfers", "fx_rate", "DECIMAL(20,10) NULL");
+        createIndexesIfNotExists();
+    }
+
+    public void createIndexesIfNotExists() {
+        // Очередь отложенных переводов разбирается по статусу в порядке id
+        createIndexIfNotExists("transfers", "idx_transfers_status", "status, id");
+        // История счёта: постраничное чтение по курсору (created_at, id) в каждом направлении
+        createIndexIfNotExists("transfers", "idx_transfers_from_created", "from_score_id, created_at, id");
+        createIndexIfNotExists("transfers", "idx_transfers_to_created", "to_score_id, created_at, id");
+        // Граница снимков балансов: последняя проводка до заданного момента
+        createIndexIfNotExists("postings", "idx_postings_created", "created_at, id");
+    }
+
+    public boolean indexExists(String tableName, String indexName) {
+        try {
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?",
+                    Integer.class,
+                    tableName,
+                    indexName
+            );
+            return count != null && count > 0;
+        } catch (Exception e) {
+            log.error("Ошибка при проверке существования индекса {}", indexName, e);
+            throw new RuntimeException("Ошибка при работе с БД", e);
+        }
+    }
+
+    private void createIndexIfNotExists(String tableName, String indexName, String columns) {
+        if (indexExists(tableName, indexName)) {
+            return;
+        }
+        log.info("Создаю индекс {} на {}({})", indexName, tableName, columns);
+        jdbcTemplate.execute("CREATE INDEX " + indexName + " ON " + tableName + " (" + columns + ")");
+    }
+
+    public boolean columnExists(String tableName, String columnName) {
+        try {
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM information_schema.columns WHERE table_schema = DATABASE() AND table_name = ? AND column_name = ?",
+                    Integer.class,
+                    tableName,
+                    columnName
+            );
+            return count != null && count > 0;
+        } catch (Exception e) {
+            log.error("Ошибка при проверке существования столбца {}.{}", tableName, columnName, e);
+            throw new RuntimeException("Ошибка при работе с БД", e);
+        }
+    }
+
+    private void addColumnIfNotExists(String tableName, String columnName, String definition) {
+        if (columnExists(tableName, columnName)) {
+            return;
+        }
+        log.info("Добавляю столбец {}.{}", tableName, columnName);
+        jdbcTemplate.execute("ALTER TABLE " + tableName + " ADD COLUMN " + columnName + " " + definition);
     }
 
     public boolean tableExists(String tableName) {
@@ -80,6 +164,7 @@ public class DatabaseManager {
                 balance BIGINT NOT NULL DEFAULT 0,
                 currency_code CHAR(3) NOT NULL DEFAULT 'RUB',
                 is_active BOOLEAN NOT NULL DEFAULT TRUE,
+                slot_count INT NOT NULL DEFAULT 1,
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 closed_at TIMESTAMP NULL DEFAULT NULL,
                 FOREIGN KEY (user_id) REFERENCES users(id)
@@ -92,16 +177,155 @@ public class DatabaseManager {
             CREATE TABLE transfers (
                 id BIGINT AUTO_INCREMENT PRIMARY KEY,
                 transfer_uuid CHAR(36) NOT NULL UNIQUE,
-                from_account_id BIGINT NOT NULL,
-                to_account_id BIGINT NOT NULL,
+                from_score_id BIGINT NOT NULL,
+                to_score_id BIGINT NOT NULL,
                 amount BIGINT NOT NULL,
                 currency_code CHAR(3) NOT NULL DEFAULT 'RUB',
                 status ENUM('SUCCESS', 'FAILED', 'PENDING') NOT NULL DEFAULT 'SUCCESS',
                 created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
                 completed_at TIMESTAMP NULL DEFAULT NULL,
-                FOREIGN KEY (from_account_id) REFERENCES accounts(id),
-                FOREIGN KEY (to_account_id) REFERENCES accounts(id)
+                FOREIGN KEY (from_score_id) REFERENCES scores(id),
+                FOREIGN KEY (to_score_id) REFERENCES scores(id)
+            )
+        """);
+    }
+
+    private void createScoreSlotsTable() {
+        // Слоты баланса для счетов с большим числом зачислений
+        jdbcTemplate.execute("""
+            CREATE TABLE score_slots (
+                score_id BIGINT NOT NULL,
+                slot INT NOT NULL,
+                balance BIGINT NOT NULL DEFAULT 0,
+                PRIMARY KEY (score_id, slot),
+                FOREIGN KEY (score_id) REFERENCES scores(id)
+            )
+        """);
+    }
+
+    private void createPostingsTable() {
+        // Журнал проводок только на добавление: по две проводки на перевод, сумма списания отрицательная.
+        // scores.balance и слоты — снимок, который можно пересчитать из журнала
+        jdbcTemplate.execute("""
+            CREATE TABLE postings (
+                id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                transfer_uuid CHAR(36) NULL,
+                score_id BIGINT NOT NULL,
+                amount BIGINT NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                INDEX idx_postings_score (score_id, id),
+                INDEX idx_postings_created (created_at, id),
+                FOREIGN KEY (score_id) REFERENCES scores(id)
+            )
+        """);
+        // Текущие балансы существующих счетов становятся начальными проводками без перевода
+        int opened = jdbcTemplate.update("""
+            INSERT INTO postings (transfer_uuid, score_id, amount)
+            SELECT NULL, s.id, s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0)
+            FROM scores s
+            ORDER BY s.id
+        """);
+        log.info("Создан журнал проводок, начальных проводок: {}", opened);
+    }
+
+    private void createBalanceSnapshotsTable() {
+        // Периодические снимки балансов: баланс счёта с учётом проводок до posting_id включительно
+        jdbcTemplate.execute("""
+            CREATE TABLE balance_snapshots (
+                score_id BIGINT NOT NULL,
+                posting_id BIGINT NOT NULL,
+                balance BIGINT NOT NULL,
+                as_of TIMESTAMP NOT NULL,
+                PRIMARY KEY (score_id, posting_id),
+                INDEX idx_balance_snapshots_as_of (score_id, as_of),
+                FOREIGN KEY (score_id) REFERENCES scores(id)
+            )
+        """);
+    }
+
+    private void createOutboxEventsTable() {
+        // События изменения балансов; строки удаляются после рассылки
+        jdbcTemplate.execute("""
+            CREATE TABLE outbox_events (
+                id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                score_id BIGINT NOT NULL,
+                user_id BIGINT NOT NULL,
+                amount BIGINT NOT NULL,
+                created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+            )
+        """);
+    }
+
+    private void createFxRatesTable() {
+        // Курсы валют: сколько единиц quote_currency дают за одну единицу base_currency
+        jdbcTemplate.execute("""
+            CREATE TABLE fx_rates (
+                base_currency CHAR(3) NOT NULL,
+                quote_currency CHAR(3) NOT NULL,
+                rate DECIMAL(20,10) NOT NULL,
+                updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
+                PRIMARY KEY (base_currency, quote_currency)
+            )
+        """);
+    }
+
+    private void createScoreNumberSequenceTable() {
+        // Начало следующего свободного блока номеров счетов
+        jdbcTemplate.execute("""
+            CREATE TABLE score_number_sequence (
+                name VARCHAR(32) PRIMARY KEY,
+                next_value BIGINT NOT NULL
+            )
+        """);
+        jdbcTemplate.update("INSERT INTO score_number_sequence (name, next_value) VALUES ('score_number', 1)");
+    }
+
+    private void createTransferImportsTable() {
+        // Контрольные точки импорта переводов из файлов; import_id — SHA-256 содержимого файла
+        jdbcTemplate.execute("""
+            CREATE TABLE transfer_imports (
+                import_id CHAR(64) PRIMARY KEY,
+                file_name VARCHAR(255) NOT NULL,
+                lines_done BIGINT NOT NULL DEFAULT 0,
+                result_bytes BIGINT NOT NULL DEFAULT 0,
+                succeeded BIGINT NOT NULL DEFAULT 0,
+                failed BIGINT NOT NULL DEFAULT 0,
+                started_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                finished_at TIMESTAMP NULL DEFAULT NULL
+            )
+        """);
+    }
+
+    private void createReconciliationTables() {
+        // Сверка балансов с журналом: прогоны, проверенные диапазоны счетов и найденные расхождения
+        jdbcTemplate.execute("""
+            CREATE TABLE reconciliation_runs (
+                run_id VARCHAR(32) PRIMARY KEY,
+                started_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                finished_at TIMESTAMP NULL DEFAULT NULL,
+                mismatches INT NULL
+            )
+        """);
+        jdbcTemplate.execute("""
+            CREATE TABLE reconciliation_ranges (
+                run_id VARCHAR(32) NOT NULL,
+                range_start BIGINT NOT NULL,
+                range_end BIGINT NOT NULL,
+                completed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (run_id, range_start),
+                FOREIGN KEY (run_id) REFERENCES reconciliation_runs(run_id)
+            )
+        """);
+        jdbcTemplate.execute("""
+            CREATE TABLE reconciliation_mismatches (
+                run_id VARCHAR(32) NOT NULL,
+                score_id BIGINT NOT NULL,
+                score_number VARCHAR(30),
+                snapshot_balance BIGINT NOT NULL,
+                journal_balance BIGINT NOT NULL,
+                PRIMARY KEY (run_id, score_id),
+                FOREIGN KEY (run_id) REFERENCES reconciliation_runs(run_id)
             )
         """);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.example.pbc.work_databased;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Курсы валют из таблицы fx_rates. Курсы хранятся в неизменяемом снимке, который
+ * по расписанию перечитывается из БД и подменяется целиком, поэтому конвертация
+ * при переводе не обращается к БД и всегда видит согласованный набор курсов
+ */
+public class FxRates {
+
+    private static final Logger log = LoggerFactory.getLogger(FxRates.class);
+
+    static final String LOAD_RATES_SQL =
+            "SELECT base_currency, quote_currency, rate FROM fx_rates";
+
+    // Точность обратного курса, если в таблице есть только курс в другую сторону
+    private static final int INVERSE_SCALE = 10;
+
+    /**
+     * Результат конвертации: сумма зачисления в валюте получателя и применённый курс
+     */
+    public record Conversion(long creditAmount, BigDecimal rate) {
+    }
+
+    // Неизменяемый снимок курсов: ключ — пара валют вида "USDRUB"
+    private record Snapshot(Map<String, BigDecimal> rates, LocalDateTime loadedAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final long refreshMillis;
+
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), null);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    public FxRates(JdbcTemplate jdbcTemplate, long refreshMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.refreshMillis = refreshMillis;
+    }
+
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        refresh();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fx-rates");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshSafely, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Перечитывает курсы из БД и подменяет снимок
+     */
+    public void refresh() {
+        Map<String, BigDecimal> rates = new HashMap<>();
+        jdbcTemplate.query(LOAD_RATES_SQL, rs -> {
+            rates.put(rs.getString("base_currency") + rs.getString("quote_currency"), rs.getBigDecimal("rate"));
+        });
+        snapshot = new Snapshot(Map.copyOf(rates), LocalDateTime.now());
+        log.info("Загружено курсов валют: {}", rates.size());
+    }
+
+    private void refreshSafely() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // Остаётся предыдущий снимок
+            log.error("Не удалось обновить курсы валют, используются курсы от {}", snapshot.loadedAt(), e);
+        }
+    }
+
+    /**
+     * Курс из валюты from в валюту to по текущему снимку
+     */
+    public Optional<BigDecimal> rate(String from, String to) {
+        if (from.equals(to)) {
+            return Optional.of(BigDecimal.ONE);
+        }
+        Map<String, BigDecimal> rates = snapshot.rates();
+        BigDecimal direct = rates.get(from + to);
+        if (direct != null) {
+            return Optional.of(direct);
+        }
+        BigDecimal inverse = rates.get(to + from);
+        if (inverse != null && inverse.signum() > 0) {
+            return Optional.of(BigDecimal.ONE.divide(inverse, INVERSE_SCALE, RoundingMode.HALF_EVEN));
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Конвертирует сумму списания в сумму зачисления, дробная часть отбрасывается.
+     * Пустой результат — курса нет или сумма зачисления получилась нулевой
+     */
+    public Optional<Conversion> convert(String from, String to, long amount) {
+        if (from.equals(to)) {
+            return Optional.of(new Conversion(amount, BigDecimal.ONE));
+        }
+        return rate(from, to)
+                .map(rate -> new Conversion(
+                        BigDecimal.valueOf(amount).multiply(rate).setScale(0, RoundingMode.DOWN).longValueExact(), rate))
+                .filter(conversion -> conversion.creditAmount() > 0);
+    }
+}
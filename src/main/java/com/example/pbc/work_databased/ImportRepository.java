@@ -0,0 +1,57 @@
+package com.example.pbc.work_databased;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Контрольные точки импорта переводов из файлов. Импорт определяется хешем содержимого файла,
+ * поэтому повторный запуск с тем же файлом продолжает его, а не начинает заново
+ */
+public class ImportRepository {
+
+    static final String START_IMPORT_SQL =
+            "INSERT IGNORE INTO transfer_imports (import_id, file_name) VALUES (?, ?)";
+    static final String FIND_CHECKPOINT_SQL =
+            "SELECT lines_done, result_bytes, succeeded, failed, finished_at FROM transfer_imports WHERE import_id = ?";
+    static final String SAVE_CHECKPOINT_SQL =
+            "UPDATE transfer_imports SET lines_done = ?, result_bytes = ?, succeeded = ?, failed = ? WHERE import_id = ?";
+    static final String FINISH_IMPORT_SQL =
+            "UPDATE transfer_imports SET finished_at = NOW() WHERE import_id = ?";
+
+    /**
+     * Состояние импорта: обработано строк файла, длина файла результатов на этот момент
+     * и счётчики переводов
+     */
+    public record Checkpoint(long linesDone, long resultBytes, long succeeded, long failed, boolean finished) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ImportRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Регистрирует импорт, если его ещё нет, и возвращает его контрольную точку
+     */
+    public Checkpoint start(String importId, String fileName) {
+        jdbcTemplate.update(START_IMPORT_SQL, importId, fileName);
+        return jdbcTemplate.queryForObject(FIND_CHECKPOINT_SQL, (rs, rowNum) -> new Checkpoint(
+                rs.getLong("lines_done"),
+                rs.getLong("result_bytes"),
+                rs.getLong("succeeded"),
+                rs.getLong("failed"),
+                rs.getTimestamp("finished_at") != null), importId);
+    }
+
+    /**
+     * Сохраняет контрольную точку. Вызывается в транзакции, применившей переводы части файла
+     */
+    public void saveCheckpoint(String importId, Checkpoint checkpoint) {
+        jdbcTemplate.update(SAVE_CHECKPOINT_SQL, checkpoint.linesDone(), checkpoint.resultBytes(),
+                checkpoint.succeeded(), checkpoint.failed(), importId);
+    }
+
+    public void finish(String importId) {
+        jdbcTemplate.update(FINISH_IMPORT_SQL, importId);
+    }
+}
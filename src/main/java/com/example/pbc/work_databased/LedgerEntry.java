@@ -0,0 +1,7 @@
+package com.example.pbc.work_databased;
+
+/**
+ * Перевод, передаваемый на групповую фиксацию
+ */
+public record LedgerEntry(String fromScoreNumber, String toScoreNumber, long amount, String transferUuid) {
+}
@@ -0,0 +1,175 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.model.TransferOutcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Групповая фиксация переводов. Переводы из разных потоков собираются в группу
+ * (до maxGroupSize или до истечения окна maxWaitMillis) и проводятся одной транзакцией
+ * с одной фиксацией на группу. Вызывающий поток получает результат только после фиксации
+ */
+public class LedgerWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerWriter.class);
+
+    // Перевод, ожидающий фиксации в составе группы
+    private record Pending(LedgerEntry entry, CompletableFuture<TransferOutcome> result) {
+    }
+
+    private final TransactionTemplate transactionTemplate;
+    private final Function<List<LedgerEntry>, List<TransferOutcome>> applier;
+    private final int maxGroupSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending> queue;
+
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * @param applier проводит группу внутри текущей транзакции и возвращает результат по каждому переводу
+     */
+    public LedgerWriter(TransactionTemplate transactionTemplate,
+                        Function<List<LedgerEntry>, List<TransferOutcome>> applier,
+                        int maxGroupSize, long maxWaitMillis, int queueCapacity) {
+        this.transactionTemplate = transactionTemplate;
+        this.applier = applier;
+        this.maxGroupSize = maxGroupSize;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "ledger-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Групповая фиксация переводов запущена: группа до {}, окно {} мкс",
+                maxGroupSize, TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+    }
+
+    public synchronized void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Переводы, не попавшие в группу, не проведены
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        for (Pending pending : rest) {
+            pending.result().completeExceptionally(new ServiceUnavailableException("Сервис переводов останавливается"));
+        }
+        log.info("Групповая фиксация переводов остановлена");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Ставит перевод в очередь и ждёт фиксации его группы
+     */
+    public TransferOutcome write(LedgerEntry entry) {
+        CompletableFuture<TransferOutcome> result = new CompletableFuture<>();
+        Pending pending = new Pending(entry, result);
+        if (!running || !queue.offer(pending)) {
+            throw new ServiceUnavailableException("Очередь переводов переполнена, повторите запрос позже");
+        }
+        // Остановка могла произойти между проверкой и постановкой в очередь
+        if (!running && queue.remove(pending)) {
+            throw new ServiceUnavailableException("Сервис переводов останавливается");
+        }
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Ожидание фиксации перевода прервано");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void writeLoop() {
+        List<Pending> group = new ArrayList<>(maxGroupSize);
+        while (running) {
+            try {
+                Pending first = queue.take();
+                group.add(first);
+                // Добираем группу до лимита или до конца окна
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (group.size() < maxGroupSize) {
+                    long left = deadline - System.nanoTime();
+                    Pending next = left > 0 ? queue.poll(left, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    group.add(next);
+                }
+                commitGroup(group);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } finally {
+                for (Pending pending : group) {
+                    // Защита от зависания вызывающих потоков при неожиданной ошибке
+                    pending.result().completeExceptionally(new IllegalStateException("Перевод не был проведён"));
+                }
+                group.clear();
+            }
+        }
+    }
+
+    private void commitGroup(List<Pending> group) {
+        List<LedgerEntry> entries = new ArrayList<>(group.size());
+        for (Pending pending : group) {
+            entries.add(pending.entry());
+        }
+        try {
+            List<TransferOutcome> outcomes = transactionTemplate.execute(status -> applier.apply(entries));
+            for (int i = 0; i < group.size(); i++) {
+                group.get(i).result().complete(outcomes.get(i));
+            }
+            log.debug("Зафиксирована группа из {} переводов", group.size());
+        } catch (DataAccessException ex) {
+            if (group.size() == 1) {
+                group.get(0).result().completeExceptionally(ex);
+                return;
+            }
+            // Ошибка одного перевода (например, повтор ключа) не должна отклонять всю группу
+            log.warn("Группа из {} переводов откатана, провожу по одному: {}", group.size(), ex.getMessage());
+            for (Pending pending : group) {
+                commitGroup(List.of(pending));
+            }
+        } catch (RuntimeException ex) {
+            log.error("Ошибка при фиксации группы из {} переводов", group.size(), ex);
+            for (Pending pending : group) {
+                pending.result().completeExceptionally(ex);
+            }
+        }
+    }
+}
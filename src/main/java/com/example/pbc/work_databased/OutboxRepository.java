@@ -0,0 +1,56 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.model.BalanceEvent;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Чтение и удаление событий outbox_events, записанных вместе с изменением баланса
+ */
+public class OutboxRepository {
+
+    // Баланс берётся на момент рассылки, поэтому клиент получает актуальное значение
+    static final String FETCH_EVENTS_SQL = """
+            SELECT o.id, o.user_id, o.amount, s.score_number,
+                   s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0) AS balance
+            FROM outbox_events o
+            JOIN scores s ON s.id = o.score_id
+            ORDER BY o.id
+            LIMIT ?
+            """;
+
+    /**
+     * Событие outbox с владельцем счёта
+     */
+    public record OutboxEvent(long id, long userId, BalanceEvent event) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public OutboxRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Первые limit событий в порядке записи
+     */
+    public List<OutboxEvent> fetchBatch(int limit) {
+        return jdbcTemplate.query(FETCH_EVENTS_SQL, (rs, rowNum) -> new OutboxEvent(
+                rs.getLong("id"),
+                rs.getLong("user_id"),
+                new BalanceEvent(rs.getString("score_number"), rs.getLong("amount"), rs.getLong("balance"))), limit);
+    }
+
+    /**
+     * Удаляет разосланные события одним запросом
+     */
+    public void delete(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        jdbcTemplate.update("DELETE FROM outbox_events WHERE id IN (" + placeholders + ")", ids.toArray());
+    }
+}
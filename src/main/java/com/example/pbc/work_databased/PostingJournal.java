@@ -0,0 +1,172 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.NotFoundException;
+import com.example.pbc.model.BalanceCheck;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Журнал проводок postings. Каждый перевод добавляет две проводки — списание и зачисление,
+ * строки журнала не изменяются. Баланс счёта в scores и score_slots — снимок журнала,
+ * который обновляется в той же транзакции и может быть проверен или пересчитан по журналу
+ */
+public class PostingJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(PostingJournal.class);
+
+    // Снимок и сумма журнала читаются одним запросом, то есть из одного согласованного среза без блокировок
+    static final String CHECK_SQL = """
+            SELECT s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0) AS snapshot,
+                   COALESCE((SELECT SUM(p.amount) FROM postings p WHERE p.score_id = s.id), 0) AS journal
+            FROM scores s
+            WHERE s.score_number = ?
+            """;
+    static final String LOCK_SCORE_SQL =
+            "SELECT id, balance, slot_count FROM scores WHERE score_number = ? FOR UPDATE";
+    static final String JOURNAL_BALANCE_SQL =
+            "SELECT COALESCE(SUM(amount), 0) FROM postings WHERE score_id = ?";
+
+    // Последняя проводка до asOf находится одним спуском по idx_postings_created, без скана журнала
+    static final String SNAPSHOT_CUTOFF_SQL =
+            "SELECT COALESCE((SELECT id FROM postings WHERE created_at < ? ORDER BY created_at DESC, id DESC LIMIT 1), 0)";
+    static final String MAX_SCORE_ID_SQL =
+            "SELECT COALESCE(MAX(id), 0) FROM scores";
+    // Новый снимок — последний снимок счёта плюс его проводки после него; счета без новых проводок не попадают в выборку.
+    // Запрос идёт от счетов диапазона: для каждого счёта проводки читаются по индексу (score_id, id)
+    // с позиции после последнего снимка, а не сканированием всех проводок диапазона
+    static final String SNAPSHOT_DELTAS_SQL = """
+            SELECT s.id AS score_id, d.posting_id, COALESCE(ls.balance, 0) + d.delta AS balance
+            FROM scores s
+            LEFT JOIN balance_snapshots ls ON ls.score_id = s.id
+                 AND ls.posting_id = (SELECT MAX(b.posting_id) FROM balance_snapshots b WHERE b.score_id = s.id)
+            JOIN LATERAL (
+                SELECT MAX(p.id) AS posting_id, SUM(p.amount) AS delta
+                FROM postings p
+                WHERE p.score_id = s.id AND p.id > COALESCE(ls.posting_id, 0) AND p.id <= ?
+            ) d ON d.posting_id IS NOT NULL
+            WHERE s.id > ? AND s.id <= ?
+            """;
+    static final String INSERT_SNAPSHOT_SQL =
+            "INSERT INTO balance_snapshots (score_id, posting_id, balance, as_of) VALUES (?, ?, ?, ?)";
+    // Баланс на момент времени: ближайший снимок не позже момента плюс проводки до момента.
+    // Следующий снимок ограничивает диапазон проводок сверху, поэтому чтение не длиннее интервала снимков
+    static final String BALANCE_AT_SQL = """
+            SELECT COALESCE((SELECT b.balance FROM balance_snapshots b
+                             WHERE b.score_id = s.id AND b.as_of <= ?
+                             ORDER BY b.posting_id DESC LIMIT 1), 0)
+                 + COALESCE((SELECT SUM(p.amount) FROM postings p
+                             WHERE p.score_id = s.id
+                               AND p.id > COALESCE((SELECT MAX(b.posting_id) FROM balance_snapshots b
+                                                    WHERE b.score_id = s.id AND b.as_of <= ?), 0)
+                               AND p.id <= COALESCE((SELECT MIN(b.posting_id) FROM balance_snapshots b
+                                                     WHERE b.score_id = s.id AND b.as_of > ?), 9223372036854775807)
+                               AND p.created_at <= ?), 0) AS balance
+            FROM scores s
+            WHERE s.score_number = ?
+            """;
+
+    private record LockedScore(long id, long balance, int slotCount) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ScoreSlots scoreSlots;
+
+    public PostingJournal(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ScoreSlots scoreSlots) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.scoreSlots = scoreSlots;
+    }
+
+    /**
+     * Сравнивает снимок баланса с журналом, не блокируя строки счёта
+     */
+    public BalanceCheck check(String scoreNumber) {
+        List<BalanceCheck> checks = jdbcTemplate.query(CHECK_SQL,
+                (rs, rowNum) -> new BalanceCheck(scoreNumber, rs.getLong("snapshot"), rs.getLong("journal")),
+                scoreNumber);
+        if (checks.isEmpty()) {
+            throw new NotFoundException("Счёт не найден");
+        }
+        return checks.get(0);
+    }
+
+    /**
+     * Пересчитывает снимок баланса по журналу. Счёт и его слоты блокируются, поэтому новые проводки
+     * по счёту не появятся до конца транзакции. Расхождение переносится в scores.balance.
+     * Возвращает состояние до пересчёта
+     */
+    public BalanceCheck rebuild(String scoreNumber) {
+        BalanceCheck before = transactionTemplate.execute(status -> {
+            List<LockedScore> locked = jdbcTemplate.query(LOCK_SCORE_SQL,
+                    (rs, rowNum) -> new LockedScore(rs.getLong("id"), rs.getLong("balance"), rs.getInt("slot_count")),
+                    scoreNumber);
+            if (locked.isEmpty()) {
+                throw new NotFoundException("Счёт не найден");
+            }
+            LockedScore score = locked.get(0);
+            long snapshot = score.balance() + (score.slotCount() > 1 ? scoreSlots.lockTotal(score.id()) : 0);
+            Long journal = jdbcTemplate.queryForObject(JOURNAL_BALANCE_SQL, Long.class, score.id());
+            long journalBalance = journal == null ? 0 : journal;
+            if (snapshot != journalBalance) {
+                jdbcTemplate.update("UPDATE scores SET balance = balance + ? WHERE id = ?", journalBalance - snapshot, score.id());
+            }
+            return new BalanceCheck(scoreNumber, snapshot, journalBalance);
+        });
+        if (!before.isConsistent()) {
+            log.warn("Баланс счёта {} пересчитан по журналу: {} -> {}",
+                    scoreNumber, before.getSnapshotBalance(), before.getJournalBalance());
+        }
+        return before;
+    }
+
+    /**
+     * Снимает балансы счетов, у которых появились проводки после их последнего снимка.
+     * В снимок входят проводки, созданные раньше asOf; asOf должен отставать от текущего времени
+     * на время самой длинной транзакции перевода, чтобы незафиксированные проводки с меньшим id
+     * не остались за снимком. Счета обрабатываются диапазонами id по scoreRange, каждый диапазон —
+     * отдельное чтение без блокировок и пакетная вставка. Прерванный проход можно просто повторить.
+     * Возвращает число созданных снимков
+     */
+    public int takeSnapshots(LocalDateTime asOf, int scoreRange) {
+        Timestamp asOfTs = Timestamp.valueOf(asOf);
+        Long cutoff = jdbcTemplate.queryForObject(SNAPSHOT_CUTOFF_SQL, Long.class, asOfTs);
+        if (cutoff == null || cutoff == 0) {
+            return 0;
+        }
+        Long maxScoreId = jdbcTemplate.queryForObject(MAX_SCORE_ID_SQL, Long.class);
+        long lastScoreId = maxScoreId == null ? 0 : maxScoreId;
+
+        int created = 0;
+        for (long rangeStart = 0; rangeStart < lastScoreId; rangeStart += scoreRange) {
+            List<Object[]> snapshots = new ArrayList<>();
+            jdbcTemplate.query(SNAPSHOT_DELTAS_SQL, rs -> {
+                snapshots.add(new Object[]{rs.getLong("score_id"), rs.getLong("posting_id"), rs.getLong("balance"), asOfTs});
+            }, cutoff, rangeStart, rangeStart + scoreRange);
+            if (!snapshots.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_SNAPSHOT_SQL, snapshots);
+                created += snapshots.size();
+            }
+        }
+        log.info("Снимки балансов на {}: {}", asOf, created);
+        return created;
+    }
+
+    /**
+     * Баланс счёта на момент времени по ближайшему снимку и проводкам после него
+     */
+    public Optional<Long> balanceAt(String scoreNumber, LocalDateTime at) {
+        Timestamp atTs = Timestamp.valueOf(at);
+        List<Long> balances = jdbcTemplate.query(BALANCE_AT_SQL, (rs, rowNum) -> rs.getLong("balance"),
+                atTs, atTs, atTs, atTs, scoreNumber);
+        return balances.stream().findFirst();
+    }
+}
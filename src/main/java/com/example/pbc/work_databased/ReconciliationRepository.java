@@ -0,0 +1,144 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.model.BalanceCheck;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Хранение прогонов сверки и построчное чтение диапазонов счетов для неё
+ */
+public class ReconciliationRepository {
+
+    // Снимки балансов диапазона и все их проводки одним запросом, то есть из одного согласованного среза.
+    // Чтение без блокировок, проводки выбираются по индексу (score_id, id)
+    static final String SCAN_RANGE_SQL = """
+            SELECT s.id AS score_id, s.score_number, 0 AS kind,
+                   s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0) AS amount
+            FROM scores s
+            WHERE s.id > ? AND s.id <= ?
+            UNION ALL
+            SELECT p.score_id, NULL, 1, p.amount
+            FROM postings p
+            WHERE p.score_id > ? AND p.score_id <= ?
+            """;
+    static final String START_RUN_SQL =
+            "INSERT IGNORE INTO reconciliation_runs (run_id) VALUES (?)";
+    static final String UNFINISHED_RUN_SQL =
+            "SELECT run_id FROM reconciliation_runs WHERE finished_at IS NULL ORDER BY started_at DESC LIMIT 1";
+    static final String COMPLETED_RANGES_SQL =
+            "SELECT range_start FROM reconciliation_ranges WHERE run_id = ?";
+    static final String COMPLETE_RANGE_SQL =
+            "INSERT INTO reconciliation_ranges (run_id, range_start, range_end) VALUES (?, ?, ?)";
+    static final String INSERT_MISMATCH_SQL =
+            "INSERT INTO reconciliation_mismatches (run_id, score_id, score_number, snapshot_balance, journal_balance) VALUES (?, ?, ?, ?, ?)";
+    static final String FINISH_RUN_SQL = """
+            UPDATE reconciliation_runs
+            SET finished_at = NOW(), mismatches = (SELECT COUNT(*) FROM reconciliation_mismatches WHERE run_id = ?)
+            WHERE run_id = ?
+            """;
+    static final String FIND_MISMATCHES_SQL =
+            "SELECT score_number, snapshot_balance, journal_balance FROM reconciliation_mismatches WHERE run_id = ? ORDER BY score_id";
+
+    /**
+     * Получатель строк диапазона: снимок баланса счёта и отдельные проводки
+     */
+    public interface RangeSink {
+        void snapshot(long scoreId, String scoreNumber, long balance);
+
+        void posting(long scoreId, long amount);
+    }
+
+    /**
+     * Расхождение, найденное в диапазоне
+     */
+    public record Mismatch(long scoreId, BalanceCheck check) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public ReconciliationRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public long maxScoreId() {
+        Long maxId = jdbcTemplate.queryForObject(PostingJournal.MAX_SCORE_ID_SQL, Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    /**
+     * Передаёт снимки и проводки счетов с id в (afterScoreId, lastScoreId] в sink по одной строке.
+     * Результат не накапливается в памяти драйвера
+     */
+    public void scanRange(long afterScoreId, long lastScoreId, RangeSink sink) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(SCAN_RANGE_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setLong(1, afterScoreId);
+            ps.setLong(2, lastScoreId);
+            ps.setLong(3, afterScoreId);
+            ps.setLong(4, lastScoreId);
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            if (rs.getInt("kind") == 0) {
+                sink.snapshot(rs.getLong("score_id"), rs.getString("score_number"), rs.getLong("amount"));
+            } else {
+                sink.posting(rs.getLong("score_id"), rs.getLong("amount"));
+            }
+        });
+    }
+
+    public void startRun(String runId) {
+        jdbcTemplate.update(START_RUN_SQL, runId);
+    }
+
+    /**
+     * Последний незавершённый прогон, если он есть
+     */
+    public Optional<String> findUnfinishedRun() {
+        return jdbcTemplate.queryForList(UNFINISHED_RUN_SQL, String.class).stream().findFirst();
+    }
+
+    public Set<Long> completedRanges(String runId) {
+        return new HashSet<>(jdbcTemplate.queryForList(COMPLETED_RANGES_SQL, Long.class, runId));
+    }
+
+    /**
+     * Отмечает диапазон проверенным вместе с его расхождениями в одной транзакции
+     */
+    public void completeRange(String runId, long rangeStart, long rangeEnd, List<Mismatch> mismatches) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!mismatches.isEmpty()) {
+                List<Object[]> rows = new ArrayList<>(mismatches.size());
+                for (Mismatch mismatch : mismatches) {
+                    BalanceCheck check = mismatch.check();
+                    rows.add(new Object[]{runId, mismatch.scoreId(), check.getScoreNumber(),
+                            check.getSnapshotBalance(), check.getJournalBalance()});
+                }
+                jdbcTemplate.batchUpdate(INSERT_MISMATCH_SQL, rows);
+            }
+            jdbcTemplate.update(COMPLETE_RANGE_SQL, runId, rangeStart, rangeEnd);
+        });
+    }
+
+    public void finishRun(String runId) {
+        jdbcTemplate.update(FINISH_RUN_SQL, runId, runId);
+    }
+
+    public List<BalanceCheck> findMismatches(String runId) {
+        return jdbcTemplate.query(FIND_MISMATCHES_SQL, (rs, rowNum) -> new BalanceCheck(
+                rs.getString("score_number"),
+                rs.getLong("snapshot_balance"),
+                rs.getLong("journal_balance")), runId);
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.model.Score;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Ограниченный кэш строк scores по номеру счёта и списков активных счетов по пользователю,
+ * давно не использованные записи вытесняются.
+ * Изменение строки помечает запись счёта устаревшей: баланс и статус из неё больше не выдаются,
+ * но id, владелец и сам факт существования счёта не меняются, поэтому проверки существования
+ * и принадлежности по-прежнему отвечаются из памяти. Список счетов владельца при этом сбрасывается
+ */
+public class ScoreCache {
+
+    // Число полос счётчиков поколений; счета с одной полосой делят счётчик
+    static final int GENERATION_STRIPES = 1024;
+    // Число полос версий списков; пользователи с одной полосой делят версию
+    static final int USER_VERSION_STRIPES = 1024;
+
+    private record Entry(Score score, boolean fresh) {
+    }
+
+    private final Map<String, Entry> scores;
+    private final Map<Long, List<Score>> userScores;
+    // Число пометок устаревания по полосам номеров счетов; запись, прочитанная до пометки
+    // своей полосы, кладётся в кэш устаревшей. Изменение одного счёта не задевает чтения остальных
+    private final long[] generations = new long[GENERATION_STRIPES];
+    // Номер последнего сброса списка по полосам пользователей; прочитанный до сброса список в кэш не кладётся.
+    // Версии хранятся отдельно от LRU, поэтому сброс не занимает место в кэше и не вытесняет живые списки
+    private final long[] userVersions = new long[USER_VERSION_STRIPES];
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter listHits;
+    private final Counter listMisses;
+
+    public ScoreCache(int capacity, MeterRegistry meterRegistry) {
+        this.hits = Counter.builder("pbc.score.cache.requests")
+                .description("Обращения к кэшу счетов")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("pbc.score.cache.requests")
+                .description("Обращения к кэшу счетов")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("pbc.score.cache.evictions")
+                .description("Счета, вытесненные из кэша по размеру")
+                .register(meterRegistry);
+        this.listHits = Counter.builder("pbc.score.list.cache.requests")
+                .description("Обращения к кэшу списков счетов пользователей")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.listMisses = Counter.builder("pbc.score.list.cache.requests")
+                .description("Обращения к кэшу списков счетов пользователей")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        this.scores = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.userScores = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Score>> eldest) {
+                return size() > capacity;
+            }
+        };
+        Gauge.builder("pbc.score.cache.size", this, ScoreCache::size)
+                .description("Счетов в кэше")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Актуальная строка счёта: для чтения баланса и статуса
+     */
+    public synchronized Optional<Score> getFresh(String scoreNumber) {
+        Entry entry = scores.get(scoreNumber);
+        return count(entry != null && entry.fresh() ? entry.score() : null);
+    }
+
+    /**
+     * Строка счёта, возможно с устаревшим балансом: для проверок существования и владельца
+     */
+    public synchronized Optional<Score> getAny(String scoreNumber) {
+        Entry entry = scores.get(scoreNumber);
+        return count(entry != null ? entry.score() : null);
+    }
+
+    /**
+     * Поколение полосы счёта; берётся до чтения строки из БД и передаётся в put
+     */
+    public synchronized long generation(String scoreNumber) {
+        return generations[stripe(scoreNumber)];
+    }
+
+    /**
+     * Кладёт прочитанную строку. Если после начала чтения счёт (или счёт с той же полосой) менялся,
+     * строка сохраняется устаревшей
+     */
+    public synchronized void put(Score score, long readGeneration) {
+        String scoreNumber = score.getScoreNumber();
+        scores.put(scoreNumber, new Entry(score, readGeneration == generations[stripe(scoreNumber)]));
+    }
+
+    public synchronized void invalidate(String scoreNumber) {
+        generations[stripe(scoreNumber)]++;
+        Entry entry = scores.get(scoreNumber);
+        if (entry != null && entry.fresh()) {
+            scores.put(scoreNumber, new Entry(entry.score(), false));
+        }
+    }
+
+    /**
+     * Неизменяемый список активных счетов пользователя
+     */
+    public synchronized Optional<List<Score>> getUserScores(long userId) {
+        List<Score> list = userScores.get(userId);
+        (list != null ? listHits : listMisses).increment();
+        return Optional.ofNullable(list);
+    }
+
+    /**
+     * Версия списка пользователя; берётся до чтения списка из БД и передаётся в putUserScores
+     */
+    public synchronized long userVersion(long userId) {
+        return userVersions[userStripe(userId)];
+    }
+
+    /**
+     * Сохраняет список, если с начала его чтения список пользователя не сбрасывался.
+     * Возвращает неизменяемую копию списка
+     */
+    public synchronized List<Score> putUserScores(long userId, List<Score> list, long readVersion) {
+        List<Score> copy = List.copyOf(list);
+        if (userVersion(userId) == readVersion) {
+            userScores.put(userId, copy);
+        }
+        return copy;
+    }
+
+    public synchronized void invalidateUser(long userId) {
+        userScores.remove(userId);
+        userVersions[userStripe(userId)]++;
+    }
+
+    /**
+     * Помечает счета устаревшими и сбрасывает списки их владельцев по завершении текущей транзакции,
+     * чтобы чтение до фиксации не вернуло в кэш старый баланс. Вне транзакции — сразу
+     */
+    public void invalidateAfterCompletion(Collection<Score> changed) {
+        List<Score> copy = List.copyOf(changed);
+        invalidateAll(copy);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Повторно после завершения: чтение, начатое до фиксации, не сохранит свой результат актуальным
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateAll(copy);
+                }
+            });
+        }
+    }
+
+    public synchronized int size() {
+        return scores.size();
+    }
+
+    private synchronized void invalidateAll(List<Score> changed) {
+        for (Score score : changed) {
+            invalidate(score.getScoreNumber());
+            if (score.getUserId() != null) {
+                invalidateUser(score.getUserId());
+            }
+        }
+    }
+
+    private static int stripe(String scoreNumber) {
+        return Math.floorMod(scoreNumber.hashCode(), GENERATION_STRIPES);
+    }
+
+    private static int userStripe(long userId) {
+        return Math.floorMod(Long.hashCode(userId), USER_VERSION_STRIPES);
+    }
+
+    private Optional<Score> count(Score score) {
+        (score != null ? hits : misses).increment();
+        return Optional.ofNullable(score);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.pbc.work_databased;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Выдача номеров счетов блоками (hi/lo). Строка score_number_sequence хранит начало следующего
+ * свободного блока; экземпляр резервирует блок из blockSize номеров одной транзакцией и раздаёт его
+ * из памяти счётчиком, без обращения к БД. Номера не повторяются между экземплярами приложения.
+ * Номера, не выданные до остановки, пропускаются
+ */
+public class ScoreNumberAllocator {
+
+    private static final Logger log = LoggerFactory.getLogger(ScoreNumberAllocator.class);
+
+    static final String SEQUENCE_NAME = "score_number";
+    static final String LOCK_SEQUENCE_SQL =
+            "SELECT next_value FROM score_number_sequence WHERE name = ? FOR UPDATE";
+    static final String ADVANCE_SEQUENCE_SQL =
+            "UPDATE score_number_sequence SET next_value = ? WHERE name = ?";
+    static final String INIT_SEQUENCE_SQL =
+            "INSERT IGNORE INTO score_number_sequence (name, next_value) VALUES (?, 1)";
+
+    // Зарезервированный блок [next, end)
+    private record Block(AtomicLong next, long end) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String prefix;
+    private final int width;
+    private final long maxValue;
+    private final int blockSize;
+
+    private volatile Block block = new Block(new AtomicLong(), 0);
+
+    /**
+     * prefix — префикс номера, width — число цифр после префикса, blockSize — номеров в одном резерве
+     */
+    public ScoreNumberAllocator(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                String prefix, int width, int blockSize) {
+        if (width < 1 || width > 18) {
+            throw new IllegalArgumentException("Ширина номера счёта должна быть от 1 до 18 цифр");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.prefix = prefix;
+        this.width = width;
+        this.maxValue = (long) Math.pow(10, width) - 1;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Следующий свободный номер счёта. К БД обращается только вызов, исчерпавший блок
+     */
+    public String next() {
+        while (true) {
+            Block current = block;
+            long value = current.next().getAndIncrement();
+            if (value < current.end()) {
+                return format(value);
+            }
+            synchronized (this) {
+                // Блок мог уже заменить другой поток, пока этот ждал монитор
+                if (block == current) {
+                    block = reserve();
+                }
+            }
+        }
+    }
+
+    String format(long value) {
+        StringBuilder sb = new StringBuilder(prefix.length() + width).append(prefix);
+        String digits = Long.toString(value);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        return sb.append(digits).toString();
+    }
+
+    /**
+     * Резервирует следующий блок номеров в score_number_sequence
+     */
+    private Block reserve() {
+        Block reserved = transactionTemplate.execute(status -> {
+            List<Long> values = jdbcTemplate.queryForList(LOCK_SEQUENCE_SQL, Long.class, SEQUENCE_NAME);
+            long start;
+            if (values.isEmpty()) {
+                jdbcTemplate.update(INIT_SEQUENCE_SQL, SEQUENCE_NAME);
+                start = jdbcTemplate.queryForObject(LOCK_SEQUENCE_SQL, Long.class, SEQUENCE_NAME);
+            } else {
+                start = values.get(0);
+            }
+            if (start > maxValue) {
+                throw new IllegalStateException("Номера счетов шириной " + width + " цифр исчерпаны");
+            }
+            long end = Math.min(start + blockSize, maxValue + 1);
+            jdbcTemplate.update(ADVANCE_SEQUENCE_SQL, end, SEQUENCE_NAME);
+            return new Block(new AtomicLong(start), end);
+        });
+        log.info("Зарезервирован блок номеров счетов {} - {}", reserved.next().get(), reserved.end() - 1);
+        return reserved;
+    }
+}
@@ -3,10 +3,14 @@ package com.example.pbc.work_databased;
 import com.example.pbc.exception.BadRequestException;
 import com.example.pbc.exception.NotFoundException;
 import com.example.pbc.model.Score;
+import com.example.pbc.model.ScoreLookup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
 import java.util.Optional;
@@ -14,10 +18,51 @@ import java.util.Optional;
 public class ScoreRepository {
 
     private static final Logger log = LoggerFactory.getLogger(ScoreRepository.class);
+
+    // Баланс счёта со слотами — сумма scores.balance и всех слотов
+    static final String SELECT_SCORE_SQL = """
+            SELECT s.id, s.user_id, s.score_number, s.is_active, s.slot_count, s.currency_code,
+                   s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0) AS balance
+            FROM scores s""";
+
+    // Только поля для проверок перед переводом, без номера, валюты и числа слотов
+    static final String LOOKUP_SCORE_SQL = """
+            SELECT s.id, s.user_id, s.is_active,
+                   s.balance + COALESCE((SELECT SUM(ss.balance) FROM score_slots ss WHERE ss.score_id = s.id), 0) AS balance
+            FROM scores s WHERE s.score_number = ?""";
+
+    // Начальный баланс нового счёта записывается в журнал проводкой без перевода
+    static final String OPENING_POSTING_SQL =
+            "INSERT INTO postings (transfer_uuid, score_id, amount) SELECT NULL, id, balance FROM scores WHERE score_number = ?";
+
+    private static final RowMapper<Score> SCORE_ROW_MAPPER = (rs, rowNum) -> {
+        Score score = new Score(
+                rs.getLong("id"),
+                rs.getLong("user_id"),
+                rs.getString("score_number"),
+                rs.getLong("balance"),
+                rs.getBoolean("is_active")
+        );
+        score.setSlotCount(rs.getInt("slot_count"));
+        score.setCurrencyCode(rs.getString("currency_code"));
+        return score;
+    };
+
+    private static final RowMapper<ScoreLookup> LOOKUP_ROW_MAPPER = (rs, rowNum) -> new ScoreLookup(
+            rs.getLong("id"),
+            rs.getLong("user_id"),
+            rs.getLong("balance"),
+            rs.getBoolean("is_active")
+    );
+
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ScoreCache scoreCache;
 
-    public ScoreRepository(JdbcTemplate jdbcTemplate) {
+    public ScoreRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ScoreCache scoreCache) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.scoreCache = scoreCache;
     }
 
     /**
@@ -33,13 +78,20 @@ public class ScoreRepository {
         }
 
         try {
-            jdbcTemplate.update(
-                    "INSERT INTO scores(user_id, score_number, balance, is_active) VALUES (?, ?, ?, ?)",
-                    score.getUserId(),
-                    score.getScoreNumber(),
-                    score.getBalance(),
-                    score.getStatus()
-            );
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update(
+                        "INSERT INTO scores(user_id, score_number, balance, currency_code, is_active) VALUES (?, ?, ?, ?, ?)",
+                        score.getUserId(),
+                        score.getScoreNumber(),
+                        score.getBalance(),
+                        score.getCurrencyCode(),
+                        score.getStatus()
+                );
+                if (score.getBalance() != null && score.getBalance() != 0) {
+                    jdbcTemplate.update(OPENING_POSTING_SQL, score.getScoreNumber());
+                }
+            });
+            scoreCache.invalidateUser(score.getUserId());
         } catch (DataAccessException e) {
             log.error("Ошибка при создании счёта: {}", score.getScoreNumber(), e);
             throw new RuntimeException("Не удалось сохранить счёт в базе данных", e);
@@ -47,7 +99,8 @@ public class ScoreRepository {
     }
 
     /**
-     * Получение всех активных счетов пользователя
+     * Получение всех активных счетов пользователя. Список хранится в кэше до открытия
+     * или закрытия счёта пользователя либо изменения баланса одного из его счетов
      */
     public List<Score> getScoresByUserId(Long userId) {
         long startTime = System.currentTimeMillis();
@@ -58,15 +111,15 @@ public class ScoreRepository {
             throw new BadRequestException("ID пользователя обязателен");
         }
 
+        Optional<List<Score>> cached = scoreCache.getUserScores(userId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        long version = scoreCache.userVersion(userId);
         List<Score> scores = jdbcTemplate.query(
-                "SELECT * FROM scores WHERE user_id = ? AND is_active = true",
-                (rs, rowNum) -> new Score(
-                        rs.getLong("id"),
-                        rs.getLong("user_id"),
-                        rs.getString("score_number"),
-                        rs.getLong("balance"),
-                        rs.getBoolean("is_active")
-                ),
+                SELECT_SCORE_SQL + " WHERE s.user_id = ? AND s.is_active = true",
+                SCORE_ROW_MAPPER,
                 userId);
 
         if (scores.isEmpty()) {
@@ -74,7 +127,7 @@ public class ScoreRepository {
             //throw new NotFoundException("Счета не найдены для пользователя");
         }
 
-        return scores;
+        return scoreCache.putUserScores(userId, scores, version);
     }
 
     /**
@@ -97,6 +150,7 @@ public class ScoreRepository {
             log.warn("Счёт {} не найден", scoreNumber);
             throw new NotFoundException("Счёт не найден");
         }
+        scoreCache.invalidate(scoreNumber);
 
         log.debug("Счёт {} успешно закрыт", scoreNumber);
         log.debug("Метод closeScore выполнен за {} мс", System.currentTimeMillis() - startTime);
@@ -114,15 +168,11 @@ public class ScoreRepository {
             throw new BadRequestException("Номер счёта обязателен");
         }
 
-        Integer count = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM scores WHERE score_number = ?",
-                Integer.class,
-                scoreNumber
-        );
-
-        boolean exists = count != null && count > 0;
-
-        return exists;
+        // Счета не удаляются, поэтому подходит и устаревшая запись кэша
+        if (scoreCache.getAny(scoreNumber).isPresent()) {
+            return true;
+        }
+        return loadScore(scoreNumber).isPresent();
     }
 
     /**
@@ -137,26 +187,62 @@ public class ScoreRepository {
             throw new BadRequestException("Номер счёта обязателен");
         }
 
+        Optional<Score> cached = scoreCache.getFresh(scoreNumber);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<Score> score = loadScore(scoreNumber);
+        if (score.isEmpty()) {
+            log.warn("Счёт {} не найден", scoreNumber);
+        }
+        return score;
+    }
+
+    /**
+     * id, владелец, баланс и статус счёта одним запросом по индексу score_number.
+     * Актуальная запись кэша отвечает без обращения к БД
+     */
+    public Optional<ScoreLookup> lookupScore(String scoreNumber) {
+        if (scoreNumber == null || scoreNumber.trim().isEmpty()) {
+            log.warn("Номер счёта не указан");
+            throw new BadRequestException("Номер счёта обязателен");
+        }
+
+        Optional<Score> cached = scoreCache.getFresh(scoreNumber);
+        if (cached.isPresent()) {
+            Score score = cached.get();
+            return Optional.of(new ScoreLookup(score.getId(), score.getUserId(), score.getBalance(), score.getStatus()));
+        }
+        try {
+            List<ScoreLookup> rows = jdbcTemplate.query(LOOKUP_SCORE_SQL, LOOKUP_ROW_MAPPER, scoreNumber);
+            return rows.isEmpty() ? Optional.empty() : Optional.of(rows.get(0));
+        } catch (DataAccessException e) {
+            log.error("Ошибка доступа к данным при поиске счёта: {}", scoreNumber, e);
+            throw new RuntimeException("Ошибка базы данных при поиске счёта", e);
+        }
+    }
+
+    /**
+     * Читает счёт из БД и кладёт его в кэш
+     */
+    private Optional<Score> loadScore(String scoreNumber) {
+        long generation = scoreCache.generation(scoreNumber);
         try {
             Score score = jdbcTemplate.queryForObject(
-                    "SELECT * FROM scores WHERE score_number = ?",
-                    (rs, rowNum) -> new Score(
-                            rs.getLong("id"),
-                            rs.getLong("user_id"),
-                            rs.getString("score_number"),
-                            rs.getLong("balance"),
-                            rs.getBoolean("is_active")
-                    ),
+                    SELECT_SCORE_SQL + " WHERE s.score_number = ?",
+                    SCORE_ROW_MAPPER,
                     scoreNumber);
 
             if (score == null) {
-                log.warn("Счёт {} не найден", scoreNumber);
                 return Optional.empty();
             }
 
+            scoreCache.put(score, generation);
             log.debug("Счёт {} найден", scoreNumber);
             return Optional.of(score);
 
+        } catch (EmptyResultDataAccessException e) {
+            return Optional.empty();
         } catch (DataAccessException e) {
             log.error("Ошибка доступа к данным при поиске счёта: {}", scoreNumber, e);
             throw new RuntimeException("Ошибка базы данных при поиске счёта", e);
@@ -209,11 +295,12 @@ public class ScoreRepository {
             throw new BadRequestException("ID пользователя обязателен");
         }
 
-        Integer count = jdbcTemplate.queryForObject(
-                "SELECT COUNT(*) FROM scores WHERE score_number = ? AND user_id = ?",
-                Integer.class, scoreNumber, userId);
-
-        boolean belongs = count != null && count > 0;
+        // Владелец счёта не меняется, поэтому подходит и устаревшая запись кэша
+        Optional<Score> score = scoreCache.getAny(scoreNumber);
+        if (score.isEmpty()) {
+            score = loadScore(scoreNumber);
+        }
+        boolean belongs = score.map(s -> userId.equals(s.getUserId())).orElse(false);
 
         if (!belongs) {
             log.warn("Счёт {} не принадлежит пользователю {}", scoreNumber, userId);
@@ -221,4 +308,18 @@ public class ScoreRepository {
 
         return belongs;
     }
-}
\ No newline at end of file
+
+    /**
+     * Помечает счёт в кэше устаревшим после изменения его строки в обход репозитория
+     */
+    public void evict(String scoreNumber) {
+        scoreCache.invalidate(scoreNumber);
+    }
+
+    /**
+     * Сбрасывает кэшированный список счетов пользователя
+     */
+    public void evictUserScores(Long userId) {
+        scoreCache.invalidateUser(userId);
+    }
+}
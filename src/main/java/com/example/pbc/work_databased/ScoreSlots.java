@@ -0,0 +1,184 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.NotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Разделение баланса счёта на слоты для счетов с большим числом зачислений.
+ * Баланс такого счёта хранится в score_slots, зачисление идёт в случайный слот
+ * и блокирует только его строку, а строка scores блокируется в разделяемом режиме.
+ * Полный баланс счёта — scores.balance плюс сумма слотов
+ */
+public class ScoreSlots {
+
+    private static final Logger log = LoggerFactory.getLogger(ScoreSlots.class);
+
+    static final int MAX_SLOTS = 64;
+
+    static final String LOCK_SCORE_SQL =
+            "SELECT id, balance, slot_count FROM scores WHERE score_number = ? FOR UPDATE";
+    static final String LOCK_SLOTS_SQL =
+            "SELECT slot, balance FROM score_slots WHERE score_id = ? ORDER BY slot FOR UPDATE";
+    static final String CREDIT_SLOT_SQL =
+            "UPDATE score_slots SET balance = balance + ? WHERE score_id = ? AND slot = ?";
+    static final String INSERT_SLOT_SQL =
+            "INSERT INTO score_slots (score_id, slot, balance) VALUES (?, ?, ?)";
+    static final String SLOTTED_SCORES_SQL =
+            "SELECT id, score_number FROM scores WHERE slot_count > 1";
+
+    // Слот и его баланс, заблокированные в текущей транзакции
+    private record Slot(int slot, long balance) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    // Счета, разделённые на слоты; используется для выбора режима блокировки до обращения к БД
+    private volatile Set<String> slottedNumbers = Set.of();
+    private volatile Set<Long> slottedIds = Set.of();
+
+    public ScoreSlots(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    /**
+     * Перечитывает список разделённых счетов из БД
+     */
+    public void refresh() {
+        Set<String> numbers = new HashSet<>();
+        Set<Long> ids = new HashSet<>();
+        jdbcTemplate.query(SLOTTED_SCORES_SQL, rs -> {
+            ids.add(rs.getLong("id"));
+            numbers.add(rs.getString("score_number"));
+        });
+        slottedNumbers = Set.copyOf(numbers);
+        slottedIds = Set.copyOf(ids);
+        log.info("Счетов, разделённых на слоты: {}", numbers.size());
+    }
+
+    public boolean isSlotted(String scoreNumber) {
+        return slottedNumbers.contains(scoreNumber);
+    }
+
+    public boolean isSlotted(long scoreId) {
+        return slottedIds.contains(scoreId);
+    }
+
+    /**
+     * Убирает из списка счёт, слияние которого обнаружено по заблокированной строке, не дожидаясь refresh
+     */
+    public synchronized void forget(long scoreId, String scoreNumber) {
+        Set<String> numbers = new HashSet<>(slottedNumbers);
+        Set<Long> ids = new HashSet<>(slottedIds);
+        numbers.remove(scoreNumber);
+        ids.remove(scoreId);
+        slottedNumbers = Set.copyOf(numbers);
+        slottedIds = Set.copyOf(ids);
+    }
+
+    /**
+     * Делит баланс счёта на slotCount слотов. Текущий баланс переносится в слот 0.
+     * Повторный вызов сначала сливает существующие слоты
+     */
+    public void split(String scoreNumber, int slotCount) {
+        if (slotCount < 2 || slotCount > MAX_SLOTS) {
+            throw new BadRequestException("Число слотов должно быть от 2 до " + MAX_SLOTS);
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            long scoreId = mergeLocked(scoreNumber);
+            long balance = jdbcTemplate.queryForObject("SELECT balance FROM scores WHERE id = ?", Long.class, scoreId);
+
+            List<Object[]> slots = new ArrayList<>(slotCount);
+            for (int slot = 0; slot < slotCount; slot++) {
+                slots.add(new Object[]{scoreId, slot, slot == 0 ? balance : 0L});
+            }
+            jdbcTemplate.batchUpdate(INSERT_SLOT_SQL, slots);
+            jdbcTemplate.update("UPDATE scores SET balance = 0, slot_count = ? WHERE id = ?", slotCount, scoreId);
+        });
+        log.info("Счёт {} разделён на {} слотов", scoreNumber, slotCount);
+        refresh();
+    }
+
+    /**
+     * Сливает слоты счёта обратно в scores.balance
+     */
+    public void merge(String scoreNumber) {
+        transactionTemplate.executeWithoutResult(status -> mergeLocked(scoreNumber));
+        log.info("Слоты счёта {} слиты в один баланс", scoreNumber);
+        refresh();
+    }
+
+    /**
+     * Блокирует все слоты счёта и возвращает их сумму. Вызывается внутри транзакции перед списанием
+     */
+    public long lockTotal(long scoreId) {
+        long total = 0;
+        for (Slot slot : lockSlots(scoreId)) {
+            total += slot.balance();
+        }
+        return total;
+    }
+
+    /**
+     * Зачисление в случайный слот
+     */
+    public void credit(long scoreId, int slotCount, long amount) {
+        int slot = ThreadLocalRandom.current().nextInt(slotCount);
+        jdbcTemplate.update(CREDIT_SLOT_SQL, amount, scoreId, slot);
+    }
+
+    /**
+     * Списание со слотов по порядку, пока сумма не будет набрана.
+     * Достаточность средств проверяется вызывающим кодом
+     */
+    public void debit(long scoreId, long amount) {
+        long left = amount;
+        List<Object[]> updates = new ArrayList<>();
+        for (Slot slot : lockSlots(scoreId)) {
+            if (left == 0) {
+                break;
+            }
+            long take = Math.min(left, slot.balance());
+            if (take > 0) {
+                updates.add(new Object[]{-take, scoreId, slot.slot()});
+                left -= take;
+            }
+        }
+        if (left > 0) {
+            throw new IllegalStateException("Недостаточно средств в слотах счёта " + scoreId);
+        }
+        jdbcTemplate.batchUpdate(CREDIT_SLOT_SQL, updates);
+    }
+
+    private List<Slot> lockSlots(long scoreId) {
+        return jdbcTemplate.query(LOCK_SLOTS_SQL,
+                (rs, rowNum) -> new Slot(rs.getInt("slot"), rs.getLong("balance")),
+                scoreId);
+    }
+
+    /**
+     * Сливает слоты в scores.balance внутри текущей транзакции и возвращает id счёта
+     */
+    private long mergeLocked(String scoreNumber) {
+        List<Long> ids = jdbcTemplate.query(LOCK_SCORE_SQL, (rs, rowNum) -> rs.getLong("id"), scoreNumber);
+        if (ids.isEmpty()) {
+            throw new NotFoundException("Счёт не найден");
+        }
+        long scoreId = ids.get(0);
+        long total = lockTotal(scoreId);
+        jdbcTemplate.update("UPDATE scores SET balance = balance + ?, slot_count = 1 WHERE id = ?", total, scoreId);
+        jdbcTemplate.update("DELETE FROM score_slots WHERE score_id = ?", scoreId);
+        return scoreId;
+    }
+}
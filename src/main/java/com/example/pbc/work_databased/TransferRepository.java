@@ -1,41 +1,730 @@
 package com.example.pbc.work_databased;
 
+import com.example.pbc.model.Score;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.model.TransferRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class TransferRepository {
 
+    private static final Logger log = LoggerFactory.getLogger(TransferRepository.class);
+
+    static final String SCORE_COLUMNS = "id, user_id, score_number, balance, is_active, slot_count, currency_code";
+    static final String LOCK_SCORES_SQL =
+            "SELECT " + SCORE_COLUMNS + " FROM scores WHERE score_number IN (?, ?) FOR UPDATE";
+    static final String MOVE_BALANCE_SQL =
+            "UPDATE scores SET balance = CASE WHEN id = ? THEN balance - ? ELSE balance + ? END WHERE id IN (?, ?)";
+    // amount — списание в валюте отправителя, credit_amount — зачисление в валюте получателя по курсу fx_rate
+    static final String INSERT_TRANSFER_SQL =
+            "INSERT INTO transfers (transfer_uuid, from_score_id, to_score_id, amount, currency_code, credit_amount, fx_rate) VALUES (?, ?, ?, ?, ?, ?, ?)";
+    static final String ADD_BALANCE_SQL =
+            "UPDATE scores SET balance = balance + ? WHERE id = ?";
+    // Две проводки перевода одной вставкой: списание (отрицательная сумма) и зачисление
+    static final String INSERT_POSTINGS_SQL =
+            "INSERT INTO postings (transfer_uuid, score_id, amount) VALUES (?, ?, ?), (?, ?, ?)";
+    // Событие изменения баланса для рассылки владельцу счёта; пишется в транзакции изменения баланса
+    static final String INSERT_OUTBOX_SQL =
+            "INSERT INTO outbox_events (score_id, user_id, amount) VALUES (?, ?, ?)";
+    static final String INSERT_OUTBOX_PAIR_SQL =
+            "INSERT INTO outbox_events (score_id, user_id, amount) VALUES (?, ?, ?), (?, ?, ?)";
+
+    static final String INSERT_PENDING_SQL = """
+            INSERT INTO transfers (transfer_uuid, from_score_id, to_score_id, amount, currency_code, status)
+            SELECT ?, f.id, t.id, ?, f.currency_code, 'PENDING'
+            FROM scores f JOIN scores t ON t.score_number = ?
+            WHERE f.score_number = ?
+            """;
+    static final String CLAIM_PENDING_SQL =
+            "SELECT id, transfer_uuid, from_score_id, to_score_id, amount FROM transfers WHERE status = 'PENDING' ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+    static final String COMPLETE_TRANSFER_SQL =
+            "UPDATE transfers SET status = ?, credit_amount = ?, fx_rate = ?, completed_at = NOW() WHERE id = ?";
+    static final String FIND_BY_UUID_SQL = """
+            SELECT t.id, t.transfer_uuid, f.score_number AS from_score_number, s.score_number AS to_score_number,
+                   t.amount, t.currency_code, t.credit_amount, s.currency_code AS credit_currency_code, t.fx_rate,
+                   t.status, t.created_at, t.completed_at
+            FROM transfers t
+            JOIN scores f ON f.id = t.from_score_id
+            JOIN scores s ON s.id = t.to_score_id
+            WHERE t.transfer_uuid = ?
+            """;
+
+    // Ветка истории по одному направлению; курсор (created_at, id) раскрыт в условие,
+    // чтобы MySQL использовал диапазон по индексу (score_id, created_at, id)
+    private static final String HISTORY_BRANCH_SQL = """
+            SELECT t.id, t.transfer_uuid, f.score_number AS from_score_number, s.score_number AS to_score_number,
+                   t.amount, t.currency_code, t.credit_amount, s.currency_code AS credit_currency_code, t.fx_rate,
+                   t.status, t.created_at, t.completed_at
+            FROM transfers t
+            JOIN scores f ON f.id = t.from_score_id
+            JOIN scores s ON s.id = t.to_score_id
+            WHERE t.%s = (SELECT id FROM scores WHERE score_number = ?)%s
+            ORDER BY t.created_at DESC, t.id DESC
+            LIMIT ?
+            """;
+    private static final String HISTORY_CURSOR_CONDITION =
+            " AND (t.created_at < ? OR (t.created_at = ? AND t.id < ?))";
+    static final String HISTORY_FIRST_PAGE_SQL = historySql("");
+    static final String HISTORY_NEXT_PAGE_SQL = historySql(HISTORY_CURSOR_CONDITION);
+
+    // Ветка страницы выписки по одному направлению в хронологическом порядке. Каждая ветка
+    // читается по индексу (score_id, created_at, id) и останавливается на LIMIT, поэтому внешняя
+    // сортировка работает не больше чем с двумя страницами, а не со всем периодом
+    private static final String STATEMENT_BRANCH_SQL = """
+            SELECT t.id, t.transfer_uuid, f.score_number AS from_score_number, s.score_number AS to_score_number,
+                   t.amount, t.currency_code, t.credit_amount, s.currency_code AS credit_currency_code, t.fx_rate,
+                   t.status, t.created_at, t.completed_at
+            FROM transfers t
+            JOIN scores f ON f.id = t.from_score_id
+            JOIN scores s ON s.id = t.to_score_id
+            WHERE t.%s = (SELECT id FROM scores WHERE score_number = ?)
+              AND (t.created_at > ? OR (t.created_at = ? AND t.id > ?)) AND t.created_at < ?
+            ORDER BY t.created_at, t.id
+            LIMIT ?
+            """;
+    static final String STATEMENT_PAGE_SQL = "SELECT * FROM ((" + STATEMENT_BRANCH_SQL.formatted("from_score_id")
+            + ") UNION ALL (" + STATEMENT_BRANCH_SQL.formatted("to_score_id")
+            + ")) h ORDER BY h.created_at, h.id LIMIT ?";
+
+    // Число переводов в одной странице выписки
+    static final int STATEMENT_PAGE_SIZE = 1_000;
+
+    // Максимальное число переводов, обрабатываемых в одной транзакции пакета
+    static final int BATCH_CHUNK_SIZE = 500;
+
+    private static final RowMapper<Score> SCORE_ROW_MAPPER = (rs, rowNum) -> {
+        Score score = new Score(
+                rs.getLong("id"),
+                rs.getLong("user_id"),
+                rs.getString("score_number"),
+                rs.getLong("balance"),
+                rs.getBoolean("is_active")
+        );
+        score.setSlotCount(rs.getInt("slot_count"));
+        score.setCurrencyCode(rs.getString("currency_code"));
+        return score;
+    };
+
+    private static final RowMapper<TransferRecord> TRANSFER_RECORD_ROW_MAPPER = (rs, rowNum) -> new TransferRecord(
+            rs.getLong("id"),
+            rs.getString("transfer_uuid"),
+            rs.getString("from_score_number"),
+            rs.getString("to_score_number"),
+            rs.getLong("amount"),
+            rs.getString("currency_code"),
+            rs.getObject("credit_amount", Long.class),
+            rs.getString("credit_currency_code"),
+            rs.getBigDecimal("fx_rate"),
+            rs.getString("status"),
+            toLocalDateTime(rs.getTimestamp("created_at")),
+            toLocalDateTime(rs.getTimestamp("completed_at"))
+    );
+
+    // Ожидающий перевод, забранный воркером
+    private record PendingTransfer(long id, String transferUuid, long fromScoreId, long toScoreId, long amount) {
+    }
+
     private final JdbcTemplate jdbcTemplate;
-    private final ScoreRepository scoreRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ScoreSlots scoreSlots;
+    private final FxRates fxRates;
+    private final ScoreCache scoreCache;
+    private final LedgerWriter ledgerWriter;
 
-    public TransferRepository(JdbcTemplate jdbcTemplate, ScoreRepository scoreRepository) {
+    public TransferRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ScoreSlots scoreSlots,
+                              FxRates fxRates, ScoreCache scoreCache) {
         this.jdbcTemplate = jdbcTemplate;
-        this.scoreRepository = scoreRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.scoreSlots = scoreSlots;
+        this.fxRates = fxRates;
+        this.scoreCache = scoreCache;
+        this.ledgerWriter = null;
+    }
+
+    /**
+     * Репозиторий с групповой фиксацией одиночных переводов: группа до groupSize переводов
+     * или собранная за groupWindowMillis проводится одной транзакцией
+     */
+    public TransferRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, ScoreSlots scoreSlots,
+                              FxRates fxRates, ScoreCache scoreCache, int groupSize, long groupWindowMillis, int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.scoreSlots = scoreSlots;
+        this.fxRates = fxRates;
+        this.scoreCache = scoreCache;
+        this.ledgerWriter = new LedgerWriter(transactionTemplate, this::applyGroup, groupSize, groupWindowMillis, queueCapacity);
+    }
+
+    public void start() {
+        if (ledgerWriter != null) {
+            ledgerWriter.start();
+        }
     }
 
-    public void executeTransfer(String fromScoreNumber, String toScoreNumber, Long amount,Long idFrom,Long idTo) {
-        // Проверяем существование счёта
-        if (!scoreRepository.scoreExists(fromScoreNumber)) {
-            throw new IllegalArgumentException("Счёт отправителя не найден");
+    public void shutdown() {
+        if (ledgerWriter != null) {
+            ledgerWriter.shutdown();
         }
-        if (!scoreRepository.scoreExists(toScoreNumber)) {
-            throw new IllegalArgumentException("Счёт получателя не найден");
+    }
+
+    /**
+     * Проводятся ли одиночные переводы группами через LedgerWriter
+     */
+    public boolean isGroupCommit() {
+        return ledgerWriter != null && ledgerWriter.isRunning();
+    }
+
+    /**
+     * Разделён ли баланс счёта на слоты
+     */
+    public boolean isSlotted(String scoreNumber) {
+        return scoreSlots.isSlotted(scoreNumber);
+    }
+
+    /**
+     * Выполняет перевод в одной транзакции: блокирует оба счёта одним запросом,
+     * проверяет их состояние и баланс, переносит сумму, сохраняет историю и пару проводок.
+     * transferUuid — ключ идемпотентности; если перевод с ним уже сохранён,
+     * уникальный индекс откатывает транзакцию и возвращается DUPLICATE.
+     * При включённой групповой фиксации перевод проводится в составе группы через LedgerWriter
+     */
+    public TransferOutcome executeTransfer(String fromScoreNumber, String toScoreNumber, Long amount, String transferUuid) {
+        String uuid = transferUuid != null ? transferUuid : UUID.randomUUID().toString();
+        try {
+            if (ledgerWriter != null && ledgerWriter.isRunning()) {
+                return ledgerWriter.write(new LedgerEntry(fromScoreNumber, toScoreNumber, amount, uuid));
+            }
+            return doExecuteTransfer(fromScoreNumber, toScoreNumber, amount, uuid);
+        } catch (DuplicateKeyException ex) {
+            log.info("Перевод с ключом {} уже выполнен, повтор отклонён", uuid);
+            return TransferOutcome.DUPLICATE;
         }
+    }
+
+    private TransferOutcome doExecuteTransfer(String fromScoreNumber, String toScoreNumber, Long amount, String uuid) {
+        return transactionTemplate.execute(status -> {
+            // Блокируем оба счёта одним запросом; счета со слотами блокируются отдельно в разделяемом режиме
+            List<Score> locked = scoreSlots.isSlotted(fromScoreNumber) || scoreSlots.isSlotted(toScoreNumber)
+                    ? lockByNumbers(List.of(fromScoreNumber, toScoreNumber))
+                    : jdbcTemplate.query(LOCK_SCORES_SQL, SCORE_ROW_MAPPER, fromScoreNumber, toScoreNumber);
+
+            Score from = null;
+            Score to = null;
+            for (Score score : locked) {
+                if (fromScoreNumber.equals(score.getScoreNumber())) {
+                    from = score;
+                } else if (toScoreNumber.equals(score.getScoreNumber())) {
+                    to = score;
+                }
+            }
 
-        // Обновляем балансы
-        jdbcTemplate.update("UPDATE scores SET balance = balance - ? WHERE score_number = ?",
-                amount, fromScoreNumber);
+            long available = from == null ? 0 : from.getBalance();
+            if (from != null && from.getSlotCount() > 1) {
+                available += scoreSlots.lockTotal(from.getId());
+            }
+            TransferOutcome outcome = checkOutcome(from, to, available, amount);
+            FxRates.Conversion conversion = outcome == TransferOutcome.SUCCESS ? convert(from, to, amount) : null;
+            if (outcome == TransferOutcome.SUCCESS && conversion == null) {
+                outcome = TransferOutcome.FX_RATE_UNAVAILABLE;
+            }
+            if (outcome != TransferOutcome.SUCCESS) {
+                log.warn("Перевод {} -> {} отклонён: {}", fromScoreNumber, toScoreNumber, outcome);
+                return outcome;
+            }
+            long credit = conversion.creditAmount();
 
-        jdbcTemplate.update("UPDATE scores SET balance = balance + ? WHERE score_number = ?",
-                amount, toScoreNumber);
-        // Сгенерим UUID
-        String uuid = UUID.randomUUID().toString();
+            if (from.getSlotCount() > 1 || to.getSlotCount() > 1) {
+                applyBalanceDeltas(Map.of(from.getId(), -amount, to.getId(), credit), Map.of(from.getId(), from, to.getId(), to));
+            } else {
+                // Списание и зачисление одним запросом
+                jdbcTemplate.update(MOVE_BALANCE_SQL, from.getId(), amount, credit, from.getId(), to.getId());
+                jdbcTemplate.update(INSERT_OUTBOX_PAIR_SQL,
+                        from.getId(), from.getUserId(), -amount, to.getId(), to.getUserId(), credit);
+                scoreCache.invalidateAfterCompletion(List.of(from, to));
+            }
 
-        // Сохраняем историю перевода
-        jdbcTemplate.update("INSERT INTO transfers (transfer_uuid, from_score_id, to_score_id, amount) VALUES (?, ?, ?, ?)",
-                uuid,idFrom, idTo, amount);
+            // Сохраняем историю перевода с применённым курсом и его проводки в журнале
+            jdbcTemplate.update(INSERT_TRANSFER_SQL, uuid, from.getId(), to.getId(), amount,
+                    from.getCurrencyCode(), credit, conversion.rate());
+            jdbcTemplate.update(INSERT_POSTINGS_SQL, uuid, from.getId(), -amount, uuid, to.getId(), credit);
+
+            return TransferOutcome.SUCCESS;
+        });
     }
+
+    /**
+     * Выполняет пакет переводов. Пакет делится на части по BATCH_CHUNK_SIZE, в каждой части
+     * счета блокируются одним запросом, а изменения балансов и история пишутся пакетными запросами.
+     * В режиме allOrNothing весь пакет выполняется в одной транзакции и откатывается при первой ошибке
+     */
+    public List<TransferOutcome> executeBatch(List<Transfer> transfers, boolean allOrNothing) {
+        List<List<Transfer>> chunks = new ArrayList<>();
+        for (int i = 0; i < transfers.size(); i += BATCH_CHUNK_SIZE) {
+            chunks.add(transfers.subList(i, Math.min(i + BATCH_CHUNK_SIZE, transfers.size())));
+        }
+
+        List<TransferOutcome> outcomes = new ArrayList<>(transfers.size());
+        if (!allOrNothing) {
+            // Каждая часть — отдельная транзакция, ошибочные переводы просто пропускаются
+            for (List<Transfer> chunk : chunks) {
+                outcomes.addAll(transactionTemplate.execute(status -> applyChunk(chunk, null, false)));
+            }
+            return outcomes;
+        }
+
+        return transactionTemplate.execute(status -> {
+            boolean failed = false;
+            for (List<Transfer> chunk : chunks) {
+                if (failed) {
+                    outcomes.addAll(Collections.nCopies(chunk.size(), TransferOutcome.ROLLED_BACK));
+                    continue;
+                }
+                List<TransferOutcome> chunkOutcomes = applyChunk(chunk, null, true);
+                failed = chunkOutcomes.stream().anyMatch(o -> o != TransferOutcome.SUCCESS);
+                outcomes.addAll(chunkOutcomes);
+            }
+            if (!failed) {
+                return outcomes;
+            }
+            status.setRollbackOnly();
+            log.warn("Пакет из {} переводов откатан", transfers.size());
+            List<TransferOutcome> rolledBack = new ArrayList<>(outcomes.size());
+            for (TransferOutcome outcome : outcomes) {
+                rolledBack.add(outcome == TransferOutcome.SUCCESS ? TransferOutcome.ROLLED_BACK : outcome);
+            }
+            return rolledBack;
+        });
+    }
+
+    /**
+     * Номера из списка, для которых есть счёт. Запрос без блокировок: проверка номеров
+     * до транзакции не даёт FOR UPDATE ставить блокировки промежутков на несуществующие ключи
+     */
+    public Set<String> findExistingNumbers(Collection<String> scoreNumbers) {
+        if (scoreNumbers.isEmpty()) {
+            return Set.of();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(scoreNumbers.size(), "?"));
+        Set<String> existing = new HashSet<>();
+        jdbcTemplate.query("SELECT score_number FROM scores WHERE score_number IN (" + placeholders + ")",
+                (RowCallbackHandler) rs -> existing.add(rs.getString("score_number")), scoreNumbers.toArray());
+        return existing;
+    }
+
+    /**
+     * Применяет часть импорта с заданными ключами переводов. afterApply вызывается в той же транзакции
+     * с результатами переводов, чтобы контрольная точка импорта фиксировалась вместе с ними
+     */
+    public List<TransferOutcome> executeImportChunk(List<Transfer> chunk, List<String> uuids,
+                                                    Consumer<List<TransferOutcome>> afterApply) {
+        return transactionTemplate.execute(status -> {
+            List<TransferOutcome> outcomes = chunk.isEmpty() ? List.of() : applyChunk(chunk, uuids, false);
+            afterApply.accept(outcomes);
+            return outcomes;
+        });
+    }
+
+    /**
+     * Проводит группу одиночных переводов внутри текущей транзакции LedgerWriter
+     */
+    private List<TransferOutcome> applyGroup(List<LedgerEntry> group) {
+        List<Transfer> transfers = new ArrayList<>(group.size());
+        List<String> uuids = new ArrayList<>(group.size());
+        for (LedgerEntry entry : group) {
+            transfers.add(new Transfer(entry.fromScoreNumber(), entry.toScoreNumber(), entry.amount()));
+            uuids.add(entry.transferUuid());
+        }
+        return applyChunk(transfers, uuids, false);
+    }
+
+    /**
+     * Применяет часть пакета внутри текущей транзакции.
+     * uuids — ключи переводов по позициям; null, если ключи генерируются
+     */
+    private List<TransferOutcome> applyChunk(List<Transfer> chunk, List<String> uuids, boolean stopOnFailure) {
+        Set<String> scoreNumbers = new LinkedHashSet<>();
+        for (Transfer transfer : chunk) {
+            scoreNumbers.add(transfer.getFromScoreNumber());
+            scoreNumbers.add(transfer.getToScoreNumber());
+        }
+
+        // Блокируем все счета части одним запросом
+        List<Score> locked = lockByNumbers(scoreNumbers);
+
+        Map<String, Score> byNumber = new HashMap<>();
+        Map<Long, Score> byId = new HashMap<>();
+        Map<Long, Long> balances = new HashMap<>();
+        for (Score score : locked) {
+            byNumber.put(score.getScoreNumber(), score);
+            byId.put(score.getId(), score);
+            balances.put(score.getId(), score.getBalance());
+        }
+        Set<Long> slotsLocked = new HashSet<>();
+
+        // Проводим переводы по текущим балансам в памяти
+        List<TransferOutcome> outcomes = new ArrayList<>(chunk.size());
+        Map<Long, Long> deltas = new TreeMap<>();
+        List<Object[]> history = new ArrayList<>();
+        List<Object[]> postings = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            Transfer transfer = chunk.get(i);
+            Score from = byNumber.get(transfer.getFromScoreNumber());
+            Score to = byNumber.get(transfer.getToScoreNumber());
+            long amount = transfer.getAmount();
+
+            TransferOutcome outcome = checkOutcome(from, to, availableBalance(from, balances, slotsLocked), amount);
+            FxRates.Conversion conversion = outcome == TransferOutcome.SUCCESS ? convert(from, to, amount) : null;
+            if (outcome == TransferOutcome.SUCCESS && conversion == null) {
+                outcome = TransferOutcome.FX_RATE_UNAVAILABLE;
+            }
+            outcomes.add(outcome);
+            if (outcome != TransferOutcome.SUCCESS) {
+                if (stopOnFailure) {
+                    // Остальные переводы части не применяются
+                    outcomes.addAll(Collections.nCopies(chunk.size() - outcomes.size(), TransferOutcome.ROLLED_BACK));
+                    return outcomes;
+                }
+                continue;
+            }
+
+            long credit = conversion.creditAmount();
+            balances.merge(from.getId(), -amount, Long::sum);
+            balances.merge(to.getId(), credit, Long::sum);
+            deltas.merge(from.getId(), -amount, Long::sum);
+            deltas.merge(to.getId(), credit, Long::sum);
+            String uuid = uuids != null ? uuids.get(i) : UUID.randomUUID().toString();
+            history.add(new Object[]{uuid, from.getId(), to.getId(), amount, from.getCurrencyCode(), credit, conversion.rate()});
+            postings.add(postingPair(uuid, from.getId(), to.getId(), amount, credit));
+        }
+
+        // Одно изменение баланса на счёт, пакетная вставка истории и проводок
+        applyBalanceDeltas(deltas, byId);
+        if (!history.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TRANSFER_SQL, history);
+            jdbcTemplate.batchUpdate(INSERT_POSTINGS_SQL, postings);
+        }
+        return outcomes;
+    }
+
+    /**
+     * Записывает перевод в статусе PENDING, разрешая номера счетов в id тем же запросом.
+     * SUCCESS — перевод записан, FROM_NOT_FOUND — не существует один из счетов,
+     * DUPLICATE — перевод с этим transferUuid уже есть
+     */
+    public TransferOutcome insertPending(String fromScoreNumber, String toScoreNumber, Long amount, String transferUuid) {
+        try {
+            int rows = jdbcTemplate.update(INSERT_PENDING_SQL, transferUuid, amount, toScoreNumber, fromScoreNumber);
+            return rows > 0 ? TransferOutcome.SUCCESS : TransferOutcome.FROM_NOT_FOUND;
+        } catch (DuplicateKeyException ex) {
+            log.info("Перевод с ключом {} уже принят", transferUuid);
+            return TransferOutcome.DUPLICATE;
+        }
+    }
+
+    /**
+     * Забирает до limit ожидающих переводов и проводит их в одной транзакции.
+     * SKIP LOCKED позволяет нескольким воркерам разбирать очередь параллельно.
+     * Возвращает число обработанных переводов
+     */
+    public int processPending(int limit) {
+        Integer processed = transactionTemplate.execute(status -> {
+            List<PendingTransfer> pending = jdbcTemplate.query(CLAIM_PENDING_SQL,
+                    (rs, rowNum) -> new PendingTransfer(
+                            rs.getLong("id"),
+                            rs.getString("transfer_uuid"),
+                            rs.getLong("from_score_id"),
+                            rs.getLong("to_score_id"),
+                            rs.getLong("amount")),
+                    limit);
+            if (pending.isEmpty()) {
+                return 0;
+            }
+
+            Set<Long> scoreIds = new TreeSet<>();
+            for (PendingTransfer transfer : pending) {
+                scoreIds.add(transfer.fromScoreId());
+                scoreIds.add(transfer.toScoreId());
+            }
+            List<Score> locked = lockByIds(scoreIds);
+
+            Map<Long, Score> byId = new HashMap<>();
+            Map<Long, Long> balances = new HashMap<>();
+            for (Score score : locked) {
+                byId.put(score.getId(), score);
+                balances.put(score.getId(), score.getBalance());
+            }
+            Set<Long> slotsLocked = new HashSet<>();
+
+            Map<Long, Long> deltas = new TreeMap<>();
+            List<Object[]> statuses = new ArrayList<>(pending.size());
+            List<Object[]> postings = new ArrayList<>(pending.size());
+            for (PendingTransfer transfer : pending) {
+                Score from = byId.get(transfer.fromScoreId());
+                Score to = byId.get(transfer.toScoreId());
+                TransferOutcome outcome = checkOutcome(from, to,
+                        availableBalance(from, balances, slotsLocked), transfer.amount());
+                FxRates.Conversion conversion = outcome == TransferOutcome.SUCCESS
+                        ? convert(from, to, transfer.amount()) : null;
+                if (outcome == TransferOutcome.SUCCESS && conversion == null) {
+                    outcome = TransferOutcome.FX_RATE_UNAVAILABLE;
+                }
+                if (outcome != TransferOutcome.SUCCESS) {
+                    log.warn("Отложенный перевод {} отклонён: {}", transfer.id(), outcome);
+                    statuses.add(new Object[]{"FAILED", null, null, transfer.id()});
+                    continue;
+                }
+                long credit = conversion.creditAmount();
+                balances.merge(from.getId(), -transfer.amount(), Long::sum);
+                balances.merge(to.getId(), credit, Long::sum);
+                deltas.merge(from.getId(), -transfer.amount(), Long::sum);
+                deltas.merge(to.getId(), credit, Long::sum);
+                statuses.add(new Object[]{"SUCCESS", credit, conversion.rate(), transfer.id()});
+                postings.add(postingPair(transfer.transferUuid(), from.getId(), to.getId(), transfer.amount(), credit));
+            }
+
+            applyBalanceDeltas(deltas, byId);
+            jdbcTemplate.batchUpdate(COMPLETE_TRANSFER_SQL, statuses);
+            if (!postings.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_POSTINGS_SQL, postings);
+            }
+            return pending.size();
+        });
+        return processed == null ? 0 : processed;
+    }
+
+    /**
+     * История переводов счёта (исходящие и входящие) от новых к старым.
+     * Страница начинается строго после курсора (beforeCreatedAt, beforeId); без курсора — первая страница.
+     * Каждое направление читается отдельно по своему индексу, поэтому время не зависит от глубины страницы
+     */
+    public List<TransferRecord> findHistory(String scoreNumber, LocalDateTime beforeCreatedAt, Long beforeId, int limit) {
+        if (beforeCreatedAt == null || beforeId == null) {
+            return jdbcTemplate.query(HISTORY_FIRST_PAGE_SQL, TRANSFER_RECORD_ROW_MAPPER,
+                    scoreNumber, limit, scoreNumber, limit, limit);
+        }
+        Timestamp before = Timestamp.valueOf(beforeCreatedAt);
+        return jdbcTemplate.query(HISTORY_NEXT_PAGE_SQL, TRANSFER_RECORD_ROW_MAPPER,
+                scoreNumber, before, before, beforeId, limit,
+                scoreNumber, before, before, beforeId, limit,
+                limit);
+    }
+
+    /**
+     * Передаёт переводы счёта за период [from, to) в consumer в хронологическом порядке.
+     * Период читается страницами по STATEMENT_PAGE_SIZE с курсором (created_at, id), как история,
+     * поэтому в памяти держится одна страница, а MySQL не сортирует весь период целиком
+     */
+    public void streamStatement(String scoreNumber, LocalDateTime from, LocalDateTime to, Consumer<TransferRecord> consumer) {
+        Timestamp toTs = Timestamp.valueOf(to);
+        // id > 0 на первой странице равносильно created_at >= from
+        Timestamp afterCreatedAt = Timestamp.valueOf(from);
+        long afterId = 0;
+        while (true) {
+            List<TransferRecord> page = jdbcTemplate.query(STATEMENT_PAGE_SQL, TRANSFER_RECORD_ROW_MAPPER,
+                    scoreNumber, afterCreatedAt, afterCreatedAt, afterId, toTs, STATEMENT_PAGE_SIZE,
+                    scoreNumber, afterCreatedAt, afterCreatedAt, afterId, toTs, STATEMENT_PAGE_SIZE,
+                    STATEMENT_PAGE_SIZE);
+            page.forEach(consumer);
+            if (page.size() < STATEMENT_PAGE_SIZE) {
+                return;
+            }
+            TransferRecord last = page.get(page.size() - 1);
+            afterCreatedAt = Timestamp.valueOf(last.getCreatedAt());
+            afterId = last.getId();
+        }
+    }
+
+    private static String historySql(String cursorCondition) {
+        return "SELECT * FROM ((" + HISTORY_BRANCH_SQL.formatted("from_score_id", cursorCondition)
+                + ") UNION ALL (" + HISTORY_BRANCH_SQL.formatted("to_score_id", cursorCondition)
+                + ")) h ORDER BY h.created_at DESC, h.id DESC LIMIT ?";
+    }
+
+    /**
+     * Поиск перевода по transfer_uuid
+     */
+    public Optional<TransferRecord> findByUuid(String transferUuid) {
+        List<TransferRecord> records = jdbcTemplate.query(FIND_BY_UUID_SQL, TRANSFER_RECORD_ROW_MAPPER, transferUuid);
+        return records.stream().findFirst();
+    }
+
+    /**
+     * Блокирует счета по номерам. Обычные счета блокируются FOR UPDATE одним запросом,
+     * счета со слотами — FOR SHARE, чтобы зачисления на них не ждали друг друга
+     */
+    private List<Score> lockByNumbers(Collection<String> scoreNumbers) {
+        List<String> exclusive = new ArrayList<>();
+        List<String> shared = new ArrayList<>();
+        for (String scoreNumber : scoreNumbers) {
+            (scoreSlots.isSlotted(scoreNumber) ? shared : exclusive).add(scoreNumber);
+        }
+        List<Score> locked = new ArrayList<>(scoreNumbers.size());
+        if (!exclusive.isEmpty()) {
+            locked.addAll(lockScores("score_number", exclusive, "FOR UPDATE"));
+        }
+        if (!shared.isEmpty()) {
+            locked.addAll(lockShared("score_number", shared, Score::getScoreNumber));
+        }
+        return locked;
+    }
+
+    private List<Score> lockByIds(Collection<Long> scoreIds) {
+        List<Long> exclusive = new ArrayList<>();
+        List<Long> shared = new ArrayList<>();
+        for (Long scoreId : scoreIds) {
+            (scoreSlots.isSlotted(scoreId) ? shared : exclusive).add(scoreId);
+        }
+        List<Score> locked = new ArrayList<>(scoreIds.size());
+        if (!exclusive.isEmpty()) {
+            locked.addAll(lockScores("id", exclusive, "FOR UPDATE"));
+        }
+        if (!shared.isEmpty()) {
+            locked.addAll(lockShared("id", shared, Score::getId));
+        }
+        return locked;
+    }
+
+    /**
+     * Блокирует счета со слотами FOR SHARE. Если счёт уже слит (slot_count = 1 в заблокированной строке),
+     * а список разделённых счетов ещё не обновлён, запись убирается из списка и строка сразу
+     * перезахватывается FOR UPDATE. Иначе UPDATE баланса позже повышает S до X, и два таких зачисления
+     * взаимно блокируются. Одновременный перезахват тоже может закончиться deadlock, но только один раз:
+     * повтор транзакции уже блокирует счёт FOR UPDATE
+     */
+    private List<Score> lockShared(String keyColumn, List<?> keys, Function<Score, Object> keyOf) {
+        List<Score> locked = new ArrayList<>(keys.size());
+        List<Object> merged = new ArrayList<>();
+        for (Score score : lockScores(keyColumn, keys, "FOR SHARE")) {
+            if (score.getSlotCount() > 1) {
+                locked.add(score);
+            } else {
+                scoreSlots.forget(score.getId(), score.getScoreNumber());
+                merged.add(keyOf.apply(score));
+            }
+        }
+        if (!merged.isEmpty()) {
+            log.info("Счета {} уже не разделены на слоты, блокирую FOR UPDATE", merged);
+            locked.addAll(lockScores(keyColumn, merged, "FOR UPDATE"));
+        }
+        return locked;
+    }
+
+    private List<Score> lockScores(String keyColumn, List<?> keys, String lockMode) {
+        String placeholders = String.join(", ", Collections.nCopies(keys.size(), "?"));
+        return jdbcTemplate.query(
+                "SELECT " + SCORE_COLUMNS + " FROM scores WHERE " + keyColumn + " IN (" + placeholders + ") ORDER BY id " + lockMode,
+                SCORE_ROW_MAPPER, keys.toArray());
+    }
+
+    /**
+     * Доступный остаток отправителя; для счёта со слотами при первом списании блокируются все слоты
+     */
+    private long availableBalance(Score from, Map<Long, Long> balances, Set<Long> slotsLocked) {
+        if (from == null) {
+            return 0;
+        }
+        if (from.getSlotCount() > 1 && slotsLocked.add(from.getId())) {
+            balances.merge(from.getId(), scoreSlots.lockTotal(from.getId()), Long::sum);
+        }
+        return balances.get(from.getId());
+    }
+
+    /**
+     * Одно изменение баланса на счёт пакетным запросом. Для счетов со слотами
+     * зачисление идёт в случайный слот, списание — со слотов по порядку.
+     * На каждое изменение в outbox_events добавляется событие для владельца счёта
+     */
+    private void applyBalanceDeltas(Map<Long, Long> deltas, Map<Long, Score> scores) {
+        List<Object[]> balanceUpdates = new ArrayList<>(deltas.size());
+        List<Object[]> events = new ArrayList<>(deltas.size());
+        List<Score> changed = new ArrayList<>(deltas.size());
+        for (Map.Entry<Long, Long> delta : new TreeMap<>(deltas).entrySet()) {
+            long value = delta.getValue();
+            if (value == 0) {
+                continue;
+            }
+            Score score = scores.get(delta.getKey());
+            if (score != null) {
+                events.add(new Object[]{score.getId(), score.getUserId(), value});
+                changed.add(score);
+            }
+            if (score != null && score.getSlotCount() > 1) {
+                if (value > 0) {
+                    scoreSlots.credit(score.getId(), score.getSlotCount(), value);
+                } else {
+                    scoreSlots.debit(score.getId(), -value);
+                }
+                continue;
+            }
+            balanceUpdates.add(new Object[]{value, delta.getKey()});
+        }
+        if (!balanceUpdates.isEmpty()) {
+            jdbcTemplate.batchUpdate(ADD_BALANCE_SQL, balanceUpdates);
+        }
+        if (!events.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_OUTBOX_SQL, events);
+        }
+        scoreCache.invalidateAfterCompletion(changed);
+    }
+
+    private static Object[] postingPair(String uuid, long fromScoreId, long toScoreId, long amount, long credit) {
+        return new Object[]{uuid, fromScoreId, -amount, uuid, toScoreId, credit};
+    }
+
+    /**
+     * Сумма зачисления в валюте получателя по курсу из памяти; null — курса нет
+     */
+    private FxRates.Conversion convert(Score from, Score to, long amount) {
+        return fxRates.convert(from.getCurrencyCode(), to.getCurrencyCode(), amount).orElse(null);
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime();
+    }
+
+    private TransferOutcome checkOutcome(Score from, Score to, long available, long amount) {
+        if (from == null) {
+            return TransferOutcome.FROM_NOT_FOUND;
+        }
+        if (to == null) {
+            return TransferOutcome.TO_NOT_FOUND;
+        }
+        if (!from.getStatus()) {
+            return TransferOutcome.FROM_CLOSED;
+        }
+        if (!to.getStatus()) {
+            return TransferOutcome.TO_CLOSED;
+        }
+        if (available < amount) {
+            return TransferOutcome.INSUFFICIENT_FUNDS;
+        }
+        return TransferOutcome.SUCCESS;
+    }
+
     /**
      * Проверяет, принадлежит ли счёт пользователю
      */
@@ -45,4 +734,4 @@ public class TransferRepository {
                 Integer.class, scoreNumber, userUuid);
         return count != null && count > 0;
     }
-}
\ No newline at end of file
+}
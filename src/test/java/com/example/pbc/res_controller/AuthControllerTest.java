@@ -74,7 +74,8 @@ public class AuthControllerTest {
     void testLoginSuccess() throws Exception {
         when(authService.login("user", "pass123")).thenReturn(true);
         when(authService.getUuid("user")).thenReturn("uuid-123");
-        when(jwtUtil.generateToken("uuid-123")).thenReturn("token-abc");
+        when(authService.getUserId("user")).thenReturn(42L);
+        when(jwtUtil.generateToken("uuid-123", 42L)).thenReturn("token-abc");
 
         String jsonRequest = """
         {
@@ -4,17 +4,22 @@ import com.example.pbc.config.TestSecurityConfig;
 import com.example.pbc.exception.BadRequestException;
 import com.example.pbc.model.Score;
 import com.example.pbc.rest_controller.ScoreController;
+import com.example.pbc.service.BalanceEventDispatcher;
 import com.example.pbc.service.ScoreService;
-import com.example.pbc.security.JwtUtil;
+import com.example.pbc.security.JwtPrincipal;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.*;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -31,7 +36,10 @@ class ScoreControllerTest {
     private ScoreService scoreService;
 
     @Mock
-    private JwtUtil jwtUtil;
+    private BalanceEventDispatcher balanceEventDispatcher;
+
+    // Данные токена, которые JwtFilter кладёт в SecurityContext
+    private final JwtPrincipal principal = new JwtPrincipal("user-uuid", 1L, Instant.now().plusSeconds(60), Map.of());
 
     @BeforeEach
     void setUp() {
@@ -42,57 +50,44 @@ class ScoreControllerTest {
 
     @Test
     void testOpenNewScore_success() {
-        String token = "Bearer valid-token";
-        String uuid = "user-uuid";
         Long userId = 1L;
         Score score = new Score(1L, userId, "ACC001", 100L, true);
 
-        when(jwtUtil.extractUuid(token)).thenReturn(uuid);
-        when(scoreService.getUserIdByUuid(uuid)).thenReturn(userId);
-
-        ResponseEntity<String> response = scoreController.openNewScore(token, score);
+        ResponseEntity<String> response = scoreController.openNewScore(principal, score);
 
         assertEquals(ResponseEntity.ok(score.getScoreNumber()), response);
-        verify(scoreService).openScore(userId, score.getBalance());
+        verify(scoreService).openScore(userId, score.getBalance(), "RUB");
     }
 
     @Test
     void testOpenNewScore_invalidBalance_throwsBadRequestException() {
-        String token = "Bearer valid-token";
         Score score = new Score(1L, 1L, "ACC001", -100L, true);
 
         assertThrows(BadRequestException.class, () -> {
-            scoreController.openNewScore(token, score);
+            scoreController.openNewScore(principal, score);
         });
     }
 
     @Test
-    void testOpenNewScore_invalidToken_throwsIllegalArgumentException() {
-        String invalidToken = "Bearer invalid";
-
-        doThrow(new IllegalArgumentException("Неверный токен")).when(jwtUtil).extractUuid(invalidToken);
-
+    void testOpenNewScore_withoutPrincipal_throwsIllegalArgumentException() {
         Score score = new Score(1L, 1L, "ACC001", 100L, true);
 
         assertThrows(IllegalArgumentException.class, () -> {
-            scoreController.openNewScore(invalidToken, score);
+            scoreController.openNewScore(null, score);
         });
+        verify(scoreService, never()).openScore(any(), any(), any());
     }
 
     // === listScores tests ===
 
     @Test
     void testListScores_success() {
-        String token = "Bearer valid-token";
-        String uuid = "user-uuid";
         Long userId = 1L;
         List<Score> scores = Arrays.asList(new Score(1L, userId, "ACC001", 100L, true), new Score(2L, userId, "ACC001", 100L, true));
 
-        when(jwtUtil.extractUuid(token)).thenReturn(uuid);
-        when(scoreService.getUserIdByUuid(uuid)).thenReturn(userId);
         when(scoreService.getScoresForUser(userId)).thenReturn(scores);
 
-        List<Score> result = scoreController.listScores(token);
+        List<Score> result = scoreController.listScores(principal);
 
         assertNotNull(result);
         assertEquals(2, result.size());
@@ -103,16 +98,10 @@ class ScoreControllerTest {
 
     @Test
     void testCloseScore_success() {
-        String token = "Bearer valid-token";
-        String uuid = "user-uuid";
         Long userId = 1L;
         Score score = new Score(1L, userId, "ACC001", 100L, true);
 
-
-        when(jwtUtil.extractUuid(token)).thenReturn(uuid);
-        when(scoreService.getUserIdByUuid(uuid)).thenReturn(userId);
-
-        ResponseEntity<String> response = scoreController.closeScore(token, score);
+        ResponseEntity<String> response = scoreController.closeScore(principal, score);
 
         assertEquals(ResponseEntity.ok("Счёт закрыт"), response);
         verify(scoreService).closeScore(score.getScoreNumber(), userId);
@@ -120,11 +109,60 @@ class ScoreControllerTest {
 
     @Test
     void testCloseScore_emptyScoreNumber_throwsBadRequestException() {
-        String token = "Bearer valid-token";
         Score score = new Score(0L, 0L, null, 100L, true);
 
         assertThrows(BadRequestException.class, () -> {
-            scoreController.closeScore(token, score);
+            scoreController.closeScore(principal, score);
         });
     }
-}
\ No newline at end of file
+
+    // === splitScore / mergeScore tests ===
+
+    @Test
+    void testSplitScore_success() {
+        Long userId = 1L;
+        Score score = new Score(1L, userId, "ACC001", 100L, true);
+
+        ResponseEntity<String> response = scoreController.splitScore(principal, 8, score);
+
+        assertEquals(ResponseEntity.ok("Баланс счёта разделён на 8 слотов"), response);
+        verify(scoreService).splitScore("ACC001", 8, userId);
+    }
+
+    @Test
+    void testMergeScore_success() {
+        Long userId = 1L;
+        Score score = new Score(1L, userId, "ACC001", 100L, true);
+
+        ResponseEntity<String> response = scoreController.mergeScore(principal, score);
+
+        assertEquals(ResponseEntity.ok("Слоты счёта слиты"), response);
+        verify(scoreService).mergeScore("ACC001", userId);
+    }
+
+    // === getBalanceAt tests ===
+
+    @Test
+    void testGetBalanceAt_success() {
+        Long userId = 1L;
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+        when(scoreService.getBalanceAt("ACC001", at, userId)).thenReturn(500L);
+
+        ResponseEntity<Long> response = scoreController.getBalanceAt(principal, "ACC001", at);
+
+        assertEquals(ResponseEntity.ok(500L), response);
+    }
+
+    // === streamBalances tests ===
+
+    @Test
+    void testStreamBalances_subscribes_current_user() {
+        Long userId = 1L;
+        SseEmitter emitter = new SseEmitter();
+
+        when(balanceEventDispatcher.subscribe(userId)).thenReturn(emitter);
+
+        assertSame(emitter, scoreController.streamBalances(principal));
+    }
+}
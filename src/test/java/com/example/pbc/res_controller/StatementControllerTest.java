@@ -0,0 +1,111 @@
+package com.example.pbc.res_controller;
+
+import com.example.pbc.config.TestSecurityConfig;
+import com.example.pbc.exception.ForbiddenException;
+import com.example.pbc.model.StatementFormat;
+import com.example.pbc.rest_controller.StatementController;
+import com.example.pbc.security.JwtPrincipal;
+import com.example.pbc.service.TransferService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(StatementController.class)
+@Import(TestSecurityConfig.class)
+@ActiveProfiles("test")
+public class StatementControllerTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private TransferService transferService;
+
+    private String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    private Long userId = 1L;
+
+    // Данные токена, которые JwtFilter кладёт в SecurityContext
+    private RequestPostProcessor asUser() {
+        JwtPrincipal principal = new JwtPrincipal(uuid, userId, Instant.now().plusSeconds(60), Map.of());
+        return authentication(new UsernamePasswordAuthenticationToken(principal, null, List.of()));
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        doAnswer(inv -> {
+            OutputStream out = inv.getArgument(4);
+            out.write("uuid-1,2025-03-01T12:00,OUT,456,100,SUCCESS\n".getBytes(StandardCharsets.UTF_8));
+            return null;
+        }).when(transferService).writeStatement(eq("123"), any(), any(), eq(StatementFormat.CSV), any());
+    }
+
+    @Test
+    void exportStatement_ShouldStreamCsv() throws Exception {
+        MvcResult started = mockMvc.perform(get("/transfers/statement")
+                        .with(asUser())
+                        .param("scoreNumber", "123")
+                        .param("format", "CSV"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Disposition", "attachment; filename=\"statement-123.csv\""))
+                .andExpect(content().string("uuid-1,2025-03-01T12:00,OUT,456,100,SUCCESS\n"));
+    }
+
+    @Test
+    void exportStatement_ShouldGzip_WhenRequested() throws Exception {
+        MvcResult started = mockMvc.perform(get("/transfers/statement")
+                        .with(asUser())
+                        .param("scoreNumber", "123")
+                        .param("format", "CSV")
+                        .param("gzip", "true"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        byte[] body = result.getResponse().getContentAsByteArray();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertEquals("uuid-1,2025-03-01T12:00,OUT,456,100,SUCCESS\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void exportStatement_ShouldReturnForbidden_WhenNotOwner() throws Exception {
+        doThrow(new ForbiddenException("Вы не являетесь владельцем счёта"))
+                .when(transferService).requireScoreOwner("123", userId);
+
+        mockMvc.perform(get("/transfers/statement")
+                        .with(asUser())
+                        .param("scoreNumber", "123"))
+                .andExpect(status().isForbidden());
+
+        verify(transferService, never()).writeStatement(anyString(), any(), any(), any(), any());
+    }
+}
@@ -2,26 +2,40 @@ package com.example.pbc.res_controller;
 
 
 import com.example.pbc.config.TestSecurityConfig;
+import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.ConflictException;
+import com.example.pbc.exception.ForbiddenException;
+import com.example.pbc.model.BatchMode;
+import com.example.pbc.model.ScoreLookup;
 import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferHistoryPage;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.model.TransferRecord;
+import com.example.pbc.model.TransferResult;
 import com.example.pbc.rest_controller.TransferController;
-import com.example.pbc.security.JwtUtil;
+import com.example.pbc.security.JwtPrincipal;
 import com.example.pbc.service.TransferService;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import io.jsonwebtoken.JwtException;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static org.mockito.Mockito.*;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -36,18 +50,16 @@ public class TransferControllerTest {
     @MockitoBean
     private TransferService transferService;
 
-    @MockitoBean
-    private JwtUtil jwtUtil;
-
     @Autowired
     private ObjectMapper objectMapper;
 
-    private String validToken = "Bearer valid-token";
     private String uuid = "123e4567-e89b-12d3-a456-426614174000";
+    private Long userId = 1L;
 
-    @BeforeEach
-    void setUp() {
-        when(jwtUtil.extractUuid("valid-token")).thenReturn(uuid);
+    // Данные токена, которые JwtFilter кладёт в SecurityContext
+    private RequestPostProcessor asUser() {
+        JwtPrincipal principal = new JwtPrincipal(uuid, userId, Instant.now().plusSeconds(60), Map.of());
+        return authentication(new UsernamePasswordAuthenticationToken(principal, null, List.of()));
     }
 
     // --- ТЕСТЫ ДЛЯ /perform ---
@@ -56,32 +68,165 @@ public class TransferControllerTest {
     void performTransfer_ShouldReturnOk_WhenSuccessful() throws Exception {
         Transfer transfer = new Transfer("123", "456", 100L);
 
-        doNothing().when(transferService).transfer("123", "456", 100L);
+        doNothing().when(transferService).transfer("123", "456", 100L, userId, null);
 
         mockMvc.perform(post("/transfers/perform")
-                        .header("Authorization", "valid-token")
+                        .with(asUser())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isOk())
                 .andExpect(content().string("Перевод выполнен успешно"));
 
-        verify(transferService, times(1)).transfer("123", "456", 100L);
+        verify(transferService, times(1)).transfer("123", "456", 100L, userId, null);
+    }
+
+    @Test
+    void performTransfer_ShouldPassIdempotencyKey() throws Exception {
+        Transfer transfer = new Transfer("123", "456", 100L);
+
+        mockMvc.perform(post("/transfers/perform")
+                        .with(asUser())
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transfer)))
+                .andExpect(status().isOk());
+
+        verify(transferService, times(1)).transfer("123", "456", 100L, userId, "key-1");
+    }
+
+    @Test
+    void performTransfer_ShouldReturnConflict_WhenIdempotencyKeyReusedWithOtherTransfer() throws Exception {
+        Transfer transfer = new Transfer("123", "456", 100L);
+
+        doThrow(new ConflictException("Ключ идемпотентности уже использован для другого перевода"))
+                .when(transferService).transfer("123", "456", 100L, userId, "key-1");
+
+        mockMvc.perform(post("/transfers/perform")
+                        .with(asUser())
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transfer)))
+                .andExpect(status().isConflict());
     }
 
     @Test
     void performTransfer_ShouldReturnInternalServerError_WhenExceptionOccurs() throws Exception {
         Transfer transfer = new Transfer("123", "456", 100L);
 
-        doThrow(new RuntimeException("Database error")).when(transferService).transfer("123", "456", 100L);
+        doThrow(new RuntimeException("Database error")).when(transferService).transfer("123", "456", 100L, userId, null);
 
         mockMvc.perform(post("/transfers/perform")
-                        .header("Authorization", "valid-token")
+                        .with(asUser())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isInternalServerError())
                 .andExpect(content().string("Произошла ошибка при выполнении перевода"));
     }
 
+    @Test
+    void performTransfer_ShouldReturnAccepted_WhenAsync() throws Exception {
+        Transfer transfer = new Transfer("123", "456", 100L);
+
+        when(transferService.submitTransfer("123", "456", 100L, userId, null)).thenReturn("transfer-uuid-1");
+
+        mockMvc.perform(post("/transfers/perform")
+                        .with(asUser())
+                        .param("async", "true")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transfer)))
+                .andExpect(status().isAccepted())
+                .andExpect(content().string("transfer-uuid-1"));
+
+        verify(transferService, never()).transfer(anyString(), anyString(), anyLong(), any(), any());
+    }
+
+    // --- ТЕСТЫ ДЛЯ /history ---
+
+    @Test
+    void getHistory_ShouldReturnPage() throws Exception {
+        TransferRecord record = new TransferRecord(1L, "transfer-uuid-1", "123", "456", 100L,
+                "SUCCESS", LocalDateTime.of(2025, 1, 1, 12, 0), LocalDateTime.of(2025, 1, 1, 12, 0));
+
+        when(transferService.getHistory("123", userId, null, 50))
+                .thenReturn(new TransferHistoryPage(List.of(record), "next-cursor"));
+
+        mockMvc.perform(get("/transfers/history")
+                        .with(asUser())
+                        .param("scoreNumber", "123"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items[0].transferUuid").value("transfer-uuid-1"))
+                .andExpect(jsonPath("$.nextCursor").value("next-cursor"));
+    }
+
+    @Test
+    void getHistory_ShouldReturnForbidden_WhenNotOwner() throws Exception {
+        when(transferService.getHistory("123", userId, null, 50))
+                .thenThrow(new ForbiddenException("Вы не являетесь владельцем счёта"));
+
+        mockMvc.perform(get("/transfers/history")
+                        .with(asUser())
+                        .param("scoreNumber", "123"))
+                .andExpect(status().isForbidden());
+    }
+
+    // --- ТЕСТЫ ДЛЯ /{transferUuid} ---
+
+    @Test
+    void getTransfer_ShouldReturnRecord_WhenFound() throws Exception {
+        TransferRecord record = new TransferRecord(1L, "transfer-uuid-1", "123", "456", 100L,
+                "PENDING", LocalDateTime.of(2025, 1, 1, 12, 0), null);
+
+        when(transferService.findTransfer("transfer-uuid-1", userId)).thenReturn(Optional.of(record));
+
+        mockMvc.perform(get("/transfers/transfer-uuid-1")
+                        .with(asUser()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("PENDING"))
+                .andExpect(jsonPath("$.amount").value(100));
+    }
+
+    @Test
+    void getTransfer_ShouldReturnNotFound_WhenMissing() throws Exception {
+        when(transferService.findTransfer("missing", userId)).thenReturn(Optional.empty());
+
+        mockMvc.perform(get("/transfers/missing")
+                        .with(asUser()))
+                .andExpect(status().isNotFound());
+    }
+
+    // --- ТЕСТЫ ДЛЯ /batch ---
+
+    @Test
+    void performBatch_ShouldReturnResultPerItem() throws Exception {
+        List<Transfer> transfers = List.of(new Transfer("123", "456", 100L), new Transfer("456", "789", 500L));
+
+        when(transferService.transferBatch(anyList(), eq(BatchMode.ALL_OR_NOTHING))).thenReturn(List.of(
+                new TransferResult(0, "123", "456", 100L, TransferOutcome.ROLLED_BACK),
+                new TransferResult(1, "456", "789", 500L, TransferOutcome.INSUFFICIENT_FUNDS)));
+
+        mockMvc.perform(post("/transfers/batch")
+                        .with(asUser())
+                        .param("mode", "ALL_OR_NOTHING")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transfers)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("ROLLED_BACK"))
+                .andExpect(jsonPath("$[1].outcome").value("INSUFFICIENT_FUNDS"));
+    }
+
+    @Test
+    void performBatch_ShouldReturnBadRequest_WhenEmpty() throws Exception {
+        when(transferService.transferBatch(anyList(), any()))
+                .thenThrow(new BadRequestException("Список переводов не может быть пустым"));
+
+        mockMvc.perform(post("/transfers/batch")
+                        .with(asUser())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Список переводов не может быть пустым"));
+    }
+
     // --- ТЕСТЫ ДЛЯ /check-score ---
 
     @Test
@@ -94,12 +239,11 @@ public class TransferControllerTest {
         result.put("amount", 100L);
         result.put("possible", true);
 
-        when(transferService.scoreExists("123")).thenReturn(true);
-        when(transferService.scoreExists("456")).thenReturn(true);
-        when(transferService.getBalance("123")).thenReturn(200L);
+        when(transferService.lookupScore("123")).thenReturn(Optional.of(new ScoreLookup(1L, 1L, 200L, true)));
+        when(transferService.lookupScore("456")).thenReturn(Optional.of(new ScoreLookup(2L, 2L, 0L, true)));
 
         mockMvc.perform(post("/transfers/check-score")
-                        .header("Authorization", "valid-token")
+                        .with(asUser())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isOk())
@@ -113,27 +257,40 @@ public class TransferControllerTest {
     void checkScore_ShouldReturnBadRequest_WhenFromScoreDoesNotExist() throws Exception {
         Transfer transfer = new Transfer("123", "456", 100L);
 
-        when(transferService.scoreExists("123")).thenReturn(false);
-        when(transferService.scoreExists("456")).thenReturn(true);
+        when(transferService.lookupScore("123")).thenReturn(Optional.empty());
+        when(transferService.lookupScore("456")).thenReturn(Optional.of(new ScoreLookup(2L, 2L, 0L, true)));
 
         mockMvc.perform(post("/transfers/check-score")
-                        .header("Authorization", "valid-token")
+                        .with(asUser())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isBadRequest())
                 .andExpect(jsonPath("$.error").value("Один из счетов не существует или вы не владелец счёта отправителя"));
     }
 
+    @Test
+    void checkScore_ShouldReturnBadRequest_WhenFromScoreIsClosed() throws Exception {
+        Transfer transfer = new Transfer("123", "456", 100L);
+
+        when(transferService.lookupScore("123")).thenReturn(Optional.of(new ScoreLookup(1L, 1L, 200L, false)));
+        when(transferService.lookupScore("456")).thenReturn(Optional.of(new ScoreLookup(2L, 2L, 0L, true)));
+
+        mockMvc.perform(post("/transfers/check-score")
+                        .with(asUser())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(transfer)))
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     void checkScore_ShouldReturnBadRequest_WhenInsufficientFunds() throws Exception {
         Transfer transfer = new Transfer("123", "456", 200L);
 
-        when(transferService.scoreExists("123")).thenReturn(true);
-        when(transferService.scoreExists("456")).thenReturn(true);
-        when(transferService.getBalance("123")).thenReturn(100L);
+        when(transferService.lookupScore("123")).thenReturn(Optional.of(new ScoreLookup(1L, 1L, 100L, true)));
+        when(transferService.lookupScore("456")).thenReturn(Optional.of(new ScoreLookup(2L, 2L, 0L, true)));
 
         mockMvc.perform(post("/transfers/check-score")
-                        .header("Authorization", "valid-token")
+                        .with(asUser())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isBadRequest())
@@ -144,10 +301,7 @@ public class TransferControllerTest {
     void checkScore_ShouldReturnUnauthorized_WhenInvalidToken() throws Exception {
         Transfer transfer = new Transfer("123", "456", 100L);
 
-        doThrow(new JwtException("Invalid token")).when(jwtUtil).extractUuid(anyString());
-
         mockMvc.perform(post("/transfers/check-score")
-                        .header("Authorization", "invalid-token")
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(transfer)))
                 .andExpect(status().isUnauthorized())
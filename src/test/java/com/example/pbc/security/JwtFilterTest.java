@@ -0,0 +1,76 @@
+package com.example.pbc.security;
+
+import com.example.pbc.exception.NotFoundException;
+import com.example.pbc.service.ScoreService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class JwtFilterTest {
+
+    @Mock
+    private ScoreService scoreService;
+
+    private JwtUtil jwtUtil;
+    private JwtFilter jwtFilter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        jwtUtil = new JwtUtil(100, new SimpleMeterRegistry());
+        jwtFilter = new JwtFilter(jwtUtil, scoreService);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private Authentication filter(String token) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.addHeader("Authorization", "Bearer " + token);
+        jwtFilter.doFilter(request, new MockHttpServletResponse(), new MockFilterChain());
+        return SecurityContextHolder.getContext().getAuthentication();
+    }
+
+    @Test
+    void token_with_user_id_claim_is_authenticated_without_users_lookup() throws Exception {
+        Authentication authentication = filter(jwtUtil.generateToken("uuid-1", 42L));
+
+        JwtPrincipal principal = (JwtPrincipal) authentication.getPrincipal();
+        assertEquals(42L, principal.getUserId());
+        verifyNoInteractions(scoreService);
+    }
+
+    @Test
+    void legacy_token_gets_user_id_from_users_table() throws Exception {
+        when(scoreService.getUserIdByUuid("uuid-1")).thenReturn(7L);
+
+        Authentication authentication = filter(jwtUtil.generateToken("uuid-1", null));
+
+        assertEquals(7L, ((JwtPrincipal) authentication.getPrincipal()).getUserId());
+    }
+
+    @Test
+    void legacy_token_of_unknown_user_is_not_authenticated() throws Exception {
+        when(scoreService.getUserIdByUuid("uuid-1")).thenThrow(new NotFoundException("Пользователь не найден"));
+
+        assertNull(filter(jwtUtil.generateToken("uuid-1", null)));
+    }
+
+    @Test
+    void invalid_token_is_not_authenticated() throws Exception {
+        assertNull(filter("not-a-token"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.pbc.security;
+
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtUtilTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private JwtUtil jwtUtil;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        jwtUtil = new JwtUtil(2, meterRegistry);
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("pbc.jwt.cache.requests").tag("result", result).counter().count();
+    }
+
+    @Test
+    void parse_verifies_token_once_and_serves_repeats_from_cache() {
+        String token = jwtUtil.generateToken("uuid-1", 1L);
+
+        JwtPrincipal first = jwtUtil.parse("Bearer " + token);
+        JwtPrincipal second = jwtUtil.parse(token);
+
+        assertEquals("uuid-1", first.getUuid());
+        assertNotNull(first.getExpiresAt());
+        assertSame(first, second);
+        assertEquals(1.0, requests("hit"));
+        assertEquals(1.0, requests("miss"));
+        assertEquals(1, meterRegistry.get("pbc.jwt.verify").timer().count());
+    }
+
+    @Test
+    void parse_rejects_tampered_token_and_does_not_cache_it() {
+        String token = jwtUtil.generateToken("uuid-1", 1L);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertThrows(JwtException.class, () -> jwtUtil.parse(tampered));
+        assertThrows(JwtException.class, () -> jwtUtil.parse(tampered));
+
+        assertEquals(0, jwtUtil.cacheSize());
+        assertEquals(2.0, requests("miss"));
+    }
+
+    @Test
+    void cache_is_bounded_by_capacity() {
+        jwtUtil.parse(jwtUtil.generateToken("uuid-1", 1L));
+        jwtUtil.parse(jwtUtil.generateToken("uuid-2", 1L));
+        jwtUtil.parse(jwtUtil.generateToken("uuid-3", 1L));
+
+        assertEquals(2, jwtUtil.cacheSize());
+        assertEquals(2.0, meterRegistry.get("pbc.jwt.cache.size").gauge().value());
+    }
+
+    @Test
+    void full_cache_evicts_least_recently_used_token() {
+        String hot = jwtUtil.generateToken("uuid-1", 1L);
+        String cold = jwtUtil.generateToken("uuid-2", 1L);
+        jwtUtil.parse(hot);
+        jwtUtil.parse(cold);
+        jwtUtil.parse(hot);
+
+        jwtUtil.parse(jwtUtil.generateToken("uuid-3", 1L));
+        jwtUtil.parse(hot);
+        jwtUtil.parse(cold);
+
+        assertEquals(2.0, requests("hit"));
+        assertEquals(4.0, requests("miss"));
+    }
+
+    @Test
+    void parse_reads_user_id_claim_and_keeps_it_out_of_custom_claims() {
+        JwtPrincipal principal = jwtUtil.parse(jwtUtil.generateToken("uuid-1", 42L));
+
+        assertEquals(42L, principal.getUserId());
+        assertFalse(principal.getClaims().containsKey(JwtUtil.USER_ID_CLAIM));
+    }
+
+    @Test
+    void parse_leaves_user_id_empty_for_token_without_claim() {
+        assertNull(jwtUtil.parse(jwtUtil.generateToken("uuid-1", null)).getUserId());
+    }
+}
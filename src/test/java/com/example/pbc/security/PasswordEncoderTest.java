@@ -0,0 +1,64 @@
+package com.example.pbc.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordEncoderTest {
+
+    @Test
+    void calibrate_picks_highest_cost_within_budget() {
+        PasswordEncoder encoder = new PasswordEncoder(60_000, 4, 5, new SimpleMeterRegistry());
+
+        encoder.calibrate();
+
+        assertEquals(5, encoder.getCost());
+        assertEquals(5, PasswordEncoder.costOf(encoder.encode("pass123")));
+    }
+
+    @Test
+    void calibrate_keeps_min_cost_when_budget_is_exceeded() {
+        PasswordEncoder encoder = new PasswordEncoder(-1, 4, 6, new SimpleMeterRegistry());
+
+        encoder.calibrate();
+
+        assertEquals(4, encoder.getCost());
+    }
+
+    @Test
+    void matches_hash_with_other_cost_and_reports_rehash() {
+        PasswordEncoder old = new PasswordEncoder(-1, 4, 4, new SimpleMeterRegistry());
+        String oldHash = old.encode("pass123");
+        PasswordEncoder encoder = new PasswordEncoder(60_000, 5, 5, new SimpleMeterRegistry());
+        encoder.calibrate();
+
+        assertTrue(encoder.matches("pass123", oldHash));
+        assertTrue(encoder.needsRehash(oldHash));
+        assertFalse(encoder.needsRehash(encoder.encode("pass123")));
+    }
+
+    @Test
+    void hash_with_higher_cost_is_not_rehashed_down() {
+        PasswordEncoder stronger = new PasswordEncoder(-1, 6, 6, new SimpleMeterRegistry());
+        String strongerHash = stronger.encode("pass123");
+        PasswordEncoder encoder = new PasswordEncoder(60_000, 5, 5, new SimpleMeterRegistry());
+        encoder.calibrate();
+
+        assertTrue(encoder.matches("pass123", strongerHash));
+        assertFalse(encoder.needsRehash(strongerHash));
+    }
+
+    @Test
+    void costOf_parses_bcrypt_prefix() {
+        assertEquals(12, PasswordEncoder.costOf("$2a$12$abcdefghijklmnopqrstuv"));
+        assertEquals(-1, PasswordEncoder.costOf("plain"));
+        assertEquals(-1, PasswordEncoder.costOf(null));
+    }
+
+    @Test
+    void constructor_rejects_invalid_cost_range() {
+        assertThrows(IllegalArgumentException.class, () -> new PasswordEncoder(100, 3, 10, new SimpleMeterRegistry()));
+        assertThrows(IllegalArgumentException.class, () -> new PasswordEncoder(100, 12, 10, new SimpleMeterRegistry()));
+    }
+}
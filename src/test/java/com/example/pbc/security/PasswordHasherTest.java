@@ -0,0 +1,86 @@
+package com.example.pbc.security;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.exception.TooManyRequestsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PasswordHasherTest {
+
+    @Mock
+    private PasswordEncoder passwordEncoder;
+
+    private SimpleMeterRegistry meterRegistry;
+    private PasswordHasher passwordHasher;
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        meterRegistry = new SimpleMeterRegistry();
+        // Один поток и очередь на одну задачу
+        passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, 5_000, meterRegistry);
+        passwordHasher.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    void matches_runs_on_pool_and_returns_result() {
+        when(passwordEncoder.matches("pass123", "hash")).thenReturn(true);
+
+        assertTrue(passwordHasher.matches("pass123", "hash"));
+    }
+
+    @Test
+    void full_queue_is_rejected_immediately() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        when(passwordEncoder.encode("slow")).thenAnswer(inv -> {
+            started.countDown();
+            release.await();
+            return "hash";
+        });
+        CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> passwordHasher.encode("slow"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> passwordHasher.encode("slow"));
+        while (passwordHasher.queued() == 0) {
+            Thread.onSpinWait();
+        }
+
+        assertThrows(TooManyRequestsException.class, () -> passwordHasher.encode("slow"));
+        assertEquals(1.0, meterRegistry.get("pbc.auth.hashing.rejected").counter().count());
+
+        release.countDown();
+        assertEquals("hash", running.get(5, TimeUnit.SECONDS));
+        assertEquals("hash", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void task_exceeding_timeout_fails_with_service_unavailable() {
+        passwordHasher.shutdown();
+        passwordHasher = new PasswordHasher(passwordEncoder, 1, 1, 50, meterRegistry);
+        passwordHasher.start();
+        when(passwordEncoder.matches(anyString(), anyString())).thenAnswer(inv -> {
+            release.await();
+            return true;
+        });
+
+        assertThrows(ServiceUnavailableException.class, () -> passwordHasher.matches("pass123", "hash"));
+        assertEquals(1.0, meterRegistry.get("pbc.auth.hashing.timeouts").counter().count());
+    }
+}
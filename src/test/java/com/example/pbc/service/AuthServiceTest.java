@@ -1,10 +1,12 @@
 package com.example.pbc.service;
 
 
+import com.example.pbc.exception.TooManyRequestsException;
 import com.example.pbc.model.Data_user;
 import com.example.pbc.model.User;
 import com.example.pbc.work_databased.AuthRepository;
-import com.example.pbc.security.PasswordEncoder;
+import com.example.pbc.security.PasswordHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
@@ -21,14 +23,14 @@ class AuthServiceTest {
     private AuthRepository authRepository;
 
     @Mock
-    private PasswordEncoder passwordEncoder;
+    private PasswordHasher passwordHasher;
 
     private AuthService authService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        authService = new AuthService(authRepository, passwordEncoder);
+        authService = new AuthService(authRepository, passwordHasher, new SimpleMeterRegistry());
     }
 
     @Test
@@ -39,14 +41,14 @@ class AuthServiceTest {
         String uuid = "uuid-1234";
 
         when(authRepository.findByLogin(login)).thenReturn(Optional.empty());
-        when(passwordEncoder.encode(password)).thenReturn(encodedPassword);
+        when(passwordHasher.encode(password)).thenReturn(encodedPassword);
 
         // Вызываем метод регистрации
         assertDoesNotThrow(() -> authService.register(login, password, "Иван", "Иванов", "ivan@example.com", "+79001234567"));
 
         // Проверяем вызовы моков
         verify(authRepository, times(1)).save(any(User.class));
-        verify(passwordEncoder, times(1)).encode(password);
+        verify(passwordHasher, times(1)).encode(password);
         verify(authRepository, times(1)).saveDataUser(any(Data_user.class));
     }
 
@@ -99,7 +101,7 @@ class AuthServiceTest {
 
         User user = new User(1L, login, encodedPassword);
         when(authRepository.findByLogin(login)).thenReturn(Optional.of(user));
-        when(passwordEncoder.matches(rawPassword, encodedPassword)).thenReturn(true);
+        when(passwordHasher.matches(rawPassword, encodedPassword)).thenReturn(true);
 
         boolean result = authService.login(login, rawPassword);
 
@@ -115,13 +117,13 @@ class AuthServiceTest {
 
         User user = new User(1L, login, encodedPassword);
         when(authRepository.findByLogin(login)).thenReturn(Optional.of(user));
-        when(passwordEncoder.matches(rawPassword, encodedPassword)).thenReturn(false);
+        when(passwordHasher.matches(rawPassword, encodedPassword)).thenReturn(false);
 
         boolean result = authService.login(login, rawPassword);
 
         assertFalse(result);
         verify(authRepository, times(1)).findByLogin(login);
-        verify(passwordEncoder, times(1)).matches(rawPassword, encodedPassword);
+        verify(passwordHasher, times(1)).matches(rawPassword, encodedPassword);
     }
 
     @Test
@@ -135,6 +137,59 @@ class AuthServiceTest {
 
         assertFalse(result);
         verify(authRepository, times(1)).findByLogin(login);
-        verify(passwordEncoder, never()).matches(anyString(), anyString());
+        verify(passwordHasher, never()).matches(anyString(), anyString());
     }
-}
\ No newline at end of file
+
+    @Test
+    void getUserId_returns_app_user_id_for_token_claim() {
+        when(authRepository.getAppUserId("user")).thenReturn(42L);
+
+        assertEquals(42L, authService.getUserId("user"));
+    }
+
+    @Test
+    void login_passes_hashing_overload_through_unwrapped() {
+        when(authRepository.findByLogin("user")).thenReturn(Optional.of(new User(1L, "user", "hash")));
+        when(passwordHasher.matches("pass123", "hash")).thenThrow(new TooManyRequestsException("Слишком много попыток входа"));
+
+        assertThrows(TooManyRequestsException.class, () -> authService.login("user", "pass123"));
+    }
+
+    @Test
+    void login_rehashes_password_stored_with_old_cost() {
+        when(authRepository.findByLogin("user")).thenReturn(Optional.of(new User(1L, "user", "old_hash")));
+        when(passwordHasher.matches("pass123", "old_hash")).thenReturn(true);
+        when(passwordHasher.needsRehash("old_hash")).thenReturn(true);
+        when(passwordHasher.encode("pass123")).thenReturn("new_hash");
+        when(authRepository.updatePasswordHash(1L, "old_hash", "new_hash")).thenReturn(true);
+        when(authRepository.countPasswordsBelowCost(anyInt())).thenReturn(3L);
+        assertEquals(3.0, authService.pendingRehashes());
+
+        assertTrue(authService.login("user", "pass123"));
+
+        verify(authRepository, times(1)).updatePasswordHash(1L, "old_hash", "new_hash");
+        assertEquals(2.0, authService.pendingRehashes());
+    }
+
+    @Test
+    void login_succeeds_when_rehash_fails() {
+        when(authRepository.findByLogin("user")).thenReturn(Optional.of(new User(1L, "user", "old_hash")));
+        when(passwordHasher.matches("pass123", "old_hash")).thenReturn(true);
+        when(passwordHasher.needsRehash("old_hash")).thenReturn(true);
+        when(passwordHasher.encode("pass123")).thenThrow(new TooManyRequestsException("Слишком много попыток входа"));
+
+        assertTrue(authService.login("user", "pass123"));
+
+        verify(authRepository, never()).updatePasswordHash(anyLong(), anyString(), anyString());
+    }
+
+    @Test
+    void login_keeps_hash_with_current_cost() {
+        when(authRepository.findByLogin("user")).thenReturn(Optional.of(new User(1L, "user", "hash")));
+        when(passwordHasher.matches("pass123", "hash")).thenReturn(true);
+
+        assertTrue(authService.login("user", "pass123"));
+
+        verify(passwordHasher, never()).encode(anyString());
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.pbc.service;
+
+import com.example.pbc.model.BalanceEvent;
+import com.example.pbc.work_databased.OutboxRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BalanceEventDispatcherTest {
+
+    @Mock
+    private OutboxRepository outboxRepository;
+
+    private BalanceEventDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        dispatcher = new BalanceEventDispatcher(outboxRepository, 2, 200, 15_000, 60_000);
+    }
+
+    private static OutboxRepository.OutboxEvent event(long id, long userId) {
+        return new OutboxRepository.OutboxEvent(id, userId, new BalanceEvent("ACC00000" + id, 100L, 1000L));
+    }
+
+    @Test
+    void dispatch_drains_outbox_in_batches_and_deletes_sent_events() {
+        when(outboxRepository.fetchBatch(2))
+                .thenReturn(List.of(event(1, 10), event(2, 20)))
+                .thenReturn(List.of(event(3, 10)));
+
+        assertEquals(3, dispatcher.dispatch());
+        verify(outboxRepository).delete(List.of(1L, 2L));
+        verify(outboxRepository).delete(List.of(3L));
+        verify(outboxRepository, times(2)).fetchBatch(2);
+    }
+
+    @Test
+    void dispatch_keeps_events_when_delete_fails() {
+        when(outboxRepository.fetchBatch(2)).thenReturn(List.of(event(1, 10)));
+        doThrow(new RuntimeException("DB Error")).when(outboxRepository).delete(anyList());
+
+        assertEquals(0, dispatcher.dispatch());
+    }
+
+    @Test
+    void subscribe_registers_emitter_per_user() {
+        SseEmitter first = dispatcher.subscribe(10L);
+        dispatcher.subscribe(10L);
+        dispatcher.subscribe(20L);
+
+        assertNotNull(first);
+        assertEquals(3, dispatcher.subscriberCount());
+    }
+
+    @Test
+    void subscribe_does_not_query_database() {
+        dispatcher.subscribe(10L);
+
+        verifyNoInteractions(outboxRepository);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.pbc.service;
+
+import com.example.pbc.work_databased.PostingJournal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class BalanceSnapshotterTest {
+
+    @Mock
+    private PostingJournal postingJournal;
+
+    private BalanceSnapshotter balanceSnapshotter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        balanceSnapshotter = new BalanceSnapshotter(postingJournal, 3_600_000, 60_000, 1_000);
+    }
+
+    @Test
+    void snapshot_uses_lagged_moment() {
+        when(postingJournal.takeSnapshots(any(LocalDateTime.class), eq(1_000))).thenReturn(5);
+        LocalDateTime latest = LocalDateTime.now().minusSeconds(60);
+
+        assertEquals(5, balanceSnapshotter.snapshot());
+        verify(postingJournal).takeSnapshots(argThat(asOf -> !asOf.isAfter(latest.plusSeconds(1))), eq(1_000));
+    }
+
+    @Test
+    void snapshot_swallows_errors_to_keep_schedule() {
+        when(postingJournal.takeSnapshots(any(LocalDateTime.class), anyInt())).thenThrow(new RuntimeException("DB Error"));
+
+        assertEquals(0, balanceSnapshotter.snapshot());
+    }
+}
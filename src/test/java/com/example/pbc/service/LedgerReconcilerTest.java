@@ -0,0 +1,111 @@
+package com.example.pbc.service;
+
+import com.example.pbc.model.BalanceCheck;
+import com.example.pbc.model.ReconciliationReport;
+import com.example.pbc.work_databased.ReconciliationRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LedgerReconcilerTest {
+
+    @Mock
+    private ReconciliationRepository reconciliationRepository;
+
+    private LedgerReconciler ledgerReconciler;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(reconciliationRepository.findUnfinishedRun()).thenReturn(Optional.empty());
+        ledgerReconciler = new LedgerReconciler(reconciliationRepository, 2, 10, 1_000_000, 3);
+        ledgerReconciler.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        ledgerReconciler.shutdown();
+    }
+
+    // Счёт id со снимком balance и проводками postings
+    private static void account(ReconciliationRepository.RangeSink sink, long id, long balance, long... postings) {
+        sink.snapshot(id, "ACC" + id, balance);
+        for (long amount : postings) {
+            sink.posting(id, amount);
+        }
+    }
+
+    @Test
+    void reconcile_checks_all_ranges_and_records_mismatches() {
+        when(reconciliationRepository.completedRanges("run-1")).thenReturn(Set.of());
+        when(reconciliationRepository.maxScoreId()).thenReturn(25L);
+        doAnswer(inv -> {
+            ReconciliationRepository.RangeSink sink = inv.getArgument(2);
+            long start = inv.getArgument(0);
+            account(sink, start + 1, 500L, 1000L, -500L);
+            account(sink, start + 2, 300L, 100L);
+            return null;
+        }).when(reconciliationRepository).scanRange(anyLong(), anyLong(), any());
+        when(reconciliationRepository.findMismatches("run-1"))
+                .thenReturn(List.of(new BalanceCheck("ACC2", 300L, 100L)));
+
+        ReconciliationReport report = ledgerReconciler.reconcile("run-1");
+
+        assertEquals(3, report.getRangesChecked());
+        assertEquals(6, report.getAccountsChecked());
+        verify(reconciliationRepository).scanRange(eq(0L), eq(10L), any());
+        verify(reconciliationRepository).scanRange(eq(20L), eq(30L), any());
+        verify(reconciliationRepository).completeRange(eq("run-1"), eq(10L), eq(20L),
+                argThat(mismatches -> mismatches.size() == 1 && mismatches.get(0).scoreId() == 12L
+                        && mismatches.get(0).check().getJournalBalance() == 100L));
+        verify(reconciliationRepository).finishRun("run-1");
+        assertEquals(1, report.getMismatches().size());
+    }
+
+    @Test
+    void reconcile_skips_ranges_completed_before_restart() {
+        when(reconciliationRepository.completedRanges("run-1")).thenReturn(Set.of(0L, 10L));
+        when(reconciliationRepository.maxScoreId()).thenReturn(25L);
+        when(reconciliationRepository.findMismatches("run-1")).thenReturn(List.of());
+
+        ReconciliationReport report = ledgerReconciler.reconcile("run-1");
+
+        assertEquals(1, report.getRangesChecked());
+        assertEquals(2, report.getRangesSkipped());
+        verify(reconciliationRepository, times(1)).scanRange(anyLong(), anyLong(), any());
+        verify(reconciliationRepository).scanRange(eq(20L), eq(30L), any());
+    }
+
+    @Test
+    void rangeTotals_accumulates_postings_per_account() {
+        LedgerReconciler.RangeTotals totals = new LedgerReconciler.RangeTotals(100, 10, new LedgerReconciler.RowThrottle(1_000_000));
+
+        account(totals, 101, 700L, 1000L, -300L);
+        account(totals, 105, 0L);
+
+        assertEquals(2, totals.accounts());
+        assertTrue(totals.mismatches().isEmpty());
+    }
+
+    @Test
+    void rowThrottle_caps_rate() {
+        LedgerReconciler.RowThrottle throttle = new LedgerReconciler.RowThrottle(10_000);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 3; i++) {
+            throttle.acquire(1_000);
+        }
+
+        // Три порции по 1000 разрешений при 10 000 в секунду — не быстрее 200 мс после первой
+        assertTrue(System.nanoTime() - start >= 190_000_000L);
+    }
+}
@@ -3,12 +3,17 @@ package com.example.pbc.service;
 
 import com.example.pbc.exception.BadRequestException;
 import com.example.pbc.model.Score;
+import com.example.pbc.model.ScoreLookup;
+import com.example.pbc.work_databased.PostingJournal;
+import com.example.pbc.work_databased.ScoreNumberAllocator;
 import com.example.pbc.work_databased.ScoreRepository;
+import com.example.pbc.work_databased.ScoreSlots;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -20,12 +25,22 @@ class ScoreServiceTest {
     @Mock
     private ScoreRepository scoreRepository;
 
+    @Mock
+    private ScoreSlots scoreSlots;
+
+    @Mock
+    private PostingJournal postingJournal;
+
+    @Mock
+    private ScoreNumberAllocator scoreNumberAllocator;
+
     private ScoreService scoreService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        scoreService = new ScoreService(scoreRepository);
+        when(scoreNumberAllocator.next()).thenReturn("ACC0000000001");
+        scoreService = new ScoreService(scoreRepository, scoreSlots, postingJournal, scoreNumberAllocator);
     }
 
     @Test
@@ -81,6 +96,20 @@ class ScoreServiceTest {
         verify(scoreRepository, never()).createScore(any(Score.class));
     }
 
+    @Test
+    void openScore_stores_currency_code() {
+        scoreService.openScore(1L, 100L, "USD");
+
+        verify(scoreRepository, times(1)).createScore(argThat(score -> "USD".equals(score.getCurrencyCode())));
+    }
+
+    @Test
+    void openScore_throws_exception_when_currency_code_is_invalid() {
+        assertThrows(BadRequestException.class, () -> scoreService.openScore(1L, 100L, "usd"));
+        assertThrows(BadRequestException.class, () -> scoreService.openScore(1L, 100L, null));
+        verify(scoreRepository, never()).createScore(any(Score.class));
+    }
+
     @Test
     void getScoresForUser_returns_list_of_scores() {
         Long userId = 1L;
@@ -103,6 +132,7 @@ class ScoreServiceTest {
 
         assertDoesNotThrow(() -> scoreService.closeScore(scoreNumber, userId));
         verify(scoreRepository, times(1)).closeScore(scoreNumber);
+        verify(scoreRepository, times(1)).evictUserScores(userId);
     }
 
     @Test
@@ -121,6 +151,32 @@ class ScoreServiceTest {
         verify(scoreRepository, never()).closeScore(anyString());
     }
 
+    @Test
+    void splitScore_splits_owned_score() {
+        when(scoreRepository.isScoreBelongsToUser("ACC123456", 1L)).thenReturn(true);
+
+        scoreService.splitScore("ACC123456", 8, 1L);
+
+        verify(scoreSlots, times(1)).split("ACC123456", 8);
+    }
+
+    @Test
+    void splitScore_throws_exception_when_score_does_not_belong_to_user() {
+        when(scoreRepository.isScoreBelongsToUser("ACC123456", 1L)).thenReturn(false);
+
+        assertThrows(IllegalArgumentException.class, () -> scoreService.splitScore("ACC123456", 8, 1L));
+        verify(scoreSlots, never()).split(anyString(), anyInt());
+    }
+
+    @Test
+    void mergeScore_merges_owned_score() {
+        when(scoreRepository.isScoreBelongsToUser("ACC123456", 1L)).thenReturn(true);
+
+        scoreService.mergeScore("ACC123456", 1L);
+
+        verify(scoreSlots, times(1)).merge("ACC123456");
+    }
+
     @Test
     void scoreExists_returns_true_for_existing_score() {
         String scoreNumber = "ACC123456";
@@ -144,8 +200,8 @@ class ScoreServiceTest {
         String scoreNumber = "ACC123456";
         Long balance = 5000L;
 
-        Score score = new Score(1L, 1L, scoreNumber, balance, true);
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.of(score));
+        ScoreLookup score = new ScoreLookup(1L, 1L, balance, true);
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.of(score));
 
         Long result = scoreService.getBalance(scoreNumber);
         assertEquals(balance, result);
@@ -154,7 +210,7 @@ class ScoreServiceTest {
     @Test
     void getBalance_throws_exception_when_score_not_found() {
         String scoreNumber = "ACC123456";
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.empty());
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.empty());
 
         IllegalArgumentException thrown = assertThrows(
                 IllegalArgumentException.class,
@@ -168,8 +224,8 @@ class ScoreServiceTest {
     void getBalance_throws_exception_when_score_is_closed() {
         String scoreNumber = "ACC123456";
 
-        Score score = new Score(1L, 1L, scoreNumber, 5000L, false);
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.of(score));
+        ScoreLookup score = new ScoreLookup(1L, 1L, 5000L, false);
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.of(score));
 
         IllegalArgumentException thrown = assertThrows(
                 IllegalArgumentException.class,
@@ -184,8 +240,8 @@ class ScoreServiceTest {
         String scoreNumber = "ACC123456";
         Long expectedId = 123L;
 
-        Score score = new Score(expectedId, 1L, scoreNumber, 5000L, true);
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.of(score));
+        ScoreLookup score = new ScoreLookup(expectedId, 1L, 5000L, true);
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.of(score));
 
         Long id = scoreService.getScoreId(scoreNumber);
         assertEquals(expectedId, id);
@@ -194,7 +250,7 @@ class ScoreServiceTest {
     @Test
     void getScoreId_throws_exception_when_score_not_found() {
         String scoreNumber = "ACC123456";
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.empty());
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.empty());
 
         IllegalArgumentException thrown = assertThrows(
                 IllegalArgumentException.class,
@@ -208,8 +264,8 @@ class ScoreServiceTest {
     void getScoreId_throws_exception_when_score_is_closed() {
         String scoreNumber = "ACC123456";
 
-        Score score = new Score(1L, 1L, scoreNumber, 5000L, false);
-        when(scoreRepository.findByScoreNumber(scoreNumber)).thenReturn(Optional.of(score));
+        ScoreLookup score = new ScoreLookup(1L, 1L, 5000L, false);
+        when(scoreRepository.lookupScore(scoreNumber)).thenReturn(Optional.of(score));
 
         IllegalArgumentException thrown = assertThrows(
                 IllegalArgumentException.class,
@@ -229,4 +285,28 @@ class ScoreServiceTest {
         Long actualUserId = scoreService.getUserIdByUuid(uuid);
         assertEquals(expectedUserId, actualUserId);
     }
-}
\ No newline at end of file
+
+    @Test
+    void getBalanceAt_returns_balance_from_journal() {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 0, 0);
+        when(scoreRepository.isScoreBelongsToUser("ACC123456", 1L)).thenReturn(true);
+        when(postingJournal.balanceAt("ACC123456", at)).thenReturn(Optional.of(4200L));
+
+        assertEquals(4200L, scoreService.getBalanceAt("ACC123456", at, 1L));
+    }
+
+    @Test
+    void getBalanceAt_throws_exception_when_score_not_owned() {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 0, 0);
+        when(scoreRepository.isScoreBelongsToUser("ACC123456", 1L)).thenReturn(false);
+
+        assertThrows(IllegalArgumentException.class, () -> scoreService.getBalanceAt("ACC123456", at, 1L));
+        verify(postingJournal, never()).balanceAt(anyString(), any());
+    }
+
+    @Test
+    void getBalanceAt_throws_exception_for_future_moment() {
+        assertThrows(IllegalArgumentException.class,
+                () -> scoreService.getBalanceAt("ACC123456", LocalDateTime.now().plusDays(1), 1L));
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.pbc.service;
+
+import com.example.pbc.model.ImportReport;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.work_databased.ImportRepository;
+import com.example.pbc.work_databased.TransferRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class TransferImporterTest {
+
+    @Mock
+    private TransferRepository transferRepository;
+
+    @Mock
+    private ImportRepository importRepository;
+
+    @TempDir
+    Path dir;
+
+    private TransferImporter transferImporter;
+
+    private final List<ImportRepository.Checkpoint> checkpoints = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        transferImporter = new TransferImporter(transferRepository, importRepository,
+                new TransferRetry(3, 0, 0, new SimpleMeterRegistry()), 2);
+        when(transferRepository.findExistingNumbers(any())).thenReturn(Set.of("ACC1", "ACC2", "ACC3"));
+        // Все переводы, дошедшие до БД, успешны
+        when(transferRepository.executeImportChunk(anyList(), anyList(), any())).thenAnswer(inv -> {
+            List<Transfer> chunk = inv.getArgument(0);
+            List<TransferOutcome> outcomes = Collections.nCopies(chunk.size(), TransferOutcome.SUCCESS);
+            inv.<Consumer<List<TransferOutcome>>>getArgument(2).accept(outcomes);
+            return outcomes;
+        });
+        doAnswer(inv -> checkpoints.add(inv.getArgument(1))).when(importRepository).saveCheckpoint(anyString(), any());
+    }
+
+    private Path csv(String... lines) throws Exception {
+        Path file = dir.resolve("payouts.csv");
+        Files.writeString(file, String.join("\n", lines) + "\n");
+        return file;
+    }
+
+    private static String[] resultLines(Path file) throws Exception {
+        return Files.readString(file, StandardCharsets.UTF_8).split("\n");
+    }
+
+    @Test
+    void importFile_validates_applies_and_writes_result_per_line() throws Exception {
+        when(importRepository.start(anyString(), eq("payouts.csv")))
+                .thenReturn(new ImportRepository.Checkpoint(0, 0, 0, 0, false));
+        Path file = csv("from,to,amount", "ACC1,ACC2,100", "ACC1,ACC9,50", "ACC1,ACC2,abc", "ACC3,ACC1,70");
+        Path result = dir.resolve("result.csv");
+
+        ImportReport report = transferImporter.importFile(file, result);
+
+        assertEquals(2, report.getSucceeded());
+        assertEquals(2, report.getFailed());
+        assertEquals(5, report.getLinesProcessed());
+        String[] lines = resultLines(result);
+        assertEquals("line,outcome,transfer_uuid", lines[0]);
+        assertTrue(lines[1].startsWith("2,SUCCESS,"));
+        assertEquals("3,TO_NOT_FOUND,", lines[2]);
+        assertEquals("4,INVALID,", lines[3]);
+        assertTrue(lines[4].startsWith("5,SUCCESS,"));
+        // Контрольная точка после каждой части из двух строк
+        assertEquals(List.of(3L, 5L), checkpoints.stream().map(ImportRepository.Checkpoint::linesDone).toList());
+        assertEquals(Files.size(result), checkpoints.get(1).resultBytes());
+        verify(transferRepository, times(1)).executeImportChunk(
+                argThat((List<Transfer> chunk) -> chunk.size() == 1 && "ACC3".equals(chunk.get(0).getFromScoreNumber())),
+                anyList(), any());
+        verify(importRepository, times(1)).finish(report.getImportId());
+    }
+
+    @Test
+    void importFile_resumes_after_checkpoint_and_drops_uncommitted_results() throws Exception {
+        Path file = csv("ACC1,ACC2,100", "ACC2,ACC3,200", "ACC3,ACC1,300");
+        Path result = dir.resolve("result.csv");
+        String committed = TransferImporter.RESULT_HEADER + "1,SUCCESS,x\n2,SUCCESS,y\n";
+        Files.writeString(result, committed + "3,SUCCESS,lost\n");
+        when(importRepository.start(anyString(), anyString()))
+                .thenReturn(new ImportRepository.Checkpoint(2, committed.length(), 2, 0, false));
+
+        ImportReport report = transferImporter.importFile(file, result);
+
+        assertEquals(2, report.getResumedFromLine());
+        assertEquals(3, report.getSucceeded());
+        verify(transferRepository, times(1)).executeImportChunk(
+                argThat((List<Transfer> chunk) -> chunk.size() == 1 && "ACC3".equals(chunk.get(0).getFromScoreNumber())),
+                anyList(), any());
+        String[] lines = resultLines(result);
+        assertEquals(4, lines.length);
+        assertTrue(lines[3].startsWith("3,SUCCESS,") && !lines[3].endsWith("lost"));
+    }
+
+    @Test
+    void importFile_rewrites_chunk_results_when_transaction_is_retried() throws Exception {
+        when(importRepository.start(anyString(), anyString()))
+                .thenReturn(new ImportRepository.Checkpoint(0, 0, 0, 0, false));
+        AtomicInteger calls = new AtomicInteger();
+        doAnswer(inv -> {
+            ImportRepository.Checkpoint checkpoint = inv.getArgument(1);
+            if (calls.getAndIncrement() == 0) {
+                throw new DeadlockLoserDataAccessException("deadlock",
+                        new SQLException("Deadlock found when trying to get lock", "40001", 1213));
+            }
+            return checkpoints.add(checkpoint);
+        }).when(importRepository).saveCheckpoint(anyString(), any());
+        Path result = dir.resolve("result.csv");
+
+        transferImporter.importFile(csv("ACC1,ACC2,100"), result);
+
+        assertEquals(2, resultLines(result).length);
+        assertEquals(Files.size(result), checkpoints.get(0).resultBytes());
+    }
+
+    @Test
+    void importFile_skips_finished_import() throws Exception {
+        when(importRepository.start(anyString(), anyString()))
+                .thenReturn(new ImportRepository.Checkpoint(1, 40, 1, 0, true));
+
+        ImportReport report = transferImporter.importFile(csv("ACC1,ACC2,100"), dir.resolve("result.csv"));
+
+        assertEquals(1, report.getSucceeded());
+        verify(transferRepository, never()).executeImportChunk(anyList(), anyList(), any());
+        verify(importRepository, never()).finish(anyString());
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.pbc.service;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferLockStripesTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private TransferLockStripes lockStripes;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        lockStripes = new TransferLockStripes(8, 200, meterRegistry);
+    }
+
+    @Test
+    void withLocks_returns_action_result() {
+        String result = lockStripes.withLocks("ACC123456", "ACC789012", () -> "done");
+        assertEquals("done", result);
+    }
+
+    @Test
+    void withLocks_registers_queue_gauge_per_lane() {
+        assertEquals(8, meterRegistry.find("pbc.transfer.lane.queue").gauges().size());
+    }
+
+    @Test
+    void opposite_transfers_do_not_deadlock() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<?> forward = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1_000; i++) {
+                    lockStripes.withLocks("ACC000001", "ACC000002", () -> null);
+                }
+                return null;
+            });
+            Future<?> backward = executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < 1_000; i++) {
+                    lockStripes.withLocks("ACC000002", "ACC000001", () -> null);
+                }
+                return null;
+            });
+            start.countDown();
+            forward.get(10, TimeUnit.SECONDS);
+            backward.get(10, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void withLocks_throws_ServiceUnavailableException_when_lane_is_busy_too_long() throws Exception {
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> lockStripes.withLocks("ACC123456", "ACC123456", () -> {
+            held.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }));
+        holder.start();
+        held.await();
+        try {
+            assertThrows(ServiceUnavailableException.class,
+                    () -> lockStripes.withLocks("ACC123456", "ACC123456", () -> null));
+            assertEquals(1.0, meterRegistry.get("pbc.transfer.lane.contended").counter().count());
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    void lane_gauges_are_not_registered_when_disabled() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        new TransferLockStripes(8, 200, registry, false);
+
+        assertTrue(registry.find("pbc.transfer.lane.queue").gauges().isEmpty());
+    }
+}
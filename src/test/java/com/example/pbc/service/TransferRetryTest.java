@@ -0,0 +1,89 @@
+package com.example.pbc.service;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.UncategorizedSQLException;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransferRetryTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private TransferRetry transferRetry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        transferRetry = new TransferRetry(4, 0, 0, meterRegistry);
+    }
+
+    @Test
+    void classify_recognises_mysql_deadlock_and_lock_wait_codes() {
+        assertEquals(TransferRetry.Reason.DEADLOCK, TransferRetry.classify(
+                new UncategorizedSQLException("tx", "UPDATE", new SQLException("Deadlock", "40001", 1213))));
+        assertEquals(TransferRetry.Reason.LOCK_WAIT_TIMEOUT, TransferRetry.classify(
+                new UncategorizedSQLException("tx", "UPDATE", new SQLException("Lock wait timeout", "HY000", 1205))));
+        assertNull(TransferRetry.classify(new DataIntegrityViolationException("constraint")));
+        assertNull(TransferRetry.classify(new IllegalStateException("other")));
+    }
+
+    @Test
+    void execute_retries_until_success() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = transferRetry.execute("Перевод", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new CannotAcquireLockException("Deadlock", new SQLException("Deadlock", "40001", 1213));
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, calls.get());
+        assertEquals(2.0, meterRegistry.get("pbc.transfer.retry").tag("reason", "deadlock").counter().count());
+        assertEquals(1.0, meterRegistry.get("pbc.transfer.retry.outcome").tag("outcome", "recovered").counter().count());
+    }
+
+    @Test
+    void execute_gives_up_after_max_attempts() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(ServiceUnavailableException.class, () -> transferRetry.execute("Перевод", () -> {
+            calls.incrementAndGet();
+            throw new CannotAcquireLockException("Lock wait", new SQLException("Lock wait timeout", "HY000", 1205));
+        }));
+
+        assertEquals(4, calls.get());
+        assertEquals(4.0, meterRegistry.get("pbc.transfer.retry").tag("reason", "lock_wait_timeout").counter().count());
+        assertEquals(1.0, meterRegistry.get("pbc.transfer.retry.outcome").tag("outcome", "exhausted").counter().count());
+    }
+
+    @Test
+    void execute_does_not_retry_other_errors() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThrows(DataIntegrityViolationException.class, () -> transferRetry.execute("Перевод", () -> {
+            calls.incrementAndGet();
+            throw new DataIntegrityViolationException("constraint");
+        }));
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void backoff_stays_within_capped_window() {
+        TransferRetry retry = new TransferRetry(5, 10, 50, meterRegistry);
+
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            long pause = retry.backoff(attempt);
+            assertTrue(pause >= 0 && pause <= 50);
+        }
+    }
+}
@@ -1,11 +1,33 @@
 package com.example.pbc.service;
 
 import com.example.pbc.exception.*;
+import com.example.pbc.model.BatchMode;
+import com.example.pbc.model.StatementFormat;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferHistoryPage;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.model.TransferRecord;
+import com.example.pbc.model.TransferResult;
 import com.example.pbc.work_databased.TransferRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -18,12 +40,24 @@ class TransferServiceTest {
     @Mock
     private ScoreService scoreService;
 
+    @Mock
+    private TransferProcessor transferProcessor;
+
+    private IdempotencyCache idempotencyCache;
+
+    private SimpleMeterRegistry meterRegistry;
+
     private TransferService transferService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        transferService = new TransferService(transferRepository, scoreService);
+        idempotencyCache = new IdempotencyCache(100);
+        TransferLockStripes lockStripes = new TransferLockStripes(16, 1_000, new SimpleMeterRegistry());
+        meterRegistry = new SimpleMeterRegistry();
+        TransferRetry transferRetry = new TransferRetry(3, 0, 0, meterRegistry);
+        transferService = new TransferService(transferRepository, scoreService, idempotencyCache, lockStripes,
+                transferProcessor, transferRetry);
     }
 
     @Test
@@ -32,15 +66,13 @@ class TransferServiceTest {
         String toScore = "ACC789012";
         Long amount = 1000L;
 
-        when(scoreService.scoreExists(fromScore)).thenReturn(true);
-        when(scoreService.scoreExists(toScore)).thenReturn(true);
-        when(scoreService.getBalance(fromScore)).thenReturn(2000L);
-        when(scoreService.getScoreId(fromScore)).thenReturn(1L);
-        when(scoreService.getScoreId(toScore)).thenReturn(2L);
-        doNothing().when(transferRepository).executeTransfer(fromScore, toScore, amount, 1L, 2L);
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.SUCCESS);
 
         assertDoesNotThrow(() -> transferService.transfer(fromScore, toScore, amount));
-        verify(transferRepository, times(1)).executeTransfer(fromScore, toScore, amount, 1L, 2L);
+        verify(transferRepository, times(1)).executeTransfer(fromScore, toScore, amount, null);
+        verify(scoreService, never()).scoreExists(anyString());
+        verify(scoreService, never()).getBalance(anyString());
+        verify(scoreService, never()).getScoreId(anyString());
     }
 
     @Test
@@ -55,8 +87,7 @@ class TransferServiceTest {
         );
 
         assertEquals("Счёт отправителя обязателен", thrown.getMessage());
-        verify(scoreService, never()).getBalance(anyString());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
     }
 
     @Test
@@ -71,8 +102,7 @@ class TransferServiceTest {
         );
 
         assertEquals("Счёт получателя обязателен", thrown.getMessage());
-        verify(scoreService, never()).getBalance(anyString());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
     }
 
     @Test
@@ -87,8 +117,7 @@ class TransferServiceTest {
         );
 
         assertEquals("Сумма должна быть положительной", thrown.getMessage());
-        verify(scoreService, never()).scoreExists(anyString());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
     }
 
     @Test
@@ -103,8 +132,7 @@ class TransferServiceTest {
         );
 
         assertEquals("Сумма должна быть положительной", thrown.getMessage());
-        verify(scoreService, never()).scoreExists(anyString());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
     }
 
     @Test
@@ -112,16 +140,13 @@ class TransferServiceTest {
         String scoreNumber = "ACC123456";
         Long amount = 1000L;
 
-        when(scoreService.scoreExists(scoreNumber)).thenReturn(true);
-        when(scoreService.getBalance(scoreNumber)).thenReturn(2000L);
-
         RuntimeException thrown = assertThrows(
                 RuntimeException.class,
                 () -> transferService.transfer(scoreNumber, scoreNumber, amount)
         );
 
         assertTrue(thrown.getMessage().contains("Нельзя перевести самому себе"));
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
     }
 
     @Test
@@ -130,7 +155,7 @@ class TransferServiceTest {
         String toScore = "ACC789012";
         Long amount = 1000L;
 
-        when(scoreService.scoreExists(fromScore)).thenReturn(false);
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.FROM_NOT_FOUND);
 
         NotFoundException thrown = assertThrows(
                 NotFoundException.class,
@@ -138,8 +163,6 @@ class TransferServiceTest {
         );
 
         assertEquals("Счёт отправителя не существует", thrown.getMessage());
-        verify(scoreService, never()).getBalance(anyString());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
     }
 
     @Test
@@ -148,8 +171,7 @@ class TransferServiceTest {
         String toScore = "ACC789012";
         Long amount = 1000L;
 
-        when(scoreService.scoreExists(fromScore)).thenReturn(true);
-        when(scoreService.scoreExists(toScore)).thenReturn(false);
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.TO_NOT_FOUND);
 
         NotFoundException thrown = assertThrows(
                 NotFoundException.class,
@@ -157,7 +179,22 @@ class TransferServiceTest {
         );
 
         assertEquals("Счёт получателя не существует", thrown.getMessage());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+    }
+
+    @Test
+    void transfer_throws_BadRequestException_when_from_score_is_closed() {
+        String fromScore = "ACC123456";
+        String toScore = "ACC789012";
+        Long amount = 1000L;
+
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.FROM_CLOSED);
+
+        BadRequestException thrown = assertThrows(
+                BadRequestException.class,
+                () -> transferService.transfer(fromScore, toScore, amount)
+        );
+
+        assertEquals("Счёт отправителя закрыт", thrown.getMessage());
     }
 
     @Test
@@ -166,9 +203,7 @@ class TransferServiceTest {
         String toScore = "ACC789012";
         Long amount = 1000L;
 
-        when(scoreService.scoreExists(fromScore)).thenReturn(true);
-        when(scoreService.scoreExists(toScore)).thenReturn(true);
-        when(scoreService.getBalance(fromScore)).thenReturn(500L);
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.INSUFFICIENT_FUNDS);
 
         ForbiddenException thrown = assertThrows(
                 ForbiddenException.class,
@@ -176,21 +211,422 @@ class TransferServiceTest {
         );
 
         assertEquals("Недостаточно средств на счёте", thrown.getMessage());
-        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
     }
 
     @Test
-    void validateTransfer_returns_no_exception_for_valid_data() {
+    void transfer_throws_BadRequestException_when_fx_rate_unavailable() {
+        String fromScore = "ACC123456";
+        String toScore = "ACC789012";
+        Long amount = 1000L;
+
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null)).thenReturn(TransferOutcome.FX_RATE_UNAVAILABLE);
+
+        assertThrows(BadRequestException.class, () -> transferService.transfer(fromScore, toScore, amount));
+    }
+
+    @Test
+    void transfer_with_idempotency_key_is_answered_from_cache_on_retry() {
         String fromScore = "ACC123456";
         String toScore = "ACC789012";
         Long amount = 1000L;
+        String uuid = TransferService.transferUuid(1L, "retry-key-1");
 
-        when(scoreService.scoreExists(fromScore)).thenReturn(true);
-        when(scoreService.scoreExists(toScore)).thenReturn(true);
-        when(scoreService.getBalance(fromScore)).thenReturn(2000L);
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, uuid)).thenReturn(TransferOutcome.SUCCESS);
+
+        transferService.transfer(fromScore, toScore, amount, 1L, "retry-key-1");
+        transferService.transfer(fromScore, toScore, amount, 1L, "retry-key-1");
+
+        verify(transferRepository, times(1)).executeTransfer(fromScore, toScore, amount, uuid);
+        assertTrue(idempotencyCache.get(uuid).isPresent());
+    }
+
+    @Test
+    void transfer_with_idempotency_key_rejects_other_transfer_from_cache() {
+        String uuid = TransferService.transferUuid(1L, "key-1");
+        when(transferRepository.executeTransfer("ACC123456", "ACC789012", 1000L, uuid)).thenReturn(TransferOutcome.SUCCESS);
+
+        transferService.transfer("ACC123456", "ACC789012", 1000L, 1L, "key-1");
+
+        assertThrows(ConflictException.class, () -> transferService.transfer("ACC123456", "ACC789012", 5000L, 1L, "key-1"));
+        verify(transferRepository, times(1)).executeTransfer(anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void transfer_with_same_idempotency_key_of_other_user_is_separate_transfer() {
+        String firstUuid = TransferService.transferUuid(1L, "key-1");
+        String secondUuid = TransferService.transferUuid(2L, "key-1");
+        when(transferRepository.executeTransfer(eq("ACC123456"), eq("ACC789012"), eq(1000L), anyString()))
+                .thenReturn(TransferOutcome.SUCCESS);
+
+        transferService.transfer("ACC123456", "ACC789012", 1000L, 1L, "key-1");
+        transferService.transfer("ACC123456", "ACC789012", 1000L, 2L, "key-1");
+
+        assertNotEquals(firstUuid, secondUuid);
+        verify(transferRepository, times(1)).executeTransfer("ACC123456", "ACC789012", 1000L, firstUuid);
+        verify(transferRepository, times(1)).executeTransfer("ACC123456", "ACC789012", 1000L, secondUuid);
+    }
+
+    @Test
+    void transfer_with_idempotency_key_accepts_duplicate_from_database() {
+        String fromScore = "ACC123456";
+        String toScore = "ACC789012";
+        Long amount = 1000L;
+        String uuid = TransferService.transferUuid(1L, "evicted-key");
+
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, uuid)).thenReturn(TransferOutcome.DUPLICATE);
+        when(transferRepository.findByUuid(uuid)).thenReturn(Optional.of(new TransferRecord(1L, uuid, fromScore, toScore,
+                amount, "SUCCESS", LocalDateTime.now(), LocalDateTime.now())));
+
+        assertDoesNotThrow(() -> transferService.transfer(fromScore, toScore, amount, 1L, "evicted-key"));
+        assertTrue(idempotencyCache.get(uuid).isPresent());
+    }
+
+    @Test
+    void transfer_with_idempotency_key_rejects_duplicate_with_other_amount() {
+        String uuid = TransferService.transferUuid(1L, "evicted-key");
+
+        when(transferRepository.executeTransfer("ACC123456", "ACC789012", 5000L, uuid)).thenReturn(TransferOutcome.DUPLICATE);
+        when(transferRepository.findByUuid(uuid)).thenReturn(Optional.of(new TransferRecord(1L, uuid, "ACC123456", "ACC789012",
+                1000L, "SUCCESS", LocalDateTime.now(), LocalDateTime.now())));
+
+        assertThrows(ConflictException.class, () -> transferService.transfer("ACC123456", "ACC789012", 5000L, 1L, "evicted-key"));
+        assertFalse(idempotencyCache.get(uuid).isPresent());
+    }
+
+    @Test
+    void transfer_with_group_commit_does_not_take_lock_stripes() {
+        TransferLockStripes lockStripes = mock(TransferLockStripes.class);
+        TransferService groupService = new TransferService(transferRepository, scoreService, idempotencyCache, lockStripes,
+                transferProcessor, new TransferRetry(3, 0, 0, meterRegistry));
+        when(transferRepository.isGroupCommit()).thenReturn(true);
+        when(transferRepository.executeTransfer("ACC123456", "ACC789012", 1000L, null)).thenReturn(TransferOutcome.SUCCESS);
+
+        assertDoesNotThrow(() -> groupService.transfer("ACC123456", "ACC789012", 1000L));
+        verify(transferRepository, times(1)).executeTransfer("ACC123456", "ACC789012", 1000L, null);
+        verifyNoInteractions(lockStripes);
+    }
+
+    @Test
+    void transfer_retries_after_deadlock() {
+        String fromScore = "ACC123456";
+        String toScore = "ACC789012";
+        Long amount = 1000L;
+
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null))
+                .thenThrow(new CannotAcquireLockException("Deadlock found when trying to get lock",
+                        new SQLException("Deadlock found when trying to get lock", "40001", 1213)))
+                .thenReturn(TransferOutcome.SUCCESS);
 
         assertDoesNotThrow(() -> transferService.transfer(fromScore, toScore, amount));
-        verify(transferRepository, times(1)).executeTransfer(anyString(), anyString(), anyLong(), anyLong(), anyLong());
+        verify(transferRepository, times(2)).executeTransfer(fromScore, toScore, amount, null);
+        assertEquals(1.0, meterRegistry.get("pbc.transfer.retry").tag("reason", "deadlock").counter().count());
+        assertEquals(1.0, meterRegistry.get("pbc.transfer.retry.outcome").tag("outcome", "recovered").counter().count());
+    }
+
+    @Test
+    void transfer_releases_lock_stripes_before_retrying() {
+        TransferLockStripes lockStripes = mock(TransferLockStripes.class);
+        when(lockStripes.withLocks(eq("ACC123456"), eq("ACC789012"), any()))
+                .thenAnswer(inv -> inv.<Supplier<?>>getArgument(2).get());
+        TransferService stripedService = new TransferService(transferRepository, scoreService, idempotencyCache, lockStripes,
+                transferProcessor, new TransferRetry(3, 0, 0, meterRegistry));
+        when(transferRepository.executeTransfer("ACC123456", "ACC789012", 1000L, null))
+                .thenThrow(new CannotAcquireLockException("Deadlock found when trying to get lock",
+                        new SQLException("Deadlock found when trying to get lock", "40001", 1213)))
+                .thenReturn(TransferOutcome.SUCCESS);
+
+        assertDoesNotThrow(() -> stripedService.transfer("ACC123456", "ACC789012", 1000L));
+        // Каждая попытка заново захватывает полосы, значит между попытками они были отпущены
+        verify(lockStripes, times(2)).withLocks(eq("ACC123456"), eq("ACC789012"), any());
+    }
+
+    @Test
+    void transfer_throws_ServiceUnavailableException_when_retries_exhausted() {
+        String fromScore = "ACC123456";
+        String toScore = "ACC789012";
+        Long amount = 1000L;
+
+        when(transferRepository.executeTransfer(fromScore, toScore, amount, null))
+                .thenThrow(new CannotAcquireLockException("Lock wait timeout exceeded",
+                        new SQLException("Lock wait timeout exceeded", "HY000", 1205)));
+
+        assertThrows(ServiceUnavailableException.class, () -> transferService.transfer(fromScore, toScore, amount));
+        verify(transferRepository, times(3)).executeTransfer(fromScore, toScore, amount, null);
+        assertEquals(1.0, meterRegistry.get("pbc.transfer.retry.outcome").tag("outcome", "exhausted").counter().count());
+    }
+
+    @Test
+    void transfer_does_not_retry_other_data_errors() {
+        when(transferRepository.executeTransfer("ACC123456", "ACC789012", 1000L, null))
+                .thenThrow(new DataIntegrityViolationException("constraint"));
+
+        assertThrows(RuntimeException.class, () -> transferService.transfer("ACC123456", "ACC789012", 1000L));
+        verify(transferRepository, times(1)).executeTransfer("ACC123456", "ACC789012", 1000L, null);
+    }
+
+    @Test
+    void transfer_throws_BadRequestException_when_idempotency_key_too_long() {
+        String key = "k".repeat(37);
+
+        assertThrows(BadRequestException.class,
+                () -> transferService.transfer("ACC123456", "ACC789012", 1000L, 1L, key));
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void transferBatch_best_effort_marks_invalid_and_applies_valid() {
+        Transfer valid = new Transfer("ACC123456", "ACC789012", 100L);
+        Transfer negative = new Transfer("ACC123456", "ACC789012", -5L);
+        Transfer same = new Transfer("ACC123456", "ACC123456", 10L);
+
+        when(transferRepository.executeBatch(List.of(valid), false)).thenReturn(List.of(TransferOutcome.SUCCESS));
+
+        List<TransferResult> results = transferService.transferBatch(List.of(valid, negative, same), BatchMode.BEST_EFFORT);
+
+        assertEquals(3, results.size());
+        assertEquals(TransferOutcome.SUCCESS, results.get(0).getOutcome());
+        assertEquals(TransferOutcome.INVALID, results.get(1).getOutcome());
+        assertEquals(TransferOutcome.INVALID, results.get(2).getOutcome());
+        verify(transferRepository, times(1)).executeBatch(List.of(valid), false);
+    }
+
+    @Test
+    void transferBatch_all_or_nothing_rejects_batch_with_invalid_item() {
+        Transfer valid = new Transfer("ACC123456", "ACC789012", 100L);
+        Transfer invalid = new Transfer("", "ACC789012", 100L);
+
+        List<TransferResult> results = transferService.transferBatch(List.of(valid, invalid), BatchMode.ALL_OR_NOTHING);
+
+        assertEquals(TransferOutcome.ROLLED_BACK, results.get(0).getOutcome());
+        assertEquals(TransferOutcome.INVALID, results.get(1).getOutcome());
+        verify(transferRepository, never()).executeBatch(anyList(), anyBoolean());
+    }
+
+    @Test
+    void transferBatch_throws_BadRequestException_when_empty() {
+        assertThrows(BadRequestException.class, () -> transferService.transferBatch(List.of(), BatchMode.BEST_EFFORT));
+    }
+
+    @Test
+    void transferBatch_throws_BadRequestException_when_too_large() {
+        List<Transfer> transfers = Collections.nCopies(TransferService.MAX_BATCH_SIZE + 1, new Transfer("ACC1", "ACC2", 1L));
+
+        assertThrows(BadRequestException.class, () -> transferService.transferBatch(transfers, BatchMode.BEST_EFFORT));
+        verify(transferRepository, never()).executeBatch(anyList(), anyBoolean());
+    }
+
+    @Test
+    void submitTransfer_records_pending_transfer_and_wakes_worker() {
+        String expected = TransferService.transferUuid(1L, "async-key");
+        when(transferRepository.insertPending("ACC123456", "ACC789012", 1000L, expected)).thenReturn(TransferOutcome.SUCCESS);
+
+        String uuid = transferService.submitTransfer("ACC123456", "ACC789012", 1000L, 1L, "async-key");
+
+        assertEquals(expected, uuid);
+        verify(transferProcessor, times(1)).wakeUp();
+        verify(transferRepository, never()).executeTransfer(anyString(), anyString(), anyLong(), any());
+    }
+
+    @Test
+    void submitTransfer_generates_uuid_without_idempotency_key() {
+        when(transferRepository.insertPending(eq("ACC123456"), eq("ACC789012"), eq(1000L), anyString()))
+                .thenReturn(TransferOutcome.SUCCESS);
+
+        String uuid = transferService.submitTransfer("ACC123456", "ACC789012", 1000L, 1L, null);
+
+        assertNotNull(uuid);
+        verify(transferRepository, times(1)).insertPending("ACC123456", "ACC789012", 1000L, uuid);
+    }
+
+    @Test
+    void submitTransfer_throws_NotFoundException_when_score_missing() {
+        when(transferRepository.insertPending(anyString(), anyString(), anyLong(), anyString()))
+                .thenReturn(TransferOutcome.FROM_NOT_FOUND);
+
+        assertThrows(NotFoundException.class,
+                () -> transferService.submitTransfer("ACC123456", "ACC789012", 1000L, 1L, null));
+        verify(transferProcessor, never()).wakeUp();
+    }
+
+    @Test
+    void submitTransfer_rejects_idempotency_key_reused_with_other_transfer() {
+        String uuid = TransferService.transferUuid(1L, "async-key");
+        when(transferRepository.insertPending("ACC123456", "ACC789012", 5000L, uuid)).thenReturn(TransferOutcome.DUPLICATE);
+        when(transferRepository.findByUuid(uuid)).thenReturn(Optional.of(new TransferRecord(1L, uuid, "ACC123456", "ACC789012",
+                1000L, "PENDING", LocalDateTime.now(), null)));
+
+        assertThrows(ConflictException.class,
+                () -> transferService.submitTransfer("ACC123456", "ACC789012", 5000L, 1L, "async-key"));
+        verify(transferProcessor, never()).wakeUp();
+    }
+
+    @Test
+    void submitTransfer_throws_BadRequestException_for_invalid_amount() {
+        assertThrows(BadRequestException.class,
+                () -> transferService.submitTransfer("ACC123456", "ACC789012", 0L, 1L, null));
+        verify(transferRepository, never()).insertPending(anyString(), anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    void findTransfer_returns_record_from_repository() {
+        TransferRecord record = new TransferRecord(1L, "uuid-1", "ACC123456", "ACC789012", 1000L,
+                "PENDING", LocalDateTime.now(), null);
+        when(transferRepository.findByUuid("uuid-1")).thenReturn(Optional.of(record));
+        when(scoreService.isScoreOwner("ACC789012", 1L)).thenReturn(true);
+
+        Optional<TransferRecord> result = transferService.findTransfer("uuid-1", 1L);
+
+        assertTrue(result.isPresent());
+        assertEquals("PENDING", result.get().getStatus());
+    }
+
+    @Test
+    void findTransfer_hides_transfer_between_foreign_scores() {
+        TransferRecord record = new TransferRecord(1L, "uuid-1", "ACC123456", "ACC789012", 1000L,
+                "SUCCESS", LocalDateTime.now(), LocalDateTime.now());
+        when(transferRepository.findByUuid("uuid-1")).thenReturn(Optional.of(record));
+        when(scoreService.isScoreOwner(anyString(), eq(2L))).thenReturn(false);
+
+        assertTrue(transferService.findTransfer("uuid-1", 2L).isEmpty());
+    }
+
+    private static TransferRecord historyRecord(long id, LocalDateTime createdAt) {
+        return new TransferRecord(id, "uuid-" + id, "ACC123456", "ACC789012", 100L, "SUCCESS", createdAt, createdAt);
+    }
+
+    @Test
+    void getHistory_returns_page_with_cursor_to_next_page() {
+        LocalDateTime now = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        when(scoreService.isScoreOwner("ACC123456", 1L)).thenReturn(true);
+        when(transferRepository.findHistory("ACC123456", null, null, 3)).thenReturn(List.of(
+                historyRecord(30L, now), historyRecord(20L, now), historyRecord(10L, now.minusMinutes(1))));
+
+        TransferHistoryPage first = transferService.getHistory("ACC123456", 1L, null, 2);
+
+        assertEquals(2, first.getItems().size());
+        assertNotNull(first.getNextCursor());
+
+        when(transferRepository.findHistory("ACC123456", now, 20L, 3)).thenReturn(List.of(historyRecord(10L, now.minusMinutes(1))));
+
+        TransferHistoryPage second = transferService.getHistory("ACC123456", 1L, first.getNextCursor(), 2);
+
+        assertEquals(1, second.getItems().size());
+        assertNull(second.getNextCursor());
+        verify(transferRepository, times(1)).findHistory("ACC123456", now, 20L, 3);
+    }
+
+    @Test
+    void getHistory_throws_ForbiddenException_for_foreign_score() {
+        when(scoreService.isScoreOwner("ACC123456", 1L)).thenReturn(false);
+
+        assertThrows(ForbiddenException.class, () -> transferService.getHistory("ACC123456", 1L, null, 50));
+        verify(transferRepository, never()).findHistory(anyString(), any(), any(), anyInt());
+    }
+
+    @Test
+    void getHistory_throws_BadRequestException_for_malformed_cursor() {
+        when(scoreService.isScoreOwner("ACC123456", 1L)).thenReturn(true);
+
+        assertThrows(BadRequestException.class, () -> transferService.getHistory("ACC123456", 1L, "not-a-cursor", 50));
+    }
+
+    @Test
+    void getHistory_throws_BadRequestException_for_oversized_page() {
+        assertThrows(BadRequestException.class,
+                () -> transferService.getHistory("ACC123456", 1L, null, TransferService.MAX_HISTORY_PAGE_SIZE + 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void statementRows(TransferRecord... records) {
+        doAnswer(inv -> {
+            Consumer<TransferRecord> consumer = inv.getArgument(3);
+            for (TransferRecord record : records) {
+                consumer.accept(record);
+            }
+            return null;
+        }).when(transferRepository).streamStatement(eq("ACC123456"), any(), any(), any());
+    }
+
+    @Test
+    void writeStatement_streams_rows_as_csv() throws Exception {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        statementRows(
+                new TransferRecord(1L, "uuid-1", "ACC123456", "ACC789012", 100L, "SUCCESS", at, at),
+                new TransferRecord(2L, "uuid-2", "ACC789012", "ACC123456", 40L, "SUCCESS", at, at));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        transferService.writeStatement("ACC123456", null, null, StatementFormat.CSV, out);
+
+        assertEquals("""
+                transfer_uuid,created_at,direction,counterparty,amount,currency,fx_rate,status
+                uuid-1,2025-03-01T12:00,OUT,ACC789012,100,,,SUCCESS
+                uuid-2,2025-03-01T12:00,IN,ACC789012,40,,,SUCCESS
+                """, out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void writeStatement_shows_credited_amount_and_currency_to_receiver() throws Exception {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        // 10.00 USD со счёта ACC789012 зачислены на рублёвый счёт ACC123456 как 900.00 RUB
+        statementRows(new TransferRecord(1L, "uuid-1", "ACC789012", "ACC123456", 1_000L, "USD", 90_000L, "RUB",
+                new BigDecimal("90.0000000000"), "SUCCESS", at, at));
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+
+        transferService.writeStatement("ACC123456", null, null, StatementFormat.CSV, csv);
+        transferService.writeStatement("ACC123456", null, null, StatementFormat.NDJSON, ndjson);
+
+        assertEquals("""
+                transfer_uuid,created_at,direction,counterparty,amount,currency,fx_rate,status
+                uuid-1,2025-03-01T12:00,IN,ACC789012,90000,RUB,90.0000000000,SUCCESS
+                """, csv.toString(StandardCharsets.UTF_8));
+        assertEquals("{\"transferUuid\":\"uuid-1\",\"createdAt\":\"2025-03-01T12:00\",\"direction\":\"IN\","
+                + "\"counterparty\":\"ACC789012\",\"amount\":90000,\"currency\":\"RUB\",\"fxRate\":90.0000000000,"
+                + "\"status\":\"SUCCESS\"}\n", ndjson.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void getHistory_shows_credited_amount_to_receiver() {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        when(scoreService.isScoreOwner("ACC123456", 1L)).thenReturn(true);
+        when(transferRepository.findHistory("ACC123456", null, null, 51)).thenReturn(List.of(
+                new TransferRecord(1L, "uuid-1", "ACC789012", "ACC123456", 1_000L, "USD", 90_000L, "RUB",
+                        new BigDecimal("90.0000000000"), "SUCCESS", at, at)));
+
+        TransferRecord record = transferService.getHistory("ACC123456", 1L, null, 50).getItems().get(0);
+
+        assertEquals(90_000L, record.getAmount());
+        assertEquals("RUB", record.getCurrencyCode());
+    }
+
+    @Test
+    void getHistory_keeps_sender_amount_and_currency_for_pending_cross_currency_transfer() {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        when(scoreService.isScoreOwner("ACC123456", 1L)).thenReturn(true);
+        when(transferRepository.findHistory("ACC123456", null, null, 51)).thenReturn(List.of(
+                new TransferRecord(1L, "uuid-1", "ACC789012", "ACC123456", 100L, "USD", null, "RUB",
+                        null, "PENDING", at, null)));
+
+        TransferRecord record = transferService.getHistory("ACC123456", 1L, null, 50).getItems().get(0);
+
+        assertEquals(100L, record.getAmount());
+        assertEquals("USD", record.getCurrencyCode());
+    }
+
+    @Test
+    void writeStatement_streams_rows_as_ndjson_for_period() throws Exception {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        statementRows(new TransferRecord(1L, "uuid-1", "ACC123456", "ACC789012", 100L, "SUCCESS", at, at));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        transferService.writeStatement("ACC123456", LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31),
+                StatementFormat.NDJSON, out);
+
+        assertEquals("{\"transferUuid\":\"uuid-1\",\"createdAt\":\"2025-03-01T12:00\",\"direction\":\"OUT\","
+                + "\"counterparty\":\"ACC789012\",\"amount\":100,\"currency\":null,\"fxRate\":null,\"status\":\"SUCCESS\"}\n",
+                out.toString(StandardCharsets.UTF_8));
+        verify(transferRepository, times(1)).streamStatement(eq("ACC123456"),
+                eq(LocalDateTime.of(2025, 3, 1, 0, 0)), eq(LocalDateTime.of(2025, 4, 1, 0, 0)), any());
     }
 
     @Test
@@ -0,0 +1,107 @@
+package com.example.pbc.work_databased;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class FxRatesTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private FxRates fxRates;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        fxRates = new FxRates(jdbcTemplate, 60_000);
+    }
+
+    // Содержимое таблицы fx_rates: тройки (base, quote, rate)
+    private void rates(String... rows) {
+        doAnswer(inv -> {
+            RowCallbackHandler handler = inv.getArgument(1);
+            for (int i = 0; i < rows.length; i += 3) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getString("base_currency")).thenReturn(rows[i]);
+                when(rs.getString("quote_currency")).thenReturn(rows[i + 1]);
+                when(rs.getBigDecimal("rate")).thenReturn(new BigDecimal(rows[i + 2]));
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(eq(FxRates.LOAD_RATES_SQL), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    void convert_same_currency_without_rates() {
+        assertEquals(Optional.of(new FxRates.Conversion(500L, BigDecimal.ONE)), fxRates.convert("RUB", "RUB", 500L));
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void convert_uses_direct_rate_and_rounds_down() {
+        rates("USD", "RUB", "90.55");
+        fxRates.refresh();
+
+        FxRates.Conversion conversion = fxRates.convert("USD", "RUB", 3L).orElseThrow();
+
+        assertEquals(271L, conversion.creditAmount());
+        assertEquals(new BigDecimal("90.55"), conversion.rate());
+    }
+
+    @Test
+    void convert_uses_inverse_rate_when_direct_missing() {
+        rates("USD", "RUB", "80");
+        fxRates.refresh();
+
+        FxRates.Conversion conversion = fxRates.convert("RUB", "USD", 8000L).orElseThrow();
+
+        assertEquals(100L, conversion.creditAmount());
+        assertEquals(0, new BigDecimal("0.0125").compareTo(conversion.rate()));
+    }
+
+    @Test
+    void convert_returns_empty_without_rate_or_for_zero_credit() {
+        rates("USD", "RUB", "80");
+        fxRates.refresh();
+
+        assertTrue(fxRates.convert("EUR", "RUB", 100L).isEmpty());
+        assertTrue(fxRates.convert("RUB", "USD", 50L).isEmpty());
+    }
+
+    @Test
+    void refresh_replaces_snapshot() {
+        rates("USD", "RUB", "80");
+        fxRates.refresh();
+        rates("EUR", "RUB", "95");
+        fxRates.refresh();
+
+        assertTrue(fxRates.rate("USD", "RUB").isEmpty());
+        assertEquals(Optional.of(new BigDecimal("95")), fxRates.rate("EUR", "RUB"));
+    }
+
+    @Test
+    void failed_refresh_keeps_previous_snapshot() {
+        rates("USD", "RUB", "80");
+        fxRates.start();
+        try {
+            doThrow(new RuntimeException("db down"))
+                    .when(jdbcTemplate).query(eq(FxRates.LOAD_RATES_SQL), any(RowCallbackHandler.class));
+
+            assertThrows(RuntimeException.class, () -> fxRates.refresh());
+            assertEquals(Optional.of(new BigDecimal("80")), fxRates.rate("USD", "RUB"));
+        } finally {
+            fxRates.shutdown();
+        }
+    }
+}
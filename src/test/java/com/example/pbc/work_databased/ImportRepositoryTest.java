@@ -0,0 +1,61 @@
+package com.example.pbc.work_databased;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ImportRepositoryTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private ImportRepository importRepository;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        importRepository = new ImportRepository(jdbcTemplate);
+    }
+
+    @Test
+    void start_registers_import_and_returns_checkpoint() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong("lines_done")).thenReturn(1000L);
+        when(rs.getLong("result_bytes")).thenReturn(25_000L);
+        when(rs.getLong("succeeded")).thenReturn(990L);
+        when(rs.getLong("failed")).thenReturn(10L);
+        when(jdbcTemplate.queryForObject(eq(ImportRepository.FIND_CHECKPOINT_SQL), any(RowMapper.class), eq("hash")))
+                .thenAnswer(inv -> inv.<RowMapper<?>>getArgument(1).mapRow(rs, 0));
+
+        ImportRepository.Checkpoint checkpoint = importRepository.start("hash", "payouts.csv");
+
+        verify(jdbcTemplate, times(1)).update(ImportRepository.START_IMPORT_SQL, "hash", "payouts.csv");
+        assertEquals(new ImportRepository.Checkpoint(1000L, 25_000L, 990L, 10L, false), checkpoint);
+    }
+
+    @Test
+    void start_reports_finished_import() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getTimestamp("finished_at")).thenReturn(new Timestamp(0));
+        when(jdbcTemplate.queryForObject(eq(ImportRepository.FIND_CHECKPOINT_SQL), any(RowMapper.class), eq("hash")))
+                .thenAnswer(inv -> inv.<RowMapper<?>>getArgument(1).mapRow(rs, 0));
+
+        assertTrue(importRepository.start("hash", "payouts.csv").finished());
+    }
+
+    @Test
+    void saveCheckpoint_updates_progress() {
+        importRepository.saveCheckpoint("hash", new ImportRepository.Checkpoint(500L, 12_000L, 480L, 20L, false));
+
+        verify(jdbcTemplate, times(1)).update(ImportRepository.SAVE_CHECKPOINT_SQL, 500L, 12_000L, 480L, 20L, "hash");
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.ServiceUnavailableException;
+import com.example.pbc.model.TransferOutcome;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class LedgerWriterTest {
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private final List<List<LedgerEntry>> groups = Collections.synchronizedList(new ArrayList<>());
+
+    private LedgerWriter ledgerWriter;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionTemplate.execute(any(TransactionCallback.class)))
+                .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(transactionStatus));
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ledgerWriter != null) {
+            ledgerWriter.shutdown();
+        }
+    }
+
+    private void startWriter(Function<List<LedgerEntry>, List<TransferOutcome>> applier, int groupSize, long windowMillis) {
+        ledgerWriter = new LedgerWriter(transactionTemplate, group -> {
+            groups.add(List.copyOf(group));
+            return applier.apply(group);
+        }, groupSize, windowMillis, 1_000);
+        ledgerWriter.start();
+    }
+
+    private static LedgerEntry entry(String uuid) {
+        return new LedgerEntry("ACC123456", "ACC789012", 100L, uuid);
+    }
+
+    @Test
+    void write_returns_outcome_after_group_commit() {
+        startWriter(group -> Collections.nCopies(group.size(), TransferOutcome.SUCCESS), 10, 1);
+
+        assertEquals(TransferOutcome.SUCCESS, ledgerWriter.write(entry("uuid-1")));
+        assertEquals(1, groups.size());
+        verify(transactionTemplate, times(1)).execute(any(TransactionCallback.class));
+    }
+
+    @Test
+    void concurrent_writes_are_committed_in_shared_groups() throws Exception {
+        int writers = 8;
+        startWriter(group -> Collections.nCopies(group.size(), TransferOutcome.SUCCESS), writers, 200);
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch ready = new CountDownLatch(writers);
+        List<Future<TransferOutcome>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            String uuid = "uuid-" + i;
+            results.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                return ledgerWriter.write(entry(uuid));
+            }));
+        }
+        for (Future<TransferOutcome> result : results) {
+            assertEquals(TransferOutcome.SUCCESS, result.get());
+        }
+        executor.shutdown();
+
+        assertTrue(groups.size() < writers, "переводы должны фиксироваться группами");
+        assertEquals(writers, groups.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void transfers_from_same_score_share_one_group() throws Exception {
+        startWriter(group -> Collections.nCopies(group.size(), TransferOutcome.SUCCESS), 2, 1_000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch ready = new CountDownLatch(2);
+        List<Future<TransferOutcome>> results = new ArrayList<>();
+        for (String uuid : List.of("uuid-1", "uuid-2")) {
+            results.add(executor.submit(() -> {
+                ready.countDown();
+                ready.await();
+                return ledgerWriter.write(entry(uuid));
+            }));
+        }
+        for (Future<TransferOutcome> result : results) {
+            assertEquals(TransferOutcome.SUCCESS, result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(1, groups.size());
+        assertEquals(2, groups.get(0).size());
+        assertTrue(groups.get(0).stream().allMatch(e -> "ACC123456".equals(e.fromScoreNumber())));
+    }
+
+    @Test
+    void failed_group_is_retried_entry_by_entry() throws Exception {
+        startWriter(group -> {
+            for (LedgerEntry e : group) {
+                if ("dup".equals(e.transferUuid())) {
+                    throw new DuplicateKeyException("Duplicate entry 'dup'");
+                }
+            }
+            return Collections.nCopies(group.size(), TransferOutcome.SUCCESS);
+        }, 2, 1_000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<TransferOutcome> duplicate = executor.submit(() -> ledgerWriter.write(entry("dup")));
+        Future<TransferOutcome> valid = executor.submit(() -> ledgerWriter.write(entry("uuid-2")));
+
+        assertEquals(TransferOutcome.SUCCESS, valid.get());
+        Exception thrown = assertThrows(Exception.class, duplicate::get);
+        assertInstanceOf(DuplicateKeyException.class, thrown.getCause());
+        executor.shutdown();
+    }
+
+    @Test
+    void write_throws_ServiceUnavailableException_when_not_started() {
+        ledgerWriter = new LedgerWriter(transactionTemplate, group -> List.of(), 10, 1, 1_000);
+
+        assertThrows(ServiceUnavailableException.class, () -> ledgerWriter.write(entry("uuid-1")));
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.pbc.work_databased;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+
+class OutboxRepositoryTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private OutboxRepository outboxRepository;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        outboxRepository = new OutboxRepository(jdbcTemplate);
+    }
+
+    @Test
+    void fetchBatch_reads_events_in_order_with_limit() {
+        outboxRepository.fetchBatch(500);
+
+        verify(jdbcTemplate, times(1)).query(eq(OutboxRepository.FETCH_EVENTS_SQL), any(RowMapper.class), eq(500));
+    }
+
+    @Test
+    void delete_removes_events_in_one_statement() {
+        outboxRepository.delete(List.of(1L, 2L, 3L));
+
+        verify(jdbcTemplate, times(1)).update("DELETE FROM outbox_events WHERE id IN (?, ?, ?)", 1L, 2L, 3L);
+    }
+
+    @Test
+    void delete_skips_empty_list() {
+        outboxRepository.delete(List.of());
+
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.NotFoundException;
+import com.example.pbc.model.BalanceCheck;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class PostingJournalTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private ScoreSlots scoreSlots;
+
+    private PostingJournal postingJournal;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionTemplate.execute(any(TransactionCallback.class)))
+                .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(transactionStatus));
+        postingJournal = new PostingJournal(jdbcTemplate, transactionTemplate, scoreSlots);
+    }
+
+    private void lockedScore(long id, long balance, int slotCount) {
+        when(jdbcTemplate.query(eq(PostingJournal.LOCK_SCORE_SQL), any(RowMapper.class), eq("ACC123456")))
+                .thenAnswer(inv -> {
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getLong("id")).thenReturn(id);
+                    when(rs.getLong("balance")).thenReturn(balance);
+                    when(rs.getInt("slot_count")).thenReturn(slotCount);
+                    return List.of(inv.<RowMapper<?>>getArgument(1).mapRow(rs, 0));
+                });
+    }
+
+    @Test
+    void check_compares_snapshot_with_journal() {
+        when(jdbcTemplate.query(eq(PostingJournal.CHECK_SQL), any(RowMapper.class), eq("ACC123456")))
+                .thenReturn(List.of(new BalanceCheck("ACC123456", 500L, 500L)));
+
+        assertTrue(postingJournal.check("ACC123456").isConsistent());
+        verify(transactionTemplate, never()).execute(any(TransactionCallback.class));
+    }
+
+    @Test
+    void check_throws_NotFoundException_when_score_missing() {
+        when(jdbcTemplate.query(eq(PostingJournal.CHECK_SQL), any(RowMapper.class), eq("ACC000000")))
+                .thenReturn(List.of());
+
+        assertThrows(NotFoundException.class, () -> postingJournal.check("ACC000000"));
+    }
+
+    @Test
+    void rebuild_moves_difference_into_score_balance() {
+        lockedScore(1L, 700L, 1);
+        when(jdbcTemplate.queryForObject(PostingJournal.JOURNAL_BALANCE_SQL, Long.class, 1L)).thenReturn(1000L);
+
+        BalanceCheck before = postingJournal.rebuild("ACC123456");
+
+        assertFalse(before.isConsistent());
+        assertEquals(700L, before.getSnapshotBalance());
+        verify(jdbcTemplate, times(1)).update("UPDATE scores SET balance = balance + ? WHERE id = ?", 300L, 1L);
+    }
+
+    @Test
+    void rebuild_counts_slots_and_skips_update_when_consistent() {
+        lockedScore(1L, 0L, 4);
+        when(scoreSlots.lockTotal(1L)).thenReturn(1000L);
+        when(jdbcTemplate.queryForObject(PostingJournal.JOURNAL_BALANCE_SQL, Long.class, 1L)).thenReturn(1000L);
+
+        assertTrue(postingJournal.rebuild("ACC123456").isConsistent());
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void takeSnapshots_reads_scores_in_ranges_and_inserts_changed_balances() throws Exception {
+        LocalDateTime asOf = LocalDateTime.of(2025, 3, 1, 12, 0);
+        when(jdbcTemplate.queryForObject(PostingJournal.SNAPSHOT_CUTOFF_SQL, Long.class, Timestamp.valueOf(asOf)))
+                .thenReturn(900L);
+        when(jdbcTemplate.queryForObject(PostingJournal.MAX_SCORE_ID_SQL, Long.class)).thenReturn(250L);
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong("score_id")).thenReturn(7L);
+        when(rs.getLong("posting_id")).thenReturn(880L);
+        when(rs.getLong("balance")).thenReturn(1500L);
+        doAnswer(inv -> {
+            inv.<RowCallbackHandler>getArgument(1).processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(eq(PostingJournal.SNAPSHOT_DELTAS_SQL), any(RowCallbackHandler.class), eq(900L), eq(0L), eq(100L));
+
+        int created = postingJournal.takeSnapshots(asOf, 100);
+
+        assertEquals(1, created);
+        verify(jdbcTemplate, times(3)).query(eq(PostingJournal.SNAPSHOT_DELTAS_SQL), any(RowCallbackHandler.class),
+                eq(900L), anyLong(), anyLong());
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(PostingJournal.INSERT_SNAPSHOT_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 1
+                        && Long.valueOf(880L).equals(rows.get(0)[1])
+                        && Long.valueOf(1500L).equals(rows.get(0)[2])));
+    }
+
+    @Test
+    void takeSnapshots_does_nothing_without_postings() {
+        LocalDateTime asOf = LocalDateTime.of(2025, 3, 1, 12, 0);
+        when(jdbcTemplate.queryForObject(PostingJournal.SNAPSHOT_CUTOFF_SQL, Long.class, Timestamp.valueOf(asOf)))
+                .thenReturn(0L);
+
+        assertEquals(0, postingJournal.takeSnapshots(asOf, 100));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void balanceAt_queries_nearest_snapshot_and_replay_in_one_statement() {
+        LocalDateTime at = LocalDateTime.of(2025, 3, 1, 0, 0);
+        Timestamp atTs = Timestamp.valueOf(at);
+        when(jdbcTemplate.query(eq(PostingJournal.BALANCE_AT_SQL), any(RowMapper.class),
+                eq(atTs), eq(atTs), eq(atTs), eq(atTs), eq("ACC123456")))
+                .thenReturn(List.of(4200L));
+
+        assertEquals(Optional.of(4200L), postingJournal.balanceAt("ACC123456", at));
+    }
+}
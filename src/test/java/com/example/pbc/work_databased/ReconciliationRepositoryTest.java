@@ -0,0 +1,104 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.model.BalanceCheck;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ReconciliationRepositoryTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private ReconciliationRepository reconciliationRepository;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        doAnswer(inv -> {
+            inv.<Consumer<TransactionStatus>>getArgument(0).accept(transactionStatus);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        reconciliationRepository = new ReconciliationRepository(jdbcTemplate, transactionTemplate);
+    }
+
+    @Test
+    void scanRange_streams_snapshots_and_postings() throws Exception {
+        List<String> rows = new ArrayList<>();
+        reconciliationRepository.scanRange(0, 100, new ReconciliationRepository.RangeSink() {
+            @Override
+            public void snapshot(long scoreId, String scoreNumber, long balance) {
+                rows.add("snapshot " + scoreId + " " + balance);
+            }
+
+            @Override
+            public void posting(long scoreId, long amount) {
+                rows.add("posting " + scoreId + " " + amount);
+            }
+        });
+
+        ArgumentCaptor<PreparedStatementCreator> creator = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        ArgumentCaptor<RowCallbackHandler> handler = ArgumentCaptor.forClass(RowCallbackHandler.class);
+        verify(jdbcTemplate).query(creator.capture(), handler.capture());
+
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(connection.prepareStatement(ReconciliationRepository.SCAN_RANGE_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY))
+                .thenReturn(ps);
+        creator.getValue().createPreparedStatement(connection);
+        verify(ps).setFetchSize(Integer.MIN_VALUE);
+        verify(ps).setLong(4, 100L);
+
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getInt("kind")).thenReturn(0, 1);
+        when(rs.getLong("score_id")).thenReturn(7L, 7L);
+        when(rs.getLong("amount")).thenReturn(500L, -200L);
+        handler.getValue().processRow(rs);
+        handler.getValue().processRow(rs);
+
+        assertEquals(List.of("snapshot 7 500", "posting 7 -200"), rows);
+    }
+
+    @Test
+    void completeRange_stores_mismatches_with_progress() {
+        List<ReconciliationRepository.Mismatch> mismatches =
+                List.of(new ReconciliationRepository.Mismatch(7L, new BalanceCheck("ACC7", 500L, 300L)));
+
+        reconciliationRepository.completeRange("run-1", 0, 100, mismatches);
+
+        verify(jdbcTemplate).batchUpdate(eq(ReconciliationRepository.INSERT_MISMATCH_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 1 && Long.valueOf(7L).equals(rows.get(0)[1])));
+        verify(jdbcTemplate).update(ReconciliationRepository.COMPLETE_RANGE_SQL, "run-1", 0L, 100L);
+    }
+
+    @Test
+    void completeRange_without_mismatches_only_records_progress() {
+        reconciliationRepository.completeRange("run-1", 100, 200, List.of());
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+        verify(jdbcTemplate).update(ReconciliationRepository.COMPLETE_RANGE_SQL, "run-1", 100L, 200L);
+    }
+}
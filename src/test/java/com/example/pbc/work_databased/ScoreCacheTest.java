@@ -0,0 +1,128 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.model.Score;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoreCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ScoreCache scoreCache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        scoreCache = new ScoreCache(2, meterRegistry);
+    }
+
+    private static Score score(String number) {
+        return new Score(1L, 100L, number, 500L, true);
+    }
+
+    @Test
+    void get_counts_hits_and_misses() {
+        scoreCache.put(score("ACC1"), scoreCache.generation("ACC1"));
+
+        assertTrue(scoreCache.getFresh("ACC1").isPresent());
+        assertTrue(scoreCache.getFresh("ACC2").isEmpty());
+
+        assertEquals(1.0, meterRegistry.get("pbc.score.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, meterRegistry.get("pbc.score.cache.requests").tag("result", "miss").counter().count());
+    }
+
+    @Test
+    void put_evicts_least_recently_used_score() {
+        scoreCache.put(score("ACC1"), scoreCache.generation("ACC1"));
+        scoreCache.put(score("ACC2"), scoreCache.generation("ACC2"));
+        scoreCache.getAny("ACC1");
+        scoreCache.put(score("ACC3"), scoreCache.generation("ACC3"));
+
+        assertTrue(scoreCache.getAny("ACC1").isPresent());
+        assertTrue(scoreCache.getAny("ACC2").isEmpty());
+        assertEquals(1.0, meterRegistry.get("pbc.score.cache.evictions").counter().count());
+        assertEquals(2.0, meterRegistry.get("pbc.score.cache.size").gauge().value());
+    }
+
+    @Test
+    void invalidate_keeps_identity_but_not_balance() {
+        scoreCache.put(score("ACC1"), scoreCache.generation("ACC1"));
+
+        scoreCache.invalidate("ACC1");
+
+        assertTrue(scoreCache.getFresh("ACC1").isEmpty());
+        assertTrue(scoreCache.getAny("ACC1").isPresent());
+    }
+
+    @Test
+    void put_of_row_read_before_invalidation_is_stored_stale() {
+        long generation = scoreCache.generation("ACC1");
+        scoreCache.invalidateAfterCompletion(List.of(score("ACC1")));
+
+        scoreCache.put(score("ACC1"), generation);
+
+        assertTrue(scoreCache.getFresh("ACC1").isEmpty());
+        assertTrue(scoreCache.getAny("ACC1").isPresent());
+    }
+
+    @Test
+    void invalidation_of_other_score_does_not_make_read_stale() {
+        long generation = scoreCache.generation("ACC1");
+        // Хэши "ACC1" и "ACC2" отличаются на единицу, поэтому полосы у счетов разные
+        scoreCache.invalidate("ACC2");
+
+        scoreCache.put(score("ACC1"), generation);
+
+        assertTrue(scoreCache.getFresh("ACC1").isPresent());
+    }
+
+    @Test
+    void user_list_is_dropped_when_one_of_its_scores_changes() {
+        Score score = score("ACC1");
+        scoreCache.putUserScores(100L, List.of(score), scoreCache.userVersion(100L));
+        assertTrue(scoreCache.getUserScores(100L).isPresent());
+
+        scoreCache.invalidateAfterCompletion(List.of(score));
+
+        assertTrue(scoreCache.getUserScores(100L).isEmpty());
+        assertEquals(1.0, meterRegistry.get("pbc.score.list.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void user_list_read_before_reset_is_not_cached() {
+        long version = scoreCache.userVersion(100L);
+        scoreCache.invalidateUser(100L);
+
+        List<Score> returned = scoreCache.putUserScores(100L, List.of(score("ACC1")), version);
+
+        assertEquals(1, returned.size());
+        assertTrue(scoreCache.getUserScores(100L).isEmpty());
+    }
+
+    @Test
+    void user_reset_does_not_take_cache_capacity() {
+        scoreCache.putUserScores(100L, List.of(score("ACC1")), scoreCache.userVersion(100L));
+        scoreCache.putUserScores(200L, List.of(score("ACC2")), scoreCache.userVersion(200L));
+
+        // Сбросы списков других пользователей не вытесняют закэшированные списки
+        scoreCache.invalidateUser(300L);
+        scoreCache.invalidateUser(400L);
+
+        assertTrue(scoreCache.getUserScores(100L).isPresent());
+        assertTrue(scoreCache.getUserScores(200L).isPresent());
+    }
+
+    @Test
+    void user_list_read_before_reset_of_other_user_is_cached() {
+        long version = scoreCache.userVersion(100L);
+        scoreCache.invalidateUser(101L);
+
+        scoreCache.putUserScores(100L, List.of(score("ACC1")), version);
+
+        assertTrue(scoreCache.getUserScores(100L).isPresent());
+    }
+}
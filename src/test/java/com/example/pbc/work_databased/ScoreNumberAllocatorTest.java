@@ -0,0 +1,93 @@
+package com.example.pbc.work_databased;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ScoreNumberAllocatorTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    // Значение строки score_number_sequence
+    private final AtomicLong sequence = new AtomicLong(1);
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(transactionTemplate.execute(any(TransactionCallback.class)))
+                .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(transactionStatus));
+        when(jdbcTemplate.queryForList(ScoreNumberAllocator.LOCK_SEQUENCE_SQL, Long.class, ScoreNumberAllocator.SEQUENCE_NAME))
+                .thenAnswer(inv -> List.of(sequence.get()));
+        when(jdbcTemplate.update(eq(ScoreNumberAllocator.ADVANCE_SEQUENCE_SQL), anyLong(), eq(ScoreNumberAllocator.SEQUENCE_NAME)))
+                .thenAnswer(inv -> {
+                    sequence.set(inv.getArgument(1));
+                    return 1;
+                });
+    }
+
+    @Test
+    void next_pads_number_to_configured_width() {
+        ScoreNumberAllocator allocator = new ScoreNumberAllocator(jdbcTemplate, transactionTemplate, "ACC", 10, 100);
+
+        assertEquals("ACC0000000001", allocator.next());
+        assertEquals("ACC0000000002", allocator.next());
+    }
+
+    @Test
+    void next_reserves_new_block_only_when_current_is_exhausted() {
+        ScoreNumberAllocator allocator = new ScoreNumberAllocator(jdbcTemplate, transactionTemplate, "ACC", 6, 10);
+
+        for (int i = 0; i < 25; i++) {
+            allocator.next();
+        }
+
+        verify(transactionTemplate, times(3)).execute(any(TransactionCallback.class));
+        assertEquals(31L, sequence.get());
+    }
+
+    @Test
+    void next_never_returns_duplicates_across_threads() throws Exception {
+        ScoreNumberAllocator allocator = new ScoreNumberAllocator(jdbcTemplate, transactionTemplate, "ACC", 8, 50);
+        Set<String> numbers = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 2_000; i++) {
+            executor.execute(() -> numbers.add(allocator.next()));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(2_000, numbers.size());
+    }
+
+    @Test
+    void next_throws_when_width_is_exhausted() {
+        sequence.set(99);
+        ScoreNumberAllocator allocator = new ScoreNumberAllocator(jdbcTemplate, transactionTemplate, "ACC", 2, 10);
+
+        assertEquals("ACC99", allocator.next());
+        assertThrows(IllegalStateException.class, allocator::next);
+    }
+}
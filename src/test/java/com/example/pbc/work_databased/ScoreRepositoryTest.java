@@ -3,17 +3,23 @@ package com.example.pbc.work_databased;
 import com.example.pbc.exception.BadRequestException;
 import com.example.pbc.exception.NotFoundException;
 import com.example.pbc.model.Score;
+import com.example.pbc.model.ScoreLookup;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -23,12 +29,25 @@ class ScoreRepositoryTest {
     @Mock
     private JdbcTemplate jdbcTemplate;
 
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private ScoreCache scoreCache;
+
     private ScoreRepository scoreRepository;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        scoreRepository = new ScoreRepository(jdbcTemplate);
+        doAnswer(inv -> {
+            inv.<Consumer<TransactionStatus>>getArgument(0).accept(transactionStatus);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        scoreCache = new ScoreCache(100, new SimpleMeterRegistry());
+        scoreRepository = new ScoreRepository(jdbcTemplate, transactionTemplate, scoreCache);
     }
 
     @Test
@@ -38,7 +57,17 @@ class ScoreRepositoryTest {
         when(jdbcTemplate.update(anyString(), any(Object[].class))).thenReturn(1);
 
         assertDoesNotThrow(() -> scoreRepository.createScore(score));
-        verify(jdbcTemplate, times(1)).update(anyString(), anyLong(), anyString(), anyLong(), anyBoolean());
+        verify(jdbcTemplate, times(1)).update(anyString(), anyLong(), anyString(), anyLong(), eq("RUB"), anyBoolean());
+        verify(jdbcTemplate, times(1)).update(ScoreRepository.OPENING_POSTING_SQL, "ACC123456");
+    }
+
+    @Test
+    void createScore_skips_opening_posting_for_zero_balance() {
+        Score score = new Score(1L, 100L, "ACC123456", 0L, true);
+
+        scoreRepository.createScore(score);
+
+        verify(jdbcTemplate, never()).update(eq(ScoreRepository.OPENING_POSTING_SQL), any(Object[].class));
     }
 
     @Test
@@ -82,6 +111,35 @@ class ScoreRepositoryTest {
         verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), eq(userId));
     }
 
+    @Test
+    void getScoresByUserId_serves_list_from_cache_until_user_scores_change() {
+        Long userId = 100L;
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(userId)))
+                .thenReturn(List.of(new Score(1L, userId, "ACC123456", 1000L, true)));
+
+        List<Score> first = scoreRepository.getScoresByUserId(userId);
+        List<Score> second = scoreRepository.getScoresByUserId(userId);
+        assertSame(first, second);
+        assertThrows(UnsupportedOperationException.class, () -> first.add(first.get(0)));
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), eq(userId));
+
+        scoreCache.invalidateAfterCompletion(List.of(first.get(0)));
+        scoreRepository.getScoresByUserId(userId);
+        verify(jdbcTemplate, times(2)).query(anyString(), any(RowMapper.class), eq(userId));
+    }
+
+    @Test
+    void createScore_resets_cached_user_list() {
+        Long userId = 100L;
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq(userId))).thenReturn(List.of());
+        scoreRepository.getScoresByUserId(userId);
+
+        scoreRepository.createScore(new Score(null, userId, "ACC123456", 0L, true));
+        scoreRepository.getScoresByUserId(userId);
+
+        verify(jdbcTemplate, times(2)).query(anyString(), any(RowMapper.class), eq(userId));
+    }
+
     @Test
     void getScoresByUserId_throws_NotFoundException_when_no_scores_found() {
         Long userId = 100L;
@@ -137,20 +195,94 @@ class ScoreRepositoryTest {
     @Test
     void scoreExists_returns_true_when_score_exists() {
         String scoreNumber = "ACC123456";
-        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), eq(scoreNumber))).thenReturn(1);
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(new Score(1L, 100L, scoreNumber, 1000L, true));
         boolean exists = scoreRepository.scoreExists(scoreNumber);
         assertTrue(exists);
-        verify(jdbcTemplate, times(1)).queryForObject(anyString(), eq(Integer.class), eq(scoreNumber));
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber));
     }
 
     @Test
     void scoreExists_returns_false_when_score_does_not_exist() {
         String scoreNumber = "ACC123456";
-        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), eq(scoreNumber))).thenReturn(0);
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenThrow(new EmptyResultDataAccessException(1));
         boolean exists = scoreRepository.scoreExists(scoreNumber);
         assertFalse(exists);
     }
 
+    @Test
+    void scoreExists_and_ownership_are_answered_from_cache_after_first_read() {
+        String scoreNumber = "ACC123456";
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(new Score(1L, 100L, scoreNumber, 1000L, true));
+
+        assertTrue(scoreRepository.scoreExists(scoreNumber));
+        assertTrue(scoreRepository.isScoreBelongsToUser(scoreNumber, 100L));
+        assertFalse(scoreRepository.isScoreBelongsToUser(scoreNumber, 200L));
+        scoreCache.invalidate(scoreNumber);
+        assertTrue(scoreRepository.scoreExists(scoreNumber));
+
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber));
+    }
+
+    @Test
+    void findByScoreNumber_rereads_score_after_invalidation() {
+        String scoreNumber = "ACC123456";
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(new Score(1L, 100L, scoreNumber, 1000L, true), new Score(1L, 100L, scoreNumber, 400L, true));
+
+        assertEquals(1000L, scoreRepository.findByScoreNumber(scoreNumber).orElseThrow().getBalance());
+        assertEquals(1000L, scoreRepository.findByScoreNumber(scoreNumber).orElseThrow().getBalance());
+        scoreRepository.evict(scoreNumber);
+        assertEquals(400L, scoreRepository.findByScoreNumber(scoreNumber).orElseThrow().getBalance());
+
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber));
+    }
+
+    @Test
+    void closeScore_marks_cached_score_stale() {
+        String scoreNumber = "ACC123456";
+        scoreCache.put(new Score(1L, 100L, scoreNumber, 1000L, true), scoreCache.generation(scoreNumber));
+        when(jdbcTemplate.update(anyString(), anyString())).thenReturn(1);
+
+        scoreRepository.closeScore(scoreNumber);
+
+        assertTrue(scoreCache.getFresh(scoreNumber).isEmpty());
+    }
+
+    @Test
+    void lookupScore_reads_projection_with_single_query() {
+        String scoreNumber = "ACC123456";
+        when(jdbcTemplate.query(eq(ScoreRepository.LOOKUP_SCORE_SQL), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(List.of(new ScoreLookup(7L, 100L, 1000L, true)));
+
+        ScoreLookup score = scoreRepository.lookupScore(scoreNumber).orElseThrow();
+
+        assertEquals(7L, score.getId());
+        assertEquals(1000L, score.getBalance());
+        verify(jdbcTemplate, never()).queryForObject(anyString(), any(RowMapper.class), any());
+    }
+
+    @Test
+    void lookupScore_uses_fresh_cache_entry_without_query() {
+        String scoreNumber = "ACC123456";
+        scoreCache.put(new Score(7L, 100L, scoreNumber, 1000L, true), scoreCache.generation(scoreNumber));
+
+        ScoreLookup score = scoreRepository.lookupScore(scoreNumber).orElseThrow();
+
+        assertEquals(100L, score.getUserId());
+        assertTrue(score.getStatus());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void lookupScore_returns_empty_for_unknown_score() {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), eq("ACC000000"))).thenReturn(List.of());
+
+        assertTrue(scoreRepository.lookupScore("ACC000000").isEmpty());
+    }
+
     @Test
     void scoreExists_throws_BadRequestException_when_score_number_is_null() {
         String scoreNumber = null;
@@ -218,7 +350,8 @@ class ScoreRepositoryTest {
     void isScoreBelongsToUser_returns_true_when_belongs() {
         String scoreNumber = "ACC123456";
         Long userId = 100L;
-        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), eq(scoreNumber), eq(userId))).thenReturn(1);
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(new Score(1L, userId, scoreNumber, 1000L, true));
         boolean belongs = scoreRepository.isScoreBelongsToUser(scoreNumber, userId);
         assertTrue(belongs);
     }
@@ -227,7 +360,8 @@ class ScoreRepositoryTest {
     void isScoreBelongsToUser_returns_false_when_not_belonging() {
         String scoreNumber = "ACC123456";
         Long userId = 100L;
-        when(jdbcTemplate.queryForObject(anyString(), eq(Integer.class), eq(scoreNumber), eq(userId))).thenReturn(0);
+        when(jdbcTemplate.queryForObject(anyString(), any(RowMapper.class), eq(scoreNumber)))
+                .thenReturn(new Score(1L, 200L, scoreNumber, 1000L, true));
         boolean belongs = scoreRepository.isScoreBelongsToUser(scoreNumber, userId);
         assertFalse(belongs);
     }
@@ -0,0 +1,137 @@
+package com.example.pbc.work_databased;
+
+import com.example.pbc.exception.BadRequestException;
+import com.example.pbc.exception.NotFoundException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ScoreSlotsTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    private ScoreSlots scoreSlots;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        doAnswer(inv -> {
+            inv.<Consumer<TransactionStatus>>getArgument(0).accept(transactionStatus);
+            return null;
+        }).when(transactionTemplate).executeWithoutResult(any());
+        scoreSlots = new ScoreSlots(jdbcTemplate, transactionTemplate);
+    }
+
+    // Слоты счёта: пары (slot, balance)
+    private void slots(long scoreId, long... balances) {
+        when(jdbcTemplate.query(eq(ScoreSlots.LOCK_SLOTS_SQL), any(RowMapper.class), eq(scoreId)))
+                .thenAnswer(inv -> {
+                    RowMapper<?> mapper = inv.getArgument(1);
+                    List<Object> rows = new ArrayList<>();
+                    for (int i = 0; i < balances.length; i++) {
+                        ResultSet rs = mock(ResultSet.class);
+                        when(rs.getInt("slot")).thenReturn(i);
+                        when(rs.getLong("balance")).thenReturn(balances[i]);
+                        rows.add(mapper.mapRow(rs, i));
+                    }
+                    return rows;
+                });
+    }
+
+    @Test
+    void lockTotal_sums_all_slots() {
+        slots(1L, 100L, 250L, 0L);
+
+        assertEquals(350L, scoreSlots.lockTotal(1L));
+    }
+
+    @Test
+    void credit_updates_single_slot_within_range() {
+        scoreSlots.credit(1L, 4, 500L);
+
+        verify(jdbcTemplate, times(1)).update(eq(ScoreSlots.CREDIT_SLOT_SQL), eq(500L), eq(1L),
+                intThat(slot -> slot >= 0 && slot < 4));
+    }
+
+    @Test
+    void debit_takes_from_slots_in_order() {
+        slots(1L, 100L, 0L, 300L);
+
+        scoreSlots.debit(1L, 250L);
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(ScoreSlots.CREDIT_SLOT_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 2
+                        && Long.valueOf(-100L).equals(rows.get(0)[0]) && Integer.valueOf(0).equals(rows.get(0)[2])
+                        && Long.valueOf(-150L).equals(rows.get(1)[0]) && Integer.valueOf(2).equals(rows.get(1)[2])));
+    }
+
+    @Test
+    void debit_throws_when_slots_insufficient() {
+        slots(1L, 100L, 50L);
+
+        assertThrows(IllegalStateException.class, () -> scoreSlots.debit(1L, 200L));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void split_moves_balance_into_first_slot() {
+        when(jdbcTemplate.query(eq(ScoreSlots.LOCK_SCORE_SQL), any(RowMapper.class), eq("ACC123456")))
+                .thenReturn(List.of(1L));
+        slots(1L);
+        when(jdbcTemplate.queryForObject("SELECT balance FROM scores WHERE id = ?", Long.class, 1L)).thenReturn(900L);
+
+        scoreSlots.split("ACC123456", 3);
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(ScoreSlots.INSERT_SLOT_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 3
+                        && Long.valueOf(900L).equals(rows.get(0)[2])
+                        && Long.valueOf(0L).equals(rows.get(2)[2])));
+        verify(jdbcTemplate, times(1)).update("UPDATE scores SET balance = 0, slot_count = ? WHERE id = ?", 3, 1L);
+    }
+
+    @Test
+    void split_throws_BadRequestException_for_invalid_slot_count() {
+        assertThrows(BadRequestException.class, () -> scoreSlots.split("ACC123456", 1));
+        assertThrows(BadRequestException.class, () -> scoreSlots.split("ACC123456", ScoreSlots.MAX_SLOTS + 1));
+    }
+
+    @Test
+    void merge_moves_slot_balances_back_to_score() {
+        when(jdbcTemplate.query(eq(ScoreSlots.LOCK_SCORE_SQL), any(RowMapper.class), eq("ACC123456")))
+                .thenReturn(List.of(1L));
+        slots(1L, 400L, 600L);
+
+        scoreSlots.merge("ACC123456");
+
+        verify(jdbcTemplate, times(1)).update("UPDATE scores SET balance = balance + ?, slot_count = 1 WHERE id = ?", 1000L, 1L);
+        verify(jdbcTemplate, times(1)).update("DELETE FROM score_slots WHERE score_id = ?", 1L);
+    }
+
+    @Test
+    void merge_throws_NotFoundException_when_score_missing() {
+        when(jdbcTemplate.query(eq(ScoreSlots.LOCK_SCORE_SQL), any(RowMapper.class), eq("ACC000000")))
+                .thenReturn(List.of());
+
+        assertThrows(NotFoundException.class, () -> scoreSlots.merge("ACC000000"));
+    }
+}
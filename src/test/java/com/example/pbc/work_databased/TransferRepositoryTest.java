@@ -1,11 +1,32 @@
 package com.example.pbc.work_databased;
 
+import com.example.pbc.model.Score;
+import com.example.pbc.model.Transfer;
+import com.example.pbc.model.TransferOutcome;
+import com.example.pbc.model.TransferRecord;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -16,110 +37,473 @@ class TransferRepositoryTest {
     private JdbcTemplate jdbcTemplate;
 
     @Mock
-    private ScoreRepository scoreRepository;
+    private TransactionTemplate transactionTemplate;
+
+    @Mock
+    private TransactionStatus transactionStatus;
+
+    @Mock
+    private ScoreSlots scoreSlots;
+
+    private FxRates fxRates;
+
+    private ScoreCache scoreCache;
 
     private TransferRepository transferRepository;
 
+    private final String fromScore = "ACC123456";
+    private final String toScore = "ACC789012";
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        transferRepository = new TransferRepository(jdbcTemplate, scoreRepository);
+        when(transactionTemplate.execute(any(TransactionCallback.class)))
+                .thenAnswer(inv -> inv.<TransactionCallback<?>>getArgument(0).doInTransaction(transactionStatus));
+        fxRates = new FxRates(jdbcTemplate, 60_000);
+        scoreCache = new ScoreCache(100, new SimpleMeterRegistry());
+        transferRepository = new TransferRepository(jdbcTemplate, transactionTemplate, scoreSlots, fxRates, scoreCache);
+    }
+
+    private void lockedScores(Score... scores) {
+        when(jdbcTemplate.query(eq(TransferRepository.LOCK_SCORES_SQL), any(RowMapper.class), eq(fromScore), eq(toScore)))
+                .thenReturn(List.of(scores));
     }
 
     @Test
     void executeTransfer_successfully_executes_transfer() {
-        String fromScore = "ACC123456";
-        String toScore = "ACC789012";
         Long amount = 1000L;
-        Long idFrom = 1L;
-        Long idTo = 2L;
-
-        when(scoreRepository.scoreExists(fromScore)).thenReturn(true);
-        when(scoreRepository.scoreExists(toScore)).thenReturn(true);
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
 
-        transferRepository.executeTransfer(fromScore, toScore, amount, idFrom, idTo);
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, amount, null);
 
+        assertEquals(TransferOutcome.SUCCESS, outcome);
+        verify(transactionTemplate, times(1)).execute(any(TransactionCallback.class));
         verify(jdbcTemplate, times(1)).update(
-                eq("UPDATE scores SET balance = balance - ? WHERE score_number = ?"),
-                eq(amount),
-                eq(fromScore)
+                eq(TransferRepository.MOVE_BALANCE_SQL),
+                eq(1L), eq(amount), eq(amount), eq(1L), eq(2L)
         );
-
         verify(jdbcTemplate, times(1)).update(
-                eq("UPDATE scores SET balance = balance + ? WHERE score_number = ?"),
+                eq(TransferRepository.INSERT_TRANSFER_SQL),
+                anyString(),
+                eq(1L),
+                eq(2L),
+                eq(amount),
+                eq("RUB"),
                 eq(amount),
-                eq(toScore)
+                eq(BigDecimal.ONE)
         );
+    }
+
+    // Курс USD -> RUB в снимке курсов
+    private void usdRubRate(String rate) throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString("base_currency")).thenReturn("USD");
+        when(rs.getString("quote_currency")).thenReturn("RUB");
+        when(rs.getBigDecimal("rate")).thenReturn(new BigDecimal(rate));
+        doAnswer(inv -> {
+            inv.<RowCallbackHandler>getArgument(1).processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(eq(FxRates.LOAD_RATES_SQL), any(RowCallbackHandler.class));
+        fxRates.refresh();
+    }
+
+    @Test
+    void executeTransfer_converts_amount_between_currencies_and_records_rate() throws Exception {
+        usdRubRate("90.5");
+        Score sender = new Score(1L, 10L, fromScore, 2000L, true);
+        sender.setCurrencyCode("USD");
+        lockedScores(sender, new Score(2L, 20L, toScore, 0L, true));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, "fx-key");
+
+        assertEquals(TransferOutcome.SUCCESS, outcome);
+        verify(jdbcTemplate, times(1)).update(TransferRepository.MOVE_BALANCE_SQL, 1L, 1000L, 90500L, 1L, 2L);
+        verify(jdbcTemplate, times(1)).update(TransferRepository.INSERT_TRANSFER_SQL,
+                "fx-key", 1L, 2L, 1000L, "USD", 90500L, new BigDecimal("90.5"));
+        verify(jdbcTemplate, times(1)).update(TransferRepository.INSERT_POSTINGS_SQL,
+                "fx-key", 1L, -1000L, "fx-key", 2L, 90500L);
+    }
+
+    @Test
+    void findExistingNumbers_checks_numbers_with_single_in_query() {
+        doAnswer(inv -> {
+            ResultSet rs = mock(ResultSet.class);
+            when(rs.getString("score_number")).thenReturn(fromScore);
+            inv.<RowCallbackHandler>getArgument(1).processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(eq("SELECT score_number FROM scores WHERE score_number IN (?, ?)"),
+                any(RowCallbackHandler.class), eq(fromScore), eq(toScore));
+
+        assertEquals(Set.of(fromScore), transferRepository.findExistingNumbers(new LinkedHashSet<>(List.of(fromScore, toScore))));
+    }
+
+    @Test
+    void executeImportChunk_saves_checkpoint_in_same_transaction() {
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true)));
+        List<List<TransferOutcome>> seen = new ArrayList<>();
+
+        List<TransferOutcome> outcomes = transferRepository.executeImportChunk(
+                List.of(new Transfer(fromScore, toScore, 100L)), List.of("import-uuid"), seen::add);
+
+        assertEquals(List.of(TransferOutcome.SUCCESS), outcomes);
+        assertEquals(List.of(outcomes), seen);
+        verify(transactionTemplate, times(1)).execute(any(TransactionCallback.class));
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(TransferRepository.INSERT_TRANSFER_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 1 && "import-uuid".equals(rows.get(0)[0])));
+    }
+
+    @Test
+    void executeTransfer_returns_FX_RATE_UNAVAILABLE_without_rate() {
+        Score sender = new Score(1L, 10L, fromScore, 2000L, true);
+        sender.setCurrencyCode("EUR");
+        lockedScores(sender, new Score(2L, 20L, toScore, 0L, true));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
+
+        assertEquals(TransferOutcome.FX_RATE_UNAVAILABLE, outcome);
+        verify(jdbcTemplate, never()).update(eq(TransferRepository.MOVE_BALANCE_SQL), any(Object[].class));
+    }
+
+    @Test
+    void executeTransfer_marks_cached_scores_stale() {
+        Score cachedFrom = new Score(1L, 10L, fromScore, 2000L, true);
+        scoreCache.put(cachedFrom, scoreCache.generation(fromScore));
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+
+        transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
+
+        assertTrue(scoreCache.getFresh(fromScore).isEmpty());
+        assertEquals(Optional.of(cachedFrom), scoreCache.getAny(fromScore));
+    }
+
+    @Test
+    void executeTransfer_appends_debit_and_credit_postings() {
+        Long amount = 1000L;
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+
+        transferRepository.executeTransfer(fromScore, toScore, amount, "client-key");
+
+        verify(jdbcTemplate, times(1)).update(TransferRepository.INSERT_POSTINGS_SQL,
+                "client-key", 1L, -amount, "client-key", 2L, amount);
+    }
+
+    @Test
+    void executeTransfer_writes_outbox_events_for_both_owners() {
+        Long amount = 1000L;
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+
+        transferRepository.executeTransfer(fromScore, toScore, amount, null);
+
+        verify(jdbcTemplate, times(1)).update(TransferRepository.INSERT_OUTBOX_PAIR_SQL,
+                1L, 10L, -amount, 2L, 20L, amount);
+    }
+
+    @Test
+    void executeTransfer_stores_idempotency_key_as_transfer_uuid() {
+        Long amount = 1000L;
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+
+        transferRepository.executeTransfer(fromScore, toScore, amount, "client-key");
 
         verify(jdbcTemplate, times(1)).update(
-                eq("INSERT INTO transfers (transfer_uuid, from_score_id, to_score_id, amount) VALUES (?, ?, ?, ?)"),
-                anyString(),
-                eq(idFrom),
-                eq(idTo),
-                eq(amount)
+                eq(TransferRepository.INSERT_TRANSFER_SQL),
+                eq("client-key"), eq(1L), eq(2L), eq(amount), eq("RUB"), eq(amount), eq(BigDecimal.ONE)
         );
     }
 
     @Test
-    void executeTransfer_throws_IllegalArgumentException_when_from_score_not_found() {
-        String fromScore = "ACC123456";
-        String toScore = "ACC789012";
+    void executeTransfer_returns_DUPLICATE_when_transfer_uuid_already_stored() {
         Long amount = 1000L;
-        Long idFrom = 1L;
-        Long idTo = 2L;
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true));
+        when(jdbcTemplate.update(eq(TransferRepository.INSERT_TRANSFER_SQL), any(Object[].class)))
+                .thenThrow(new DuplicateKeyException("Duplicate entry"));
 
-        when(scoreRepository.scoreExists(fromScore)).thenReturn(false);
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, amount, "client-key");
 
-        IllegalArgumentException thrown = assertThrows(
-                IllegalArgumentException.class,
-                () -> transferRepository.executeTransfer(fromScore, toScore, amount, idFrom, idTo)
-        );
+        assertEquals(TransferOutcome.DUPLICATE, outcome);
+    }
+
+    @Test
+    void executeTransfer_returns_FROM_NOT_FOUND_when_from_score_not_found() {
+        lockedScores(new Score(2L, 20L, toScore, 0L, true));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
+
+        assertEquals(TransferOutcome.FROM_NOT_FOUND, outcome);
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void executeTransfer_returns_TO_NOT_FOUND_when_to_score_not_found() {
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
 
-        assertEquals("Счёт отправителя не найден", thrown.getMessage());
+        assertEquals(TransferOutcome.TO_NOT_FOUND, outcome);
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void executeTransfer_returns_TO_CLOSED_when_to_score_is_closed() {
+        lockedScores(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, false));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
+
+        assertEquals(TransferOutcome.TO_CLOSED, outcome);
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+    }
 
+    @Test
+    void executeTransfer_returns_INSUFFICIENT_FUNDS_when_balance_is_low() {
+        lockedScores(new Score(1L, 10L, fromScore, 500L, true), new Score(2L, 20L, toScore, 0L, true));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, 1000L, null);
+
+        assertEquals(TransferOutcome.INSUFFICIENT_FUNDS, outcome);
         verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
     }
 
+    private List<Transfer> circularBatch() {
+        when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(
+                        new Score(1L, 10L, "ACC000001", 100L, true),
+                        new Score(2L, 20L, "ACC000002", 0L, true),
+                        new Score(3L, 30L, "ACC000003", 0L, true)));
+        return List.of(
+                new Transfer("ACC000001", "ACC000002", 100L),
+                new Transfer("ACC000002", "ACC000003", 50L),
+                new Transfer("ACC000003", "ACC000001", 1000L));
+    }
+
+    @Test
+    void executeBatch_best_effort_applies_valid_transfers_with_batch_updates() {
+        List<TransferOutcome> outcomes = transferRepository.executeBatch(circularBatch(), false);
+
+        assertEquals(List.of(TransferOutcome.SUCCESS, TransferOutcome.SUCCESS, TransferOutcome.INSUFFICIENT_FUNDS), outcomes);
+        verify(jdbcTemplate, times(1)).query(anyString(), any(RowMapper.class), any(Object[].class));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.ADD_BALANCE_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 3));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.INSERT_TRANSFER_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 2));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.INSERT_POSTINGS_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 2
+                        && Long.valueOf(-100L).equals(rows.get(0)[2])
+                        && Long.valueOf(100L).equals(rows.get(0)[5])));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.INSERT_OUTBOX_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 3));
+        verify(transactionStatus, never()).setRollbackOnly();
+    }
+
     @Test
-    void executeTransfer_throws_IllegalArgumentException_when_to_score_not_found() {
-        String fromScore = "ACC123456";
-        String toScore = "ACC789012";
+    void executeBatch_all_or_nothing_rolls_back_on_failure() {
+        List<TransferOutcome> outcomes = transferRepository.executeBatch(circularBatch(), true);
+
+        assertEquals(List.of(TransferOutcome.ROLLED_BACK, TransferOutcome.ROLLED_BACK, TransferOutcome.INSUFFICIENT_FUNDS), outcomes);
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+        verify(transactionStatus, times(1)).setRollbackOnly();
+    }
+
+    @Test
+    void executeTransfer_with_group_commit_writes_history_through_ledger_writer() {
+        TransferRepository grouped = new TransferRepository(jdbcTemplate, transactionTemplate, scoreSlots, fxRates, scoreCache, 10, 1, 100);
+        grouped.start();
+        try {
+            when(jdbcTemplate.query(anyString(), any(RowMapper.class), any(Object[].class)))
+                    .thenReturn(List.of(new Score(1L, 10L, fromScore, 2000L, true), new Score(2L, 20L, toScore, 0L, true)));
+
+            TransferOutcome outcome = grouped.executeTransfer(fromScore, toScore, 1000L, "group-key");
+
+            assertEquals(TransferOutcome.SUCCESS, outcome);
+            verify(jdbcTemplate, times(1)).batchUpdate(
+                    eq(TransferRepository.INSERT_TRANSFER_SQL),
+                    argThat((List<Object[]> rows) -> rows.size() == 1 && "group-key".equals(rows.get(0)[0])));
+            verify(jdbcTemplate, never()).update(eq(TransferRepository.MOVE_BALANCE_SQL), any(Object[].class));
+        } finally {
+            grouped.shutdown();
+        }
+    }
+
+    @Test
+    void executeTransfer_credits_random_slot_of_slotted_receiver_under_shared_lock() {
+        Long amount = 1000L;
+        Score receiver = new Score(2L, 20L, toScore, 0L, true);
+        receiver.setSlotCount(4);
+        when(scoreSlots.isSlotted(toScore)).thenReturn(true);
+        when(jdbcTemplate.query(endsWith("FOR UPDATE"), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(new Score(1L, 10L, fromScore, 2000L, true)));
+        when(jdbcTemplate.query(endsWith("FOR SHARE"), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(receiver));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, amount, null);
+
+        assertEquals(TransferOutcome.SUCCESS, outcome);
+        verify(scoreSlots, times(1)).credit(2L, 4, amount);
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.ADD_BALANCE_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 1 && Long.valueOf(1L).equals(rows.get(0)[1])));
+        verify(jdbcTemplate, never()).update(eq(TransferRepository.MOVE_BALANCE_SQL), any(Object[].class));
+    }
+
+    @Test
+    void executeTransfer_relocks_merged_receiver_for_update() {
         Long amount = 1000L;
-        Long idFrom = 1L;
-        Long idTo = 2L;
+        Score receiver = new Score(2L, 20L, toScore, 0L, true);
+        when(scoreSlots.isSlotted(toScore)).thenReturn(true);
+        when(jdbcTemplate.query(endsWith("FOR UPDATE"), any(RowMapper.class), eq(fromScore)))
+                .thenReturn(List.of(new Score(1L, 10L, fromScore, 2000L, true)));
+        when(jdbcTemplate.query(endsWith("FOR SHARE"), any(RowMapper.class), eq(toScore)))
+                .thenReturn(List.of(receiver));
+        when(jdbcTemplate.query(endsWith("FOR UPDATE"), any(RowMapper.class), eq(toScore)))
+                .thenReturn(List.of(receiver));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, amount, null);
+
+        assertEquals(TransferOutcome.SUCCESS, outcome);
+        verify(scoreSlots, times(1)).forget(2L, toScore);
+        verify(jdbcTemplate, times(1)).query(endsWith("FOR UPDATE"), any(RowMapper.class), eq(toScore));
+        verify(scoreSlots, never()).credit(anyLong(), anyInt(), anyLong());
+    }
 
-        when(scoreRepository.scoreExists(fromScore)).thenReturn(true);
-        when(scoreRepository.scoreExists(toScore)).thenReturn(false);
+    @Test
+    void executeTransfer_debits_slots_of_slotted_sender() {
+        Long amount = 1000L;
+        Score sender = new Score(1L, 10L, fromScore, 0L, true);
+        sender.setSlotCount(4);
+        when(scoreSlots.isSlotted(fromScore)).thenReturn(true);
+        when(scoreSlots.lockTotal(1L)).thenReturn(1500L);
+        when(jdbcTemplate.query(endsWith("FOR UPDATE"), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(new Score(2L, 20L, toScore, 0L, true)));
+        when(jdbcTemplate.query(endsWith("FOR SHARE"), any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(sender));
+
+        TransferOutcome outcome = transferRepository.executeTransfer(fromScore, toScore, amount, null);
+
+        assertEquals(TransferOutcome.SUCCESS, outcome);
+        verify(scoreSlots, times(1)).debit(1L, amount);
+    }
 
-        IllegalArgumentException thrown = assertThrows(
-                IllegalArgumentException.class,
-                () -> transferRepository.executeTransfer(fromScore, toScore, amount, idFrom, idTo)
-        );
+    @Test
+    void findHistory_first_page_reads_both_directions_without_cursor() {
+        transferRepository.findHistory(fromScore, null, null, 51);
 
-        assertEquals("Счёт получателя не найден", thrown.getMessage());
+        verify(jdbcTemplate, times(1)).query(eq(TransferRepository.HISTORY_FIRST_PAGE_SQL), any(RowMapper.class),
+                eq(fromScore), eq(51), eq(fromScore), eq(51), eq(51));
+    }
 
-        // Проверяем, что уменьшение баланса всё-таки произошло?
-        verify(jdbcTemplate, times(1)).update(
-                eq("UPDATE scores SET balance = balance - ? WHERE score_number = ?"),
-                eq(amount),
-                eq(fromScore)
-        );
+    @Test
+    void findHistory_next_page_uses_keyset_cursor() {
+        LocalDateTime createdAt = LocalDateTime.of(2025, 3, 1, 12, 0, 0);
+        Timestamp before = Timestamp.valueOf(createdAt);
 
-        // А вот увеличение — не должно быть
-        verify(jdbcTemplate, never()).update(
-                eq("UPDATE scores SET balance = balance + ? WHERE score_number = ?"),
-                eq(amount),
-                eq(toScore)
-        );
+        transferRepository.findHistory(fromScore, createdAt, 42L, 51);
 
-        // INSERT в transfers тоже не должен быть выполнен
-        verify(jdbcTemplate, never()).update(
-                eq("INSERT INTO transfers (...) VALUES (?, ?, ?, ?)"),
-                anyString(),
-                eq(idFrom),
-                eq(idTo),
-                eq(amount)
-        );
+        verify(jdbcTemplate, times(1)).query(eq(TransferRepository.HISTORY_NEXT_PAGE_SQL), any(RowMapper.class),
+                eq(fromScore), eq(before), eq(before), eq(42L), eq(51),
+                eq(fromScore), eq(before), eq(before), eq(42L), eq(51),
+                eq(51));
+        assertFalse(TransferRepository.HISTORY_NEXT_PAGE_SQL.contains("OFFSET"));
+    }
+
+    @Test
+    void streamStatement_reads_period_in_keyset_pages() {
+        LocalDateTime from = LocalDateTime.of(2025, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2026, 1, 1, 0, 0);
+        Timestamp fromTs = Timestamp.valueOf(from);
+        Timestamp toTs = Timestamp.valueOf(to);
+        int pageSize = TransferRepository.STATEMENT_PAGE_SIZE;
+        List<TransferRecord> firstPage = new ArrayList<>();
+        for (long id = 1; id <= pageSize; id++) {
+            firstPage.add(new TransferRecord(id, "uuid-" + id, fromScore, toScore, 100L, "SUCCESS",
+                    from.plusSeconds(id), from.plusSeconds(id)));
+        }
+        TransferRecord last = firstPage.get(pageSize - 1);
+        Timestamp cursor = Timestamp.valueOf(last.getCreatedAt());
+        when(jdbcTemplate.query(eq(TransferRepository.STATEMENT_PAGE_SQL), any(RowMapper.class),
+                eq(fromScore), eq(fromTs), eq(fromTs), eq(0L), eq(toTs), eq(pageSize),
+                eq(fromScore), eq(fromTs), eq(fromTs), eq(0L), eq(toTs), eq(pageSize), eq(pageSize)))
+                .thenReturn(firstPage);
+        when(jdbcTemplate.query(eq(TransferRepository.STATEMENT_PAGE_SQL), any(RowMapper.class),
+                eq(fromScore), eq(cursor), eq(cursor), eq(last.getId()), eq(toTs), eq(pageSize),
+                eq(fromScore), eq(cursor), eq(cursor), eq(last.getId()), eq(toTs), eq(pageSize), eq(pageSize)))
+                .thenReturn(List.of(new TransferRecord(pageSize + 1L, "uuid-last", toScore, fromScore, 50L, "SUCCESS",
+                        last.getCreatedAt(), last.getCreatedAt())));
+
+        List<TransferRecord> streamed = new ArrayList<>();
+        transferRepository.streamStatement(fromScore, from, to, streamed::add);
+
+        assertEquals(pageSize + 1, streamed.size());
+        assertEquals("uuid-last", streamed.get(pageSize).getTransferUuid());
+        assertFalse(TransferRepository.STATEMENT_PAGE_SQL.contains("OFFSET"));
+    }
+
+    @Test
+    void insertPending_returns_success_when_row_inserted() {
+        when(jdbcTemplate.update(TransferRepository.INSERT_PENDING_SQL, "uuid-1", 1000L, toScore, fromScore)).thenReturn(1);
+
+        assertEquals(TransferOutcome.SUCCESS, transferRepository.insertPending(fromScore, toScore, 1000L, "uuid-1"));
+    }
+
+    @Test
+    void insertPending_returns_not_found_when_score_missing() {
+        when(jdbcTemplate.update(TransferRepository.INSERT_PENDING_SQL, "uuid-1", 1000L, toScore, fromScore)).thenReturn(0);
+
+        assertEquals(TransferOutcome.FROM_NOT_FOUND, transferRepository.insertPending(fromScore, toScore, 1000L, "uuid-1"));
+    }
+
+    @Test
+    void insertPending_reports_duplicate_uuid() {
+        when(jdbcTemplate.update(TransferRepository.INSERT_PENDING_SQL, "uuid-1", 1000L, toScore, fromScore))
+                .thenThrow(new DuplicateKeyException("Duplicate entry"));
+
+        assertEquals(TransferOutcome.DUPLICATE, transferRepository.insertPending(fromScore, toScore, 1000L, "uuid-1"));
+    }
+
+    @Test
+    void processPending_returns_zero_when_queue_empty() {
+        when(jdbcTemplate.query(eq(TransferRepository.CLAIM_PENDING_SQL), any(RowMapper.class), eq(200)))
+                .thenReturn(List.of());
+
+        assertEquals(0, transferRepository.processPending(200));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void processPending_settles_claimed_transfers_and_marks_status() throws Exception {
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong("id")).thenReturn(100L, 101L);
+        when(rs.getString("transfer_uuid")).thenReturn("uuid-100", "uuid-101");
+        when(rs.getLong("from_score_id")).thenReturn(1L, 1L);
+        when(rs.getLong("to_score_id")).thenReturn(2L, 2L);
+        when(rs.getLong("amount")).thenReturn(700L, 700L);
+        when(jdbcTemplate.query(eq(TransferRepository.CLAIM_PENDING_SQL), any(RowMapper.class), eq(200)))
+                .thenAnswer(inv -> {
+                    RowMapper<?> mapper = inv.getArgument(1);
+                    return List.of(mapper.mapRow(rs, 0), mapper.mapRow(rs, 1));
+                });
+        when(jdbcTemplate.query(startsWith("SELECT " + TransferRepository.SCORE_COLUMNS + " FROM scores WHERE id IN"),
+                any(RowMapper.class), any(Object[].class)))
+                .thenReturn(List.of(new Score(1L, 10L, fromScore, 1000L, true), new Score(2L, 20L, toScore, 0L, true)));
+
+        int processed = transferRepository.processPending(200);
+
+        assertEquals(2, processed);
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.ADD_BALANCE_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 2));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.COMPLETE_TRANSFER_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 2
+                        && "SUCCESS".equals(rows.get(0)[0]) && Long.valueOf(700L).equals(rows.get(0)[1])
+                        && "FAILED".equals(rows.get(1)[0]) && rows.get(1)[1] == null));
+        verify(jdbcTemplate, times(1)).batchUpdate(
+                eq(TransferRepository.INSERT_POSTINGS_SQL),
+                argThat((List<Object[]> rows) -> rows.size() == 1 && "uuid-100".equals(rows.get(0)[0])));
     }
 
     @Test